@@ -0,0 +1,107 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Column positions of a TableDescriptor's fields in a result set, so hydrating a row can use index-based getters
+ * instead of a name lookup per column. Positions are worked out once per query shape and remembered per descriptor,
+ * so every row after the first of a query reuses them. Only objects whose fields match their descriptor can use
+ * them.
+ *
+ * A shape is recognized by its ResultSetMetaData object, or failing that by its column labels, since some drivers
+ * return a new metadata object for every call. Each descriptor keeps up to MAX_SHAPES_PER_TABLE shapes, so queries
+ * that alternate between e.g. a full select and a projection don't push each other out.
+ */
+final class ColumnIndexCache {
+
+  // Position for a field whose column isn't in the result set. The field falls back to the lookup by name.
+  static final int NOT_FOUND = 0;
+
+  static final int MAX_SHAPES_PER_TABLE = 16;
+
+  private static final Map<TableDescriptor, Shapes> shapesByDescriptor = new ConcurrentHashMap<>();
+
+  private ColumnIndexCache() {
+  }
+
+  /**
+   * @return Column position of the id, followed by the column position of each of the descriptor's fields, or null
+   * if the result set has no metadata to go on.
+   */
+  @Nullable
+  static int[] getColumnIndexes(TableDescriptor descriptor, ResultSet resultSet) throws SQLException {
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    if (metaData == null) {
+      return null;
+    }
+
+    Shapes shapes = shapesByDescriptor.computeIfAbsent(descriptor, key -> new Shapes());
+    LastShape last = shapes.last;
+    if (last != null && last.metaData.get() == metaData) {
+      return last.indexes;
+    }
+
+    List<String> columnLabels = getColumnLabels(metaData);
+    int[] indexes = shapes.indexesByLabels.get(columnLabels);
+    if (indexes == null) {
+      indexes = computeIndexes(columnLabels, descriptor.getFieldNames());
+      // Past the limit, odd shapes are worked out again each time rather than growing the map without bound.
+      if (shapes.indexesByLabels.size() < MAX_SHAPES_PER_TABLE) {
+        shapes.indexesByLabels.putIfAbsent(columnLabels, indexes);
+      }
+    }
+    shapes.last = new LastShape(metaData, indexes);
+    return indexes;
+  }
+
+  private static int[] computeIndexes(List<String> columnLabels, List<String> fieldNames) {
+    // Name lookups in JDBC are case-insensitive and take the first column with a matching name, so do the same.
+    Map<String, Integer> positionsByLabel = new HashMap<>();
+    for (int i = 0; i < columnLabels.size(); i++) {
+      if (columnLabels.get(i) != null) {
+        positionsByLabel.putIfAbsent(columnLabels.get(i).toLowerCase(Locale.ROOT), i + 1);
+      }
+    }
+
+    int[] indexes = new int[fieldNames.size() + 1];
+    indexes[0] = positionsByLabel.getOrDefault("id", NOT_FOUND);
+    for (int i = 0; i < fieldNames.size(); i++) {
+      indexes[i + 1] = positionsByLabel.getOrDefault(fieldNames.get(i).toLowerCase(Locale.ROOT), NOT_FOUND);
+    }
+    return indexes;
+  }
+
+  private static List<String> getColumnLabels(ResultSetMetaData metaData) throws SQLException {
+    String[] columnLabels = new String[metaData.getColumnCount()];
+    for (int i = 0; i < columnLabels.length; i++) {
+      columnLabels[i] = metaData.getColumnLabel(i + 1);
+    }
+    return Arrays.asList(columnLabels);
+  }
+
+  private static class Shapes {
+    private final Map<List<String>, int[]> indexesByLabels = new ConcurrentHashMap<>();
+    private volatile LastShape last;
+  }
+
+  private static class LastShape {
+    private final WeakReference<ResultSetMetaData> metaData;
+    private final int[] indexes;
+
+    private LastShape(ResultSetMetaData metaData, int[] indexes) {
+      this.metaData = new WeakReference<>(metaData);
+      this.indexes = indexes;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.base.Strings;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Date;
+
+/**
+ * Encoders for Postgres' binary COPY format. A stream is a header, one tuple per row, then a trailer. Each tuple is
+ * a 2-byte field count followed by its fields, and each field is a 4-byte length (-1 for NULL) followed by the value
+ * in the column type's binary send format. All numbers are big-endian, which is what DataOutputStream writes.
+ */
+final class CopyBinaryFormat {
+
+  private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+  // Postgres dates and timestamps count from 2000-01-01 rather than 1970-01-01.
+  private static final long POSTGRES_EPOCH_DAY = LocalDate.of(2000, 1, 1).toEpochDay();
+  private static final long POSTGRES_EPOCH_SECOND = 946_684_800L;
+
+  private static final short NUMERIC_POSITIVE = 0x0000;
+  private static final short NUMERIC_NEGATIVE = 0x4000;
+
+  private CopyBinaryFormat() {
+  }
+
+  static void writeHeader(DataOutputStream out) throws IOException {
+    out.write(SIGNATURE);
+    out.writeInt(0); // flags
+    out.writeInt(0); // header extension length
+  }
+
+  static void writeTupleStart(DataOutputStream out, int fieldCount) throws IOException {
+    out.writeShort(fieldCount);
+  }
+
+  static void writeTrailer(DataOutputStream out) throws IOException {
+    out.writeShort(-1);
+  }
+
+  static void writeNull(DataOutputStream out) throws IOException {
+    out.writeInt(-1);
+  }
+
+  static void writeInteger(DataOutputStream out, @Nullable Integer value, IntegerSize size) throws IOException {
+    if (value == null) {
+      writeNull(out);
+    } else {
+      writeIntegral(out, value, size);
+    }
+  }
+
+  static void writeIntegral(DataOutputStream out, long value, IntegerSize size) throws IOException {
+    if (size == IntegerSize.SMALLINT) {
+      if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+        throw new IllegalStateException("Value " + value + " doesn't fit in a SMALLINT column.");
+      }
+      out.writeInt(2);
+      out.writeShort((int) value);
+    } else if (size == IntegerSize.BIGINT) {
+      out.writeInt(8);
+      out.writeLong(value);
+    } else {
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Value " + value + " doesn't fit in an INTEGER column.");
+      }
+      out.writeInt(4);
+      out.writeInt((int) value);
+    }
+  }
+
+  static void writeDouble(DataOutputStream out, double value) throws IOException {
+    out.writeInt(8);
+    out.writeDouble(value);
+  }
+
+  static void writeBoolean(DataOutputStream out, @Nullable Boolean value) throws IOException {
+    if (value == null) {
+      writeNull(out);
+    } else {
+      writeBoolean(out, value.booleanValue());
+    }
+  }
+
+  static void writeBoolean(DataOutputStream out, boolean value) throws IOException {
+    out.writeInt(1);
+    out.writeByte(value ? 1 : 0);
+  }
+
+  static void writeText(DataOutputStream out, @Nullable String value) throws IOException {
+    if (value == null) {
+      writeNull(out);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * NUMERIC is sent as base-10000 digits: digit count, weight of the first digit, sign, display scale, then the
+   * digits themselves, with leading and trailing zero digits dropped.
+   */
+  static void writeNumeric(DataOutputStream out, @Nullable BigDecimal value) throws IOException {
+    if (value == null) {
+      writeNull(out);
+      return;
+    }
+
+    BigDecimal abs = value.abs();
+    if (abs.scale() < 0) {
+      abs = abs.setScale(0);
+    }
+
+    String plain = abs.toPlainString();
+    int point = plain.indexOf('.');
+    String integerPart = point < 0 ? plain : plain.substring(0, point);
+    String fractionPart = point < 0 ? "" : plain.substring(point + 1);
+
+    // line both parts up on base-10000 digit boundaries
+    integerPart = Strings.padStart(integerPart, roundUpToFour(integerPart.length()), '0');
+    fractionPart = Strings.padEnd(fractionPart, roundUpToFour(fractionPart.length()), '0');
+    String allDigits = integerPart + fractionPart;
+
+    short[] digits = new short[allDigits.length() / 4];
+    for (int i = 0; i < digits.length; i++) {
+      digits[i] = Short.parseShort(allDigits.substring(i * 4, i * 4 + 4));
+    }
+
+    int weight = integerPart.length() / 4 - 1;
+    int first = 0;
+    int last = digits.length;
+    while (first < last && digits[first] == 0) {
+      first++;
+      weight--;
+    }
+    while (last > first && digits[last - 1] == 0) {
+      last--;
+    }
+
+    int digitCount = last - first;
+    if (digitCount == 0) {
+      weight = 0;
+    }
+
+    out.writeInt(8 + 2 * digitCount);
+    out.writeShort(digitCount);
+    out.writeShort(weight);
+    out.writeShort(value.signum() < 0 ? NUMERIC_NEGATIVE : NUMERIC_POSITIVE);
+    out.writeShort(abs.scale());
+    for (int i = first; i < last; i++) {
+      out.writeShort(digits[i]);
+    }
+  }
+
+  /**
+   * DATE is sent as days since 2000-01-01. The calendar date is read in the JVM's default time zone, the same way
+   * PreparedStatement.setDate() reads it.
+   */
+  static void writeDate(DataOutputStream out, @Nullable Date value) throws IOException {
+    if (value == null) {
+      writeNull(out);
+    } else {
+      LocalDate localDate = new java.sql.Date(value.getTime()).toLocalDate();
+      out.writeInt(4);
+      out.writeInt((int) (localDate.toEpochDay() - POSTGRES_EPOCH_DAY));
+    }
+  }
+
+  /**
+   * TIMESTAMP WITH TIME ZONE is sent as microseconds since 2000-01-01 00:00 UTC.
+   */
+  static void writeTimestamp(DataOutputStream out, @Nullable Timestamp value) throws IOException {
+    if (value == null) {
+      writeNull(out);
+    } else {
+      Instant instant = value.toInstant();
+      long micros = (instant.getEpochSecond() - POSTGRES_EPOCH_SECOND) * 1_000_000L + instant.getNano() / 1_000;
+      out.writeInt(8);
+      out.writeLong(micros);
+    }
+  }
+
+  private static int roundUpToFour(int length) {
+    return ((length + 3) / 4) * 4;
+  }
+}
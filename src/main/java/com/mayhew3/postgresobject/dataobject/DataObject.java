@@ -3,8 +3,10 @@ package com.mayhew3.postgresobject.dataobject;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.dataobject.StatementTemplateCache.StatementType;
 import com.mayhew3.postgresobject.db.DatabaseType;
 import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.postgresobject.exception.OptimisticLockException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -12,9 +14,9 @@ import org.jetbrains.annotations.Nullable;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @SuppressWarnings({"SameParameterValue", "unused", "rawtypes"})
@@ -26,10 +28,34 @@ public abstract class DataObject {
   private Boolean initialized = false;
 
   private List<FieldValue> allFieldValues = new ArrayList<>();
-  private List<UniqueConstraint> uniqueConstraints = new ArrayList<>();
-  private List<ColumnsIndex> indices = new ArrayList<>();
-  private List<FieldValueForeignKey> foreignKeys = new ArrayList<>();
-  private List<String> sequenceNames = new ArrayList<>();
+
+  // Table metadata shared by all instances of this class, or null if this instance keeps its own, as instances made
+  // before any of their class was initialized do. Must be initialized before any field is registered.
+  @Nullable
+  private final TableDescriptor descriptor = TableDescriptor.forInstance(this);
+
+  // Number of the shared constraints and indices this instance has declared so far. Declaring anything the
+  // descriptor doesn't have switches the instance to its own lists.
+  private int sharedUniqueConstraintCount;
+  private int sharedIndexCount;
+  private List<UniqueConstraint> ownUniqueConstraints;
+  private List<ColumnsIndex> ownIndices;
+
+  // False once this instance registers a field the descriptor doesn't have at that position. Name lookups then use
+  // an index of this instance's own, built on first use.
+  private boolean fieldsMatchDescriptor = true;
+  private Map<String, FieldValue> ownFieldsByName;
+  // Names registered more than once, found while building ownFieldsByName. Looking one of them up throws.
+  private Set<String> duplicateFieldNames;
+
+  // Fields that may differ from their original value, by position in allFieldValues. A set bit only means "may have
+  // changed" (a field changed back to its original value stays set), so isChanged() is checked for set bits only.
+  // Positions past 63 go in the overflow set, created the first time one is needed.
+  private long dirtyFields;
+  private BitSet dirtyOverflowFields;
+
+  // Version column for optimistic locking, or null if the class didn't register one. See registerVersionField().
+  private FieldValueInt versionField;
 
   public FieldValueSerial id = registerId();
 
@@ -37,6 +63,20 @@ public abstract class DataObject {
 
   private static Logger logger = LogManager.getLogger(DataObject.class);
 
+  // Conversions are stateless, so every field shares one of each.
+  private static final FieldConversionBoolean BOOLEAN_CONVERSION = new FieldConversionBoolean();
+  private static final FieldConversionDate DATE_CONVERSION = new FieldConversionDate();
+  private static final FieldConversionTimestamp TIMESTAMP_CONVERSION = new FieldConversionTimestamp();
+  private static final FieldConversionInteger INTEGER_CONVERSION = new FieldConversionInteger();
+  private static final FieldConversionBigDecimal BIG_DECIMAL_CONVERSION = new FieldConversionBigDecimal();
+  private static final FieldConversionString STRING_CONVERSION = new FieldConversionString();
+  private static final FieldConversionLong LONG_CONVERSION = new FieldConversionLong();
+  private static final FieldConversionDouble DOUBLE_CONVERSION = new FieldConversionDouble();
+
+  // Postgres caps a statement at 32767 bind parameters (MySQL allows more), so multi-row INSERTs are chunked to fit.
+  private static final int MAX_BIND_PARAMETERS = 32767;
+  private static final int MAX_ROWS_PER_STATEMENT = 1000;
+
   public DataObject() {
     super();
     addUniqueConstraint(id);
@@ -45,7 +85,10 @@ public abstract class DataObject {
   public void initializeFromDBObject(ResultSet resultSet) throws SQLException {
     editMode = EditMode.UPDATE;
 
-    Integer existingId = resultSet.getInt("id");
+    // Positions are only known to line up with this object's fields if they match its descriptor's.
+    int[] columnIndexes = usesDescriptorFields() ? ColumnIndexCache.getColumnIndexes(descriptor, resultSet) : null;
+
+    int existingId = hasColumnIndex(columnIndexes, 0) ? resultSet.getInt(columnIndexes[0]) : resultSet.getInt("id");
 
     if (resultSet.wasNull()) {
       throw new RuntimeException("Row found with no valid id field.");
@@ -53,16 +96,87 @@ public abstract class DataObject {
 
     id.initializeValue(existingId);
 
-    for (FieldValue fieldValue : allFieldValues) {
-      fieldValue.initializeValue(resultSet);
+    for (int i = 0; i < allFieldValues.size(); i++) {
+      FieldValue fieldValue = allFieldValues.get(i);
+      if (hasColumnIndex(columnIndexes, i + 1)) {
+        fieldValue.initializeValue(resultSet, columnIndexes[i + 1]);
+      } else {
+        fieldValue.initializeValue(resultSet);
+      }
+    }
+
+    initialized = true;
+    shareTableMetadata();
+  }
+
+  /**
+   * Hydrate from a row that has the id in the first column, followed by only the fields whose positions are in
+   * projectedFields, in registration order. Every other field is left unloaded: it throws if read or changed, and
+   * isn't part of any UPDATE until it's loaded.
+   */
+  void initializeFromProjection(ResultSet resultSet, BitSet projectedFields) throws SQLException {
+    editMode = EditMode.UPDATE;
+
+    int existingId = resultSet.getInt(1);
+    if (resultSet.wasNull()) {
+      throw new RuntimeException("Row found with no valid id field.");
+    }
+    id.initializeValue(existingId);
+
+    int columnIndex = 2;
+    for (int i = 0; i < allFieldValues.size(); i++) {
+      FieldValue fieldValue = allFieldValues.get(i);
+      if (projectedFields.get(i)) {
+        fieldValue.initializeValue(resultSet, columnIndex++);
+      } else {
+        fieldValue.setLoaded(false);
+      }
     }
 
     initialized = true;
+    shareTableMetadata();
+  }
+
+  /**
+   * Load the fields a projection left out, from a row that has the id followed by every field, as in
+   * DataObjectFinder's select. Fields that are already loaded keep their values and any unsaved changes.
+   */
+  void initializeUnloadedFields(ResultSet resultSet) throws SQLException {
+    for (int i = 0; i < allFieldValues.size(); i++) {
+      FieldValue fieldValue = allFieldValues.get(i);
+      if (!fieldValue.isLoaded()) {
+        fieldValue.setLoaded(true);
+        fieldValue.initializeValue(resultSet, i + 2);
+      }
+    }
+  }
+
+  boolean hasUnloadedFields() {
+    for (FieldValue fieldValue : allFieldValues) {
+      if (!fieldValue.isLoaded()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean hasColumnIndex(@Nullable int[] columnIndexes, int position) {
+    return columnIndexes != null && columnIndexes[position] != ColumnIndexCache.NOT_FOUND;
   }
 
   public void initializeForInsert() {
     editMode = EditMode.INSERT;
     initialized = true;
+    shareTableMetadata();
+  }
+
+  /**
+   * An initialized object is fully constructed, so the first of its class can share its metadata with the rest.
+   */
+  private void shareTableMetadata() {
+    if (descriptor == null) {
+      TableDescriptor.publish(this);
+    }
   }
 
   void changeToUpdateObject() {
@@ -71,11 +185,62 @@ public abstract class DataObject {
   }
 
   public Boolean hasChanged() {
-    return !isForInsert() && !getChangedFields().isEmpty();
+    return !isForInsert() && nextChangedField(0) >= 0;
   }
 
   public List<FieldValue> getChangedFields() {
-    return allFieldValues.stream().filter(FieldValue::isChanged).collect(Collectors.toList());
+    List<FieldValue> changedFields = new ArrayList<>();
+    forEachChangedField(changedFields::add);
+    return changedFields;
+  }
+
+  /**
+   * Visit each field that has changed since it was loaded or last committed, in registration order, without
+   * building a list. Only fields marked dirty are checked.
+   */
+  public void forEachChangedField(Consumer<? super FieldValue> action) {
+    for (int i = nextChangedField(0); i >= 0; i = nextChangedField(i + 1)) {
+      action.accept(allFieldValues.get(i));
+    }
+  }
+
+  void markFieldDirty(int position) {
+    if (position < Long.SIZE) {
+      dirtyFields |= 1L << position;
+    } else {
+      if (dirtyOverflowFields == null) {
+        dirtyOverflowFields = new BitSet();
+      }
+      dirtyOverflowFields.set(position);
+    }
+  }
+
+  void markFieldClean(int position) {
+    if (position < Long.SIZE) {
+      dirtyFields &= ~(1L << position);
+    } else if (dirtyOverflowFields != null) {
+      dirtyOverflowFields.clear(position);
+    }
+  }
+
+  private int nextChangedField(int fromPosition) {
+    for (int i = nextDirtyField(fromPosition); i >= 0; i = nextDirtyField(i + 1)) {
+      if (allFieldValues.get(i).isChanged()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int nextDirtyField(int fromPosition) {
+    if (fromPosition < Long.SIZE) {
+      long remaining = dirtyFields & (-1L << fromPosition);
+      if (remaining != 0) {
+        return Long.numberOfTrailingZeros(remaining);
+      }
+      fromPosition = Long.SIZE;
+    }
+    return dirtyOverflowFields == null ? -1 : dirtyOverflowFields.nextSetBit(fromPosition);
   }
 
   public List<FieldValue> getAllFieldValues() {
@@ -89,15 +254,29 @@ public abstract class DataObject {
   }
 
   List<FieldValueForeignKey> getForeignKeys() {
-    return Lists.newArrayList(foreignKeys);
+    List<FieldValueForeignKey> foreignKeys = new ArrayList<>();
+    for (FieldValue fieldValue : allFieldValues) {
+      if (fieldValue instanceof FieldValueForeignKey) {
+        foreignKeys.add((FieldValueForeignKey) fieldValue);
+      }
+    }
+    return foreignKeys;
   }
 
   List<ColumnsIndex> getIndices() {
-    return Lists.newArrayList(indices);
+    return Lists.newArrayList(ownIndices == null ? getSharedIndices() : ownIndices);
   }
 
   List<UniqueConstraint> getUniqueIndices() {
-    return Lists.newArrayList(uniqueConstraints);
+    return Lists.newArrayList(ownUniqueConstraints == null ? getSharedUniqueConstraints() : ownUniqueConstraints);
+  }
+
+  private List<ColumnsIndex> getSharedIndices() {
+    return descriptor == null ? Collections.emptyList() : descriptor.getIndices().subList(0, sharedIndexCount);
+  }
+
+  private List<UniqueConstraint> getSharedUniqueConstraints() {
+    return descriptor == null ? Collections.emptyList() : descriptor.getUniqueConstraints().subList(0, sharedUniqueConstraintCount);
   }
 
   void preInsert() {
@@ -120,6 +299,7 @@ public abstract class DataObject {
   }
 
   public void commit(SQLConnection connection) throws SQLException {
+    restoreOnRollback(connection, Collections.singletonList(this));
     if (editMode == EditMode.UPDATE) {
       update(connection);
     } else if (editMode == EditMode.INSERT) {
@@ -131,13 +311,40 @@ public abstract class DataObject {
   }
 
   private void insert(SQLConnection connection) throws SQLException {
+    List<FieldValue> changedFields = prepareInsert();
+    if (hasAssignedId(changedFields)) {
+      connection.prepareAndExecuteStatementUpdateWithFields(createInsertSql(connection, changedFields, 1), changedFields);
+      completeInsert(connection, changedFields, id.getValue());
+      return;
+    }
+    Integer resultingID = insertIntoDatabaseAndGetID(connection, changedFields);
+    completeInsert(connection, changedFields, resultingID);
+  }
+
+  /**
+   * An INSERT object given its id before insert (see SequenceIdAllocator) has the id first in its insert fields,
+   * and doesn't need it generated.
+   */
+  boolean hasAssignedId(List<FieldValue> insertFields) {
+    return !insertFields.isEmpty() && insertFields.get(0) == id;
+  }
+
+  /**
+   * Validate an INSERT object and collect the fields that go into its INSERT statement.
+   */
+  List<FieldValue> prepareInsert() {
 
     initializeDateAdded();
+    initializeVersion();
+    resolvePendingParents();
 
     List<FieldValue> changedFields = new ArrayList<>();
+    if (id.getValue() != null) {
+      changedFields.add(id);
+    }
 
     for (FieldValue fieldValue : allFieldValues) {
-      if (fieldValue.getOriginalValue() != null) {
+      if (fieldValue.hasOriginalValue()) {
         throw new IllegalStateException("Shouldn't find any original values on Insert object: '" + fieldValue.getFieldName() + "' field has value '"
             + fieldValue.getOriginalValue() + "', changed value '" + fieldValue.getChangedValue() + "'");
       }
@@ -146,7 +353,15 @@ public abstract class DataObject {
       }
     }
 
-    Integer resultingID = insertIntoDatabaseAndGetID(connection, changedFields);
+    return changedFields;
+  }
+
+  void completeInsert(SQLConnection connection, List<FieldValue> changedFields, @Nullable Integer resultingID) {
+    completeInsert(changedFields, resultingID);
+    DataObjectCache.invalidateCommitted(connection, this);
+  }
+
+  void completeInsert(List<FieldValue> changedFields, @Nullable Integer resultingID) {
     updateObjects(changedFields);
     id.initializeValue(resultingID);
 
@@ -154,6 +369,13 @@ public abstract class DataObject {
     changeToUpdateObject();
   }
 
+  private void resolvePendingParents() {
+    for (FieldValue fieldValue : allFieldValues) {
+      if (fieldValue instanceof FieldValueForeignKey) {
+        ((FieldValueForeignKey) fieldValue).resolvePendingParent();
+      }
+    }
+  }
 
   private void initializeDateAdded() {
     if (dateAdded.getValue() == null) {
@@ -161,42 +383,120 @@ public abstract class DataObject {
     }
   }
 
+  private void initializeVersion() {
+    if (versionField != null && versionField.isNull()) {
+      versionField.changeValue(0);
+    }
+  }
+
   private void update(SQLConnection db) throws SQLException {
+    List<FieldValue> changedFields = prepareUpdate();
+
+    if (!changedFields.isEmpty()) {
+      debugChangedFields(changedFields);
+      updateDatabase(db, changedFields);
+      updateObjects(changedFields);
+      DataObjectCache.invalidateCommitted(db, this);
+    }
+  }
+
+  /**
+   * Validate an UPDATE object and collect the fields that have changed since it was loaded or last committed.
+   */
+  private List<FieldValue> prepareUpdate() {
     if (id == null) {
       throw new RuntimeException("Cannot update object with no id field.");
     }
     if (id.isChanged()) {
       throw new RuntimeException("Cannot change id field on existing object.");
     }
+    resolvePendingParents();
+    if (id.getValue() == null) {
+      throw new IllegalStateException("Cannot update object of table " + getTableName() + " with no id value. " +
+          "(Was it bulk loaded without assigned ids?)");
+    }
+    if (versionField != null && versionField.isLoaded() && versionField.isChanged()) {
+      throw new IllegalStateException("Cannot change version field of table " + getTableName() + ". " +
+          "Commits increment it.");
+    }
 
-    List<String> changedFieldNames = new ArrayList<>();
-    List<FieldValue> changedFields = new ArrayList<>();
-
-    allFieldValues.stream().filter(FieldValue::isChanged).forEach(fieldValue -> {
-      changedFieldNames.add(fieldValue.getFieldName());
-      changedFields.add(fieldValue);
-    });
+    return getChangedFields();
+  }
 
-    if (!changedFields.isEmpty()) {
-      Joiner joiner = Joiner.on(", ");
-      debug(" - Changed: " + joiner.join(changedFieldNames));
-      updateDatabase(db, changedFields);
-      updateObjects(changedFields);
+  private void debugChangedFields(List<FieldValue> changedFields) {
+    if (!logger.isDebugEnabled()) {
+      return;
     }
+    List<String> changedFieldNames = changedFields.stream().map(FieldValue::getFieldName).collect(Collectors.toList());
+    Joiner joiner = Joiner.on(", ");
+    debug(" - Changed: " + joiner.join(changedFieldNames));
   }
 
+  /**
+   * Find a field by its column name, including "id". Constant time, and doesn't allocate for classes that share a
+   * TableDescriptor.
+   *
+   * @return The field, or null if this object has no field with that name.
+   */
   @Nullable
   public FieldValue getFieldValueWithName(String fieldName) {
     if ("id".equals(fieldName)) {
       return id;
     }
-    List<FieldValue> fieldValues = allFieldValues.stream().filter(f -> f.getFieldName().equals(fieldName)).collect(Collectors.toList());
-    if (fieldValues.size() > 1) {
+    if (usesDescriptorFields()) {
+      Integer position = descriptor.getFieldPosition(fieldName);
+      return position == null ? null : allFieldValues.get(position);
+    }
+    if (ownFieldsByName == null) {
+      ownFieldsByName = new HashMap<>();
+      allFieldValues.forEach(this::indexOwnField);
+    }
+    if (duplicateFieldNames != null && duplicateFieldNames.contains(fieldName)) {
       throw new IllegalStateException("Found multiple field values with name '" + fieldName + "'.");
-    } else if (fieldValues.isEmpty()) {
-      return null;
-    } else {
-      return fieldValues.get(0);
+    }
+    return ownFieldsByName.get(fieldName);
+  }
+
+  private void indexOwnField(FieldValue fieldValue) {
+    if (ownFieldsByName.putIfAbsent(fieldValue.getFieldName(), fieldValue) != null) {
+      if (duplicateFieldNames == null) {
+        duplicateFieldNames = new HashSet<>();
+      }
+      duplicateFieldNames.add(fieldValue.getFieldName());
+    }
+  }
+
+  public boolean hasFieldWithName(String fieldName) {
+    return getFieldValueWithName(fieldName) != null;
+  }
+
+  /**
+   * Column names of the registered fields, not including id, in registration order.
+   */
+  public List<String> getFieldNames() {
+    if (usesDescriptorFields()) {
+      return descriptor.getFieldNames();
+    }
+    return allFieldValues.stream().map(FieldValue::getFieldName).collect(Collectors.toList());
+  }
+
+  private boolean usesDescriptorFields() {
+    return descriptor != null && fieldsMatchDescriptor && allFieldValues.size() == descriptor.getFieldNames().size();
+  }
+
+  /**
+   * A name registered more than once only throws when it's looked up, so objects that never look it up still work.
+   * Classes with duplicate names don't get a descriptor, so only instances with their own fields can have them.
+   */
+  private void addField(FieldValue fieldValue) {
+    if (descriptor == null || !descriptor.hasFieldAt(allFieldValues.size(), fieldValue.getFieldName())) {
+      fieldsMatchDescriptor = false;
+    }
+
+    fieldValue.attach(this, allFieldValues.size());
+    allFieldValues.add(fieldValue);
+    if (ownFieldsByName != null) {
+      indexOwnField(fieldValue);
     }
   }
 
@@ -205,6 +505,45 @@ public abstract class DataObject {
   }
 
   private void updateDatabase(SQLConnection connection, List<FieldValue> fieldValues) throws SQLException {
+    String sql = createUpdateSql(connection, fieldValues);
+
+    fieldValues.add(id);
+    if (versionField != null) {
+      fieldValues.add(versionField);
+    }
+
+    int rowsAffected = connection.prepareAndExecuteStatementUpdateWithFields(sql, fieldValues);
+
+    if (versionField != null) {
+      if (rowsAffected == 0) {
+        DataObjectCache.invalidateCommitted(connection, this);
+        throw new OptimisticLockException(getTableName(), Collections.singletonList(id.getValue()));
+      }
+      incrementVersion();
+    }
+  }
+
+  /**
+   * Match the version the last UPDATE set in the database.
+   */
+  private void incrementVersion() {
+    versionField.initializeInt(versionField.getInt() + 1, false);
+  }
+
+  String getIdSequenceName() {
+    return id.getSequenceName();
+  }
+
+  @Nullable
+  FieldValueInt getVersionField() {
+    return versionField;
+  }
+
+  private String createUpdateSql(SQLConnection connection, List<FieldValue> fieldValues) {
+    return getTemplateSql(StatementType.UPDATE, connection, fieldValues, () -> buildUpdateSql(connection, fieldValues));
+  }
+
+  private String buildUpdateSql(SQLConnection connection, List<FieldValue> fieldValues) {
     List<String> fieldNames = Lists.newArrayList();
 
     fieldNames.addAll(fieldValues
@@ -212,17 +551,35 @@ public abstract class DataObject {
         .map(fieldValue -> fieldValue.getFieldNameDBSafe(connection.getDatabaseType()) + " = ?")
         .collect(Collectors.toList()));
 
-    fieldValues.add(id);
-
     Joiner joiner = Joiner.on(", ");
     String commaSeparatedNames = joiner.join(fieldNames);
 
-    String sql = "UPDATE " + getQualifiedTableName(connection) + " SET " + commaSeparatedNames + " WHERE ID = ?";
-
-    connection.prepareAndExecuteStatementUpdateWithFields(sql, fieldValues);
+    if (versionField == null) {
+      return "UPDATE " + getQualifiedTableName(connection) + " SET " + commaSeparatedNames + " WHERE ID = ?";
+    }
+    String versionName = versionField.getFieldNameDBSafe(connection.getDatabaseType());
+    return "UPDATE " + getQualifiedTableName(connection) + " SET " + commaSeparatedNames + ", " +
+        versionName + " = " + versionName + " + 1 WHERE ID = ? AND " + versionName + " = ?";
   }
 
   private Integer insertIntoDatabaseAndGetID(SQLConnection connection, List<FieldValue> fieldValues) throws SQLException {
+    String sql = createInsertSql(connection, fieldValues, 1);
+
+    return connection.prepareAndExecuteStatementInsertReturnId(sql, fieldValues);
+  }
+
+  /**
+   * INSERT statement for the given columns, with the VALUES tuple repeated once per row.
+   */
+  private String createInsertSql(SQLConnection connection, List<FieldValue> fieldValues, int rowCount) {
+    if (rowCount == 1) {
+      StatementType statementType = hasAssignedId(fieldValues) ? StatementType.INSERT_WITH_ID : StatementType.INSERT;
+      return getTemplateSql(statementType, connection, fieldValues, () -> buildInsertSql(connection, fieldValues, 1));
+    }
+    return buildInsertSql(connection, fieldValues, rowCount);
+  }
+
+  private String buildInsertSql(SQLConnection connection, List<FieldValue> fieldValues, int rowCount) {
     List<String> fieldNames = Lists.newArrayList();
     List<String> questionMarks = Lists.newArrayList();
 
@@ -233,20 +590,587 @@ public abstract class DataObject {
 
     Joiner joiner = Joiner.on(", ");
     String commaSeparatedNames = joiner.join(fieldNames);
-    String commaSeparatedQuestionMarks = joiner.join(questionMarks);
+    String valuesTuple = "(" + joiner.join(questionMarks) + ")";
 
-    String sql = "INSERT INTO " + getQualifiedTableName(connection) + " (" + commaSeparatedNames + ") VALUES (" + commaSeparatedQuestionMarks + ")";
+    return "INSERT INTO " + getQualifiedTableName(connection) + " (" + commaSeparatedNames + ") VALUES " +
+        joiner.join(Collections.nCopies(rowCount, valuesTuple));
+  }
 
-    return connection.prepareAndExecuteStatementInsertReturnId(sql, fieldValues);
+  private String getTemplateSql(StatementType statementType, SQLConnection connection, List<FieldValue> fieldValues, Supplier<String> sqlBuilder) {
+    if (!usesDescriptorFields() || allFieldValues.size() > StatementTemplateCache.MAX_CACHEABLE_FIELDS) {
+      return sqlBuilder.get();
+    }
+    return StatementTemplateCache.getSql(descriptor, statementType, connection.getDatabaseType(),
+        getQualifiedTableName(connection), getFieldMask(fieldValues), sqlBuilder);
+  }
+
+  /**
+   * Bit n is set if the n-th registered field is in the list. Expects the fields in registration order, which is how
+   * prepareInsert() and prepareUpdate() collect them. The id isn't a registered field, so isn't in the mask; the
+   * statement type says whether it's included.
+   */
+  private long getFieldMask(List<FieldValue> fieldValues) {
+    long fieldMask = 0L;
+    int position = 0;
+    for (FieldValue fieldValue : fieldValues) {
+      if (fieldValue == id) {
+        continue;
+      }
+      while (allFieldValues.get(position) != fieldValue) {
+        position++;
+      }
+      fieldMask |= 1L << position;
+      position++;
+    }
+    return fieldMask;
+  }
+
+
+  // Batch commit
+
+  /**
+   * Commit a collection of DataObjects with as few round trips as possible:
+   * - New objects going into the same table with the same set of columns are inserted together with multi-row
+   *   INSERT statements, and each gets its generated id back.
+   * - Existing objects in the same table with the same set of changed columns are updated together in one JDBC
+   *   batch.
+   *
+   * Afterwards each object is in the same state as if commit() had been called on it individually, including the
+   * switch to UPDATE mode for inserted objects. Objects are not reordered across tables, so any parent rows that
+   * new objects point at with foreign keys must already have ids. See commitGraph() for new parents.
+   *
+   * For classes with a version field, every object that can be written is, and then OptimisticLockException lists
+   * the rows whose version no longer matched, by table. MySQL batches that report no per-row counts can't detect conflicts.
+   *
+   * @param connection Connection to commit on.
+   * @param dataObjects Initialized objects to insert or update. Objects with no changes are skipped.
+   * @throws SQLException
+   */
+  public static void commitAll(SQLConnection connection, Collection<? extends DataObject> dataObjects) throws SQLException {
+    restoreOnRollback(connection, dataObjects);
+
+    Map<String, List<PendingCommit>> insertGroups = new LinkedHashMap<>();
+    Map<String, List<PendingCommit>> updateGroups = new LinkedHashMap<>();
+
+    Set<DataObject> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (DataObject dataObject : dataObjects) {
+      if (!seen.add(dataObject)) {
+        continue;
+      }
+      if (dataObject.editMode == EditMode.UPDATE) {
+        List<FieldValue> changedFields = dataObject.prepareUpdate();
+        if (!changedFields.isEmpty()) {
+          String sql = dataObject.createUpdateSql(connection, changedFields);
+          updateGroups.computeIfAbsent(sql, key -> new ArrayList<>()).add(new PendingCommit(dataObject, changedFields));
+        }
+      } else if (dataObject.editMode == EditMode.INSERT) {
+        dataObject.preInsert();
+        List<FieldValue> changedFields = dataObject.prepareInsert();
+        String sql = dataObject.createInsertSql(connection, changedFields, 1);
+        insertGroups.computeIfAbsent(sql, key -> new ArrayList<>()).add(new PendingCommit(dataObject, changedFields));
+      } else {
+        throw new IllegalStateException("Attempting to commit MediaObject that wasn't properly initialized!");
+      }
+    }
+
+    for (List<PendingCommit> insertGroup : insertGroups.values()) {
+      insertGroup(connection, insertGroup);
+    }
+    Map<String, List<Integer>> conflictedIds = new LinkedHashMap<>();
+    for (List<PendingCommit> updateGroup : updateGroups.values()) {
+      updateGroup(connection, updateGroup, conflictedIds);
+    }
+    if (!conflictedIds.isEmpty()) {
+      throw new OptimisticLockException(conflictedIds);
+    }
+  }
+
+  /**
+   * Commit a graph of new objects that point at each other with foreign keys set by FieldValueForeignKey.references(),
+   * without committing parents one at a time to find out their ids.
+   *
+   * The objects given, and every new parent they reference, are sorted into levels: objects whose parents all have
+   * ids (or that have no new parents) first, then the objects that point at those, and so on. Each level is sent
+   * with one commitAll(), tables in foreign key order, and once a level is inserted its ids are copied into the
+   * foreign keys of the next. A parent and any number of children take two levels, so two round trips per table
+   * instead of one per object. If every new object already has an id from a SequenceIdAllocator, the whole graph is
+   * one level.
+   *
+   * Loaded objects with changes can be included too, and are updated in the first level they fit in.
+   *
+   * All levels run in one transaction (joining the caller's, if there is one), so the graph is saved whole or not
+   * at all. If the transaction rolls back, objects from levels that were already sent are put back the way they were,
+   * new objects without ids and in INSERT mode, so the same objects can be committed again.
+   *
+   * @param dataObjects Objects to commit. Their new parents are found and committed without being listed.
+   * @throws IllegalStateException if new objects reference each other in a cycle, since none of them can go first.
+   * @throws SQLException
+   */
+  public static void commitGraph(SQLConnection connection, Collection<? extends DataObject> dataObjects) throws SQLException {
+    Map<DataObject, Integer> levels = new IdentityHashMap<>();
+    List<DataObject> parentsFirst = new ArrayList<>();
+    Set<DataObject> inProgress = Collections.newSetFromMap(new IdentityHashMap<>());
+    int maxLevel = 0;
+    for (DataObject dataObject : dataObjects) {
+      maxLevel = Math.max(maxLevel, getGraphLevel(dataObject, levels, parentsFirst, inProgress));
+    }
+
+    List<Map<String, List<DataObject>>> byLevel = new ArrayList<>(maxLevel + 1);
+    for (int i = 0; i <= maxLevel; i++) {
+      byLevel.add(new LinkedHashMap<>());
+    }
+    for (DataObject dataObject : parentsFirst) {
+      byLevel.get(levels.get(dataObject)).computeIfAbsent(dataObject.getTableName(), key -> new ArrayList<>()).add(dataObject);
+    }
+
+    connection.inTransaction(() -> {
+      for (int i = 0; i < byLevel.size(); i++) {
+        Map<String, List<DataObject>> byTable = byLevel.get(i);
+        List<DataObject> levelObjects = new ArrayList<>();
+        for (String tableName : orderTablesByForeignKeys(byTable)) {
+          levelObjects.addAll(byTable.get(tableName));
+        }
+        logger.debug("Committing level " + i + " of object graph: " + levelObjects.size() + " objects.");
+        commitAll(connection, levelObjects);
+      }
+    });
+  }
+
+  /**
+   * 0 for an object with no new parents, otherwise one more than its highest new parent.
+   */
+  private static int getGraphLevel(DataObject dataObject, Map<DataObject, Integer> levels, List<DataObject> parentsFirst, Set<DataObject> inProgress) {
+    Integer known = levels.get(dataObject);
+    if (known != null) {
+      return known;
+    }
+    if (!inProgress.add(dataObject)) {
+      throw new IllegalStateException("New objects of table " + dataObject.getTableName() + " are part of a foreign key " +
+          "cycle, so none of them can be inserted first. Give them ids with a SequenceIdAllocator instead.");
+    }
+    int level = 0;
+    for (FieldValue fieldValue : dataObject.allFieldValues) {
+      if (fieldValue instanceof FieldValueForeignKey) {
+        DataObject parent = ((FieldValueForeignKey) fieldValue).getPendingParent();
+        if (parent != null && parent.id.getValue() == null) {
+          level = Math.max(level, getGraphLevel(parent, levels, parentsFirst, inProgress) + 1);
+        }
+      }
+    }
+    inProgress.remove(dataObject);
+    levels.put(dataObject, level);
+    parentsFirst.add(dataObject);
+    return level;
+  }
+
+  /**
+   * Table names with every table after the tables its foreign keys point at. Foreign keys to tables that aren't
+   * in the map, and foreign keys that form a cycle, don't constrain the order.
+   */
+  static List<String> orderTablesByForeignKeys(Map<String, List<DataObject>> byTable) {
+    List<String> ordered = new ArrayList<>(byTable.size());
+    Set<String> visited = new HashSet<>();
+    for (String tableName : byTable.keySet()) {
+      visitTable(tableName, byTable, visited, ordered);
+    }
+    return ordered;
+  }
+
+  private static void visitTable(String tableName, Map<String, List<DataObject>> byTable, Set<String> visited, List<String> ordered) {
+    if (!visited.add(tableName)) {
+      return;
+    }
+    for (FieldValueForeignKey foreignKey : byTable.get(tableName).get(0).getForeignKeys()) {
+      String parentTable = foreignKey.getTableName();
+      if (byTable.containsKey(parentTable)) {
+        visitTable(parentTable, byTable, visited, ordered);
+      }
+    }
+    ordered.add(tableName);
+  }
+
+  private static void insertGroup(SQLConnection connection, List<PendingCommit> insertGroup) throws SQLException {
+    int columnCount = insertGroup.get(0).fields.size();
+    int rowsPerStatement = Math.max(1, Math.min(MAX_ROWS_PER_STATEMENT, MAX_BIND_PARAMETERS / Math.max(1, columnCount)));
+
+    for (List<PendingCommit> chunk : Lists.partition(insertGroup, rowsPerStatement)) {
+      PendingCommit first = chunk.get(0);
+      String sql = first.dataObject.createInsertSql(connection, first.fields, chunk.size());
+
+      List<FieldValue> allRowFields = new ArrayList<>(columnCount * chunk.size());
+      chunk.forEach(pendingCommit -> allRowFields.addAll(pendingCommit.fields));
+
+      if (first.dataObject.hasAssignedId(first.fields)) {
+        connection.prepareAndExecuteStatementUpdateWithFields(sql, allRowFields);
+        for (PendingCommit pendingCommit : chunk) {
+          pendingCommit.dataObject.completeInsert(connection, pendingCommit.fields, pendingCommit.dataObject.id.getValue());
+        }
+        continue;
+      }
+
+      List<Integer> ids = connection.prepareAndExecuteStatementInsertReturnIds(sql, allRowFields);
+      if (ids.size() != chunk.size()) {
+        throw new IllegalStateException("Expected " + chunk.size() + " ids back from multi-row insert into " +
+            first.dataObject.getTableName() + ", but got " + ids.size() + ".");
+      }
+
+      for (int i = 0; i < chunk.size(); i++) {
+        PendingCommit pendingCommit = chunk.get(i);
+        pendingCommit.dataObject.completeInsert(connection, pendingCommit.fields, ids.get(i));
+      }
+    }
+  }
+
+  private static void updateGroup(SQLConnection connection, List<PendingCommit> updateGroup, Map<String, List<Integer>> conflictedIds) throws SQLException {
+    for (List<PendingCommit> chunk : Lists.partition(updateGroup, MAX_ROWS_PER_STATEMENT)) {
+      PendingCommit first = chunk.get(0);
+      String sql = first.dataObject.createUpdateSql(connection, first.fields);
+
+      List<List<FieldValue>> batchRows = new ArrayList<>(chunk.size());
+      for (PendingCommit pendingCommit : chunk) {
+        pendingCommit.dataObject.debugChangedFields(pendingCommit.fields);
+        List<FieldValue> rowFields = new ArrayList<>(pendingCommit.fields);
+        rowFields.add(pendingCommit.dataObject.id);
+        if (first.dataObject.versionField != null) {
+          rowFields.add(pendingCommit.dataObject.versionField);
+        }
+        batchRows.add(rowFields);
+      }
+
+      int[] rowsAffected = connection.prepareAndExecuteStatementBatchUpdateWithFields(sql, batchRows);
+
+      for (int i = 0; i < chunk.size(); i++) {
+        DataObject dataObject = chunk.get(i).dataObject;
+        if (dataObject.versionField != null) {
+          // Statement.SUCCESS_NO_INFO (from MySQL's rewritten batches) can't tell a conflict apart from a success.
+          if (rowsAffected[i] == 0) {
+            DataObjectCache.invalidateCommitted(connection, dataObject);
+            conflictedIds.computeIfAbsent(dataObject.getTableName(), key -> new ArrayList<>()).add(dataObject.id.getValue());
+            continue;
+          }
+          dataObject.incrementVersion();
+        }
+        dataObject.updateObjects(chunk.get(i).fields);
+        DataObjectCache.invalidateCommitted(connection, dataObject);
+      }
+    }
+  }
+
+  /**
+   * Undo what committing does to these objects (ids, edit mode, committed values, resolved foreign keys, fields an
+   * upsert leaves unloaded) if the transaction they're committed in rolls back. Otherwise a new object keeps an id
+   * its rolled back INSERT gave it, and committing it again UPDATEs a row that was never there. Outside a transaction
+   * there's nothing to roll back.
+   */
+  static void restoreOnRollback(SQLConnection connection, Collection<? extends DataObject> dataObjects) {
+    if (!connection.isInTransaction()) {
+      return;
+    }
+    List<SavedState> savedStates = new ArrayList<>(dataObjects.size());
+    for (DataObject dataObject : dataObjects) {
+      savedStates.add(new SavedState(dataObject));
+    }
+    connection.runAfterRollback(() -> savedStates.forEach(SavedState::restore));
+  }
+
+  private static class SavedState {
+    private final DataObject dataObject;
+    private final EditMode editMode;
+    private final List<SavedField> fields = new ArrayList<>();
+
+    private SavedState(DataObject dataObject) {
+      this.dataObject = dataObject;
+      this.editMode = dataObject.editMode;
+      fields.add(new SavedField<>(dataObject.id));
+      for (FieldValue fieldValue : dataObject.allFieldValues) {
+        if (fieldValue.isLoaded()) {
+          fields.add(new SavedField<>(fieldValue));
+        }
+      }
+    }
+
+    private void restore() {
+      for (SavedField field : fields) {
+        field.restore();
+      }
+      dataObject.editMode = editMode;
+    }
+  }
+
+  private static class SavedField<T> {
+    private final FieldValue<T> fieldValue;
+    private final T originalValue;
+    private final T value;
+    private final DataObject pendingParent;
+
+    private SavedField(FieldValue<T> fieldValue) {
+      this.fieldValue = fieldValue;
+      this.originalValue = fieldValue.getOriginalValue();
+      this.value = fieldValue.getValue();
+      this.pendingParent = fieldValue instanceof FieldValueForeignKey ? ((FieldValueForeignKey) fieldValue).getPendingParent() : null;
+    }
+
+    private void restore() {
+      fieldValue.setLoaded(true);
+      fieldValue.restoreValues(originalValue, value);
+      if (fieldValue instanceof FieldValueForeignKey) {
+        ((FieldValueForeignKey) fieldValue).restorePendingParent(pendingParent);
+      }
+    }
+  }
+
+  private static class PendingCommit {
+    private final DataObject dataObject;
+    private final List<FieldValue> fields;
+
+    private PendingCommit(DataObject dataObject, List<FieldValue> fields) {
+      this.dataObject = dataObject;
+      this.fields = fields;
+    }
+  }
+
+
+  // Upsert
+
+  /**
+   * Insert this new object, or if its table already has a row with the same values in a declared unique constraint,
+   * update that row with this object's values instead. One statement either way, with no SELECT first.
+   *
+   * Example: game.upsert(connection, game.steamId);
+   *
+   * See upsertAll() for what's written on a conflict, and the object's state afterwards.
+   *
+   * @param conflictFields Fields of a constraint declared with addUniqueConstraint(). Each needs a value.
+   * @throws SQLException
+   */
+  public void upsert(SQLConnection connection, FieldValue... conflictFields) throws SQLException {
+    upsertAll(connection, Collections.singletonList(this), getFieldNames(conflictFields).toArray(new String[0]));
+  }
+
+  /**
+   * Upsert a collection of new objects, keyed on the columns of a declared unique constraint.
+   *
+   * On Postgres, objects going into the same table with the same set of columns are upserted together with multi-row
+   * INSERT ... ON CONFLICT (key) DO UPDATE statements, as many rows per statement as commitAll() inserts. Objects
+   * with the same key as an earlier one in the batch go in a later statement, since one statement can't update a row
+   * twice, so the last one wins. On MySQL, each object is its own INSERT ... ON DUPLICATE KEY UPDATE, since
+   * multi-row upserts don't report which id each row ended up with. MySQL also treats a duplicate in any unique
+   * index as a conflict, not just the named one.
+   *
+   * A conflicting row gets every column the object set, except the key and date_added. Afterwards each object has
+   * the id of the row it was inserted as or merged into, and is in UPDATE mode. Whether it was inserted or merged
+   * isn't known, so date_added and any version field are left unloaded (see DataObjectQuery.select()).
+   *
+   * @param conflictFieldNames Column names of a constraint declared with addUniqueConstraint().
+   * @throws SQLException
+   */
+  public static void upsertAll(SQLConnection connection, Collection<? extends DataObject> dataObjects, String... conflictFieldNames) throws SQLException {
+    restoreOnRollback(connection, dataObjects);
+
+    Map<String, List<PendingCommit>> upsertGroups = new LinkedHashMap<>();
+    Set<DataObject> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (DataObject dataObject : dataObjects) {
+      if (!seen.add(dataObject)) {
+        continue;
+      }
+      Preconditions.checkState(dataObject.isForInsert(), "Only new objects can be upserted. Object of table " +
+          dataObject.getTableName() + " with id " + dataObject.id.getValue() + " was already loaded or committed.");
+      dataObject.checkConflictFields(conflictFieldNames);
+      dataObject.preInsert();
+      List<FieldValue> changedFields = dataObject.prepareInsert();
+      dataObject.checkConflictFieldValues(changedFields, conflictFieldNames);
+      String sql = dataObject.buildUpsertSql(connection, changedFields, conflictFieldNames, 1);
+      upsertGroups.computeIfAbsent(sql, key -> new ArrayList<>()).add(new PendingCommit(dataObject, changedFields));
+    }
+
+    for (List<PendingCommit> upsertGroup : upsertGroups.values()) {
+      if (connection.getDatabaseType() == DatabaseType.POSTGRES) {
+        upsertGroupPostgres(connection, upsertGroup, conflictFieldNames);
+      } else {
+        for (PendingCommit pendingCommit : upsertGroup) {
+          DataObject dataObject = pendingCommit.dataObject;
+          String sql = dataObject.buildUpsertSql(connection, pendingCommit.fields, conflictFieldNames, 1);
+          dataObject.completeUpsert(connection, pendingCommit.fields, connection.prepareAndExecuteStatementInsertReturnId(sql, pendingCommit.fields));
+        }
+      }
+    }
+  }
+
+  private static void upsertGroupPostgres(SQLConnection connection, List<PendingCommit> upsertGroup, String[] conflictFieldNames) throws SQLException {
+    int columnCount = upsertGroup.get(0).fields.size();
+    int rowsPerStatement = Math.max(1, Math.min(MAX_ROWS_PER_STATEMENT, MAX_BIND_PARAMETERS / Math.max(1, columnCount)));
+
+    for (List<PendingCommit> chunk : partitionByConflictKey(upsertGroup, conflictFieldNames, rowsPerStatement)) {
+      PendingCommit first = chunk.get(0);
+      String sql = first.dataObject.buildUpsertSql(connection, first.fields, conflictFieldNames, chunk.size());
+
+      List<FieldValue> allRowFields = new ArrayList<>(columnCount * chunk.size());
+      chunk.forEach(pendingCommit -> allRowFields.addAll(pendingCommit.fields));
+
+      List<Integer> ids = connection.prepareAndExecuteStatementInsertReturnIds(sql, allRowFields);
+      if (ids.size() != chunk.size()) {
+        throw new IllegalStateException("Expected " + chunk.size() + " ids back from multi-row upsert into " +
+            first.dataObject.getTableName() + ", but got " + ids.size() + ".");
+      }
+
+      for (int i = 0; i < chunk.size(); i++) {
+        PendingCommit pendingCommit = chunk.get(i);
+        pendingCommit.dataObject.completeUpsert(connection, pendingCommit.fields, ids.get(i));
+      }
+    }
+  }
+
+  /**
+   * Split into chunks of at most maxRows, starting a new chunk whenever a key repeats one already in the current chunk.
+   */
+  private static List<List<PendingCommit>> partitionByConflictKey(List<PendingCommit> upsertGroup, String[] conflictFieldNames, int maxRows) {
+    List<List<PendingCommit>> chunks = new ArrayList<>();
+    List<PendingCommit> chunk = new ArrayList<>();
+    Set<List<Object>> chunkKeys = new HashSet<>();
+
+    for (PendingCommit pendingCommit : upsertGroup) {
+      List<Object> key = new ArrayList<>(conflictFieldNames.length);
+      for (String conflictFieldName : conflictFieldNames) {
+        key.add(pendingCommit.dataObject.getFieldValueWithName(conflictFieldName).getChangedValue());
+      }
+      if (chunk.size() == maxRows || chunkKeys.contains(key)) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>();
+        chunkKeys.clear();
+      }
+      chunk.add(pendingCommit);
+      chunkKeys.add(key);
+    }
+    chunks.add(chunk);
+    return chunks;
+  }
+
+  private void completeUpsert(SQLConnection connection, List<FieldValue> changedFields, Integer resultingID) {
+    completeInsert(connection, changedFields, resultingID);
+    dateAdded.setLoaded(false);
+    if (versionField != null) {
+      versionField.setLoaded(false);
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException unless the names are exactly the columns of a declared unique constraint.
+   */
+  private void checkConflictFields(String[] conflictFieldNames) {
+    Set<String> names = new HashSet<>(Arrays.asList(conflictFieldNames));
+    for (UniqueConstraint uniqueConstraint : getUniqueIndices()) {
+      if (uniqueConstraint.getFieldNames().size() == conflictFieldNames.length && names.containsAll(uniqueConstraint.getFieldNames())) {
+        return;
+      }
+    }
+    throw new IllegalArgumentException("Table " + getTableName() + " has no unique constraint on " + names + " to upsert on.");
+  }
+
+  /**
+   * A null key never conflicts, so it would always insert.
+   */
+  private void checkConflictFieldValues(List<FieldValue> changedFields, String[] conflictFieldNames) {
+    for (String conflictFieldName : conflictFieldNames) {
+      FieldValue fieldValue = getFieldValueWithName(conflictFieldName);
+      if (!changedFields.contains(fieldValue) || fieldValue.getChangedValue() == null) {
+        throw new IllegalArgumentException("Upsert key field '" + conflictFieldName + "' of table " + getTableName() + " has no value.");
+      }
+    }
+  }
+
+  private String buildUpsertSql(SQLConnection connection, List<FieldValue> fieldValues, String[] conflictFieldNames, int rowCount) {
+    DatabaseType databaseType = connection.getDatabaseType();
+    List<String> conflictNames = Arrays.asList(conflictFieldNames);
+
+    List<String> assignments = new ArrayList<>();
+    for (FieldValue fieldValue : fieldValues) {
+      if (fieldValue != id && fieldValue != dateAdded && fieldValue != versionField && !conflictNames.contains(fieldValue.getFieldName())) {
+        String fieldName = fieldValue.getFieldNameDBSafe(databaseType);
+        if (databaseType == DatabaseType.POSTGRES) {
+          assignments.add(fieldName + " = EXCLUDED." + fieldName);
+        } else {
+          assignments.add(fieldName + " = VALUES(" + fieldName + ")");
+        }
+      }
+    }
+    if (versionField != null) {
+      String versionName = versionField.getFieldNameDBSafe(databaseType);
+      String existingVersion = databaseType == DatabaseType.POSTGRES ? getTableName() + "." + versionName : versionName;
+      assignments.add(versionName + " = " + existingVersion + " + 1");
+    }
+
+    String insertSql = buildInsertSql(connection, fieldValues, rowCount);
+    Joiner joiner = Joiner.on(", ");
+
+    if (databaseType == DatabaseType.POSTGRES) {
+      List<String> conflictColumns = new ArrayList<>();
+      for (String conflictFieldName : conflictFieldNames) {
+        conflictColumns.add(getFieldValueWithName(conflictFieldName).getFieldNameDBSafe(databaseType));
+      }
+      // DO NOTHING wouldn't return the existing row's id, so with nothing else to update, set a key to itself.
+      if (assignments.isEmpty()) {
+        assignments.add(conflictColumns.get(0) + " = EXCLUDED." + conflictColumns.get(0));
+      }
+      return insertSql + " ON CONFLICT (" + joiner.join(conflictColumns) + ") DO UPDATE SET " + joiner.join(assignments);
+    }
+
+    // Makes the generated key of an updated row its existing id, instead of nothing.
+    String idName = id.getFieldNameDBSafe(databaseType);
+    assignments.add(0, idName + " = LAST_INSERT_ID(" + idName + ")");
+    return insertSql + " ON DUPLICATE KEY UPDATE " + joiner.join(assignments);
   }
 
   protected void addUniqueConstraint(FieldValue... fieldValues) {
-    uniqueConstraints.add(new UniqueConstraint(Lists.newArrayList(fieldValues), getTableName()));
+    if (ownUniqueConstraints == null && descriptor != null) {
+      List<UniqueConstraint> shared = descriptor.getUniqueConstraints();
+      if (sharedUniqueConstraintCount < shared.size() &&
+          hasFieldNames(shared.get(sharedUniqueConstraintCount).getFieldNames(), fieldValues)) {
+        sharedUniqueConstraintCount++;
+        return;
+      }
+    }
+    if (ownUniqueConstraints == null) {
+      ownUniqueConstraints = new ArrayList<>(getSharedUniqueConstraints());
+    }
+    ownUniqueConstraints.add(new UniqueConstraint(getFieldNames(fieldValues), getTableName()));
   }
 
   @SuppressWarnings("SameParameterValue")
   protected void addColumnsIndex(FieldValue... fieldValues) {
-    indices.add(new ColumnsIndex(Lists.newArrayList(fieldValues), getTableName()));
+    if (ownIndices == null && descriptor != null) {
+      List<ColumnsIndex> shared = descriptor.getIndices();
+      if (sharedIndexCount < shared.size() &&
+          hasFieldNames(shared.get(sharedIndexCount).getFieldNames(), fieldValues)) {
+        sharedIndexCount++;
+        return;
+      }
+    }
+    if (ownIndices == null) {
+      ownIndices = new ArrayList<>(getSharedIndices());
+    }
+    ownIndices.add(new ColumnsIndex(getFieldNames(fieldValues), getTableName()));
+  }
+
+  private static boolean hasFieldNames(List<String> fieldNames, FieldValue[] fieldValues) {
+    if (fieldNames.size() != fieldValues.length) {
+      return false;
+    }
+    for (int i = 0; i < fieldValues.length; i++) {
+      if (!fieldNames.get(i).equals(fieldValues[i].getFieldName())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<String> getFieldNames(FieldValue[] fieldValues) {
+    List<String> fieldNames = new ArrayList<>(fieldValues.length);
+    for (FieldValue fieldValue : fieldValues) {
+      fieldNames.add(fieldValue.getFieldName());
+    }
+    return fieldNames;
   }
 
   public String generateTableCreateStatement(DatabaseType databaseType) {
@@ -275,9 +1199,8 @@ public abstract class DataObject {
 
     statementPieces.add("PRIMARY KEY (" + id.getFieldName() + ")");
 
-    for (UniqueConstraint index : uniqueConstraints) {
-      List<String> fieldNames = index.getFields().stream().map(FieldValue::getFieldName).collect(Collectors.toList());
-      String join = Joiner.on(", ").join(fieldNames);
+    for (UniqueConstraint index : getUniqueIndices()) {
+      String join = Joiner.on(", ").join(index.getFieldNames());
       if (!"id".equals(join)) {
         statementPieces.add("UNIQUE (" + join + ")");
       }
@@ -294,7 +1217,7 @@ public abstract class DataObject {
   public List<String> generateAddForeignKeyStatements() {
     List<String> statements = new ArrayList<>();
     int fkIndex = 1;
-    for (FieldValueForeignKey foreignKey : foreignKeys) {
+    for (FieldValueForeignKey foreignKey : getForeignKeys()) {
       String constraintName = getTableName() + "_fk" + fkIndex;
       String statement =
           "ALTER TABLE " + getTableName() + " " +
@@ -310,9 +1233,8 @@ public abstract class DataObject {
 
   public List<String> generateAddIndexStatements() {
     List<String> statements = new ArrayList<>();
-    for (ColumnsIndex index : indices) {
-      List<String> fieldNames = index.getFields().stream().map(FieldValue::getFieldName).collect(Collectors.toList());
-      String commaJoin = Joiner.on(", ").join(fieldNames);
+    for (ColumnsIndex index : getIndices()) {
+      String commaJoin = Joiner.on(", ").join(index.getFieldNames());
       String indexName = index.getIndexName();
       String statement =
           "CREATE INDEX " + indexName + " " +
@@ -325,9 +1247,8 @@ public abstract class DataObject {
 
   public List<String> generateAddUniqueIndexStatements() {
     List<String> statements = new ArrayList<>();
-    for (UniqueConstraint index : uniqueConstraints) {
-      List<String> fieldNames = index.getFields().stream().map(FieldValue::getFieldName).collect(Collectors.toList());
-      String commaJoin = Joiner.on(", ").join(fieldNames);
+    for (UniqueConstraint index : getUniqueIndices()) {
+      String commaJoin = Joiner.on(", ").join(index.getFieldNames());
       if (!"id".equals(commaJoin)) {
         String indexName = index.getIndexName();
         String statement =
@@ -341,7 +1262,13 @@ public abstract class DataObject {
   }
 
   List<String> getSequenceNames() {
-    return Lists.newArrayList(sequenceNames);
+    List<String> sequenceNames = Lists.newArrayList(id.getSequenceName());
+    for (FieldValue fieldValue : allFieldValues) {
+      if (fieldValue instanceof FieldValueSerial) {
+        sequenceNames.add(((FieldValueSerial) fieldValue).getSequenceName());
+      }
+    }
+    return sequenceNames;
   }
 
   private String getSerialDDLType() {
@@ -369,80 +1296,154 @@ public abstract class DataObject {
   }
 
   protected final FieldValueBoolean registerBooleanField(String fieldName, Nullability nullability) {
-    FieldValueBoolean fieldBooleanValue = new FieldValueBoolean(fieldName, new FieldConversionBoolean(), nullability);
-    allFieldValues.add(fieldBooleanValue);
+    FieldValueBoolean fieldBooleanValue = new FieldValueBoolean(fieldName, BOOLEAN_CONVERSION, nullability);
+    addField(fieldBooleanValue);
     return fieldBooleanValue;
   }
 
   protected final FieldValueBoolean registerBooleanFieldAllowingNulls(String fieldName, Nullability nullability) {
-    FieldValueBoolean fieldBooleanValue = new FieldValueBoolean(fieldName, new FieldConversionBoolean(), nullability);
-    allFieldValues.add(fieldBooleanValue);
+    FieldValueBoolean fieldBooleanValue = new FieldValueBoolean(fieldName, BOOLEAN_CONVERSION, nullability);
+    addField(fieldBooleanValue);
     return fieldBooleanValue;
   }
 
   protected final FieldValueDate registerDateField(String fieldName, Nullability nullability) {
-    FieldValueDate fieldDateValue = new FieldValueDate(fieldName, new FieldConversionDate(), nullability);
-    allFieldValues.add(fieldDateValue);
+    FieldValueDate fieldDateValue = new FieldValueDate(fieldName, DATE_CONVERSION, nullability);
+    addField(fieldDateValue);
     return fieldDateValue;
   }
 
   protected final FieldValueTimestamp registerTimestampField(String fieldName, Nullability nullability) {
-    FieldValueTimestamp fieldTimestampValue = new FieldValueTimestamp(fieldName, new FieldConversionTimestamp(), nullability);
-    allFieldValues.add(fieldTimestampValue);
+    FieldValueTimestamp fieldTimestampValue = new FieldValueTimestamp(fieldName, TIMESTAMP_CONVERSION, nullability);
+    addField(fieldTimestampValue);
     return fieldTimestampValue;
   }
 
   protected final FieldValueInteger registerIntegerField(String fieldName, Nullability nullability) {
-    FieldValueInteger fieldIntegerValue = new FieldValueInteger(fieldName, new FieldConversionInteger(), nullability);
-    allFieldValues.add(fieldIntegerValue);
+    FieldValueInteger fieldIntegerValue = new FieldValueInteger(fieldName, INTEGER_CONVERSION, nullability);
+    addField(fieldIntegerValue);
     return fieldIntegerValue;
   }
 
   protected final FieldValueInteger registerIntegerField(String fieldName, Nullability nullability, IntegerSize integerSize) {
-    FieldValueInteger fieldIntegerValue = new FieldValueInteger(fieldName, new FieldConversionInteger(), nullability, integerSize);
-    allFieldValues.add(fieldIntegerValue);
+    FieldValueInteger fieldIntegerValue = new FieldValueInteger(fieldName, INTEGER_CONVERSION, nullability, integerSize);
+    addField(fieldIntegerValue);
     return fieldIntegerValue;
   }
 
+  /**
+   * Same as registerIntegerField(), but the field stores its values unboxed. See FieldValueInt.
+   */
+  protected final FieldValueInt registerIntField(String fieldName, Nullability nullability) {
+    FieldValueInt fieldIntValue = new FieldValueInt(fieldName, INTEGER_CONVERSION, nullability);
+    addField(fieldIntValue);
+    return fieldIntValue;
+  }
+
+  protected final FieldValueInt registerIntField(String fieldName, Nullability nullability, IntegerSize integerSize) {
+    FieldValueInt fieldIntValue = new FieldValueInt(fieldName, INTEGER_CONVERSION, nullability, integerSize);
+    addField(fieldIntValue);
+    return fieldIntValue;
+  }
+
+  protected final FieldValueLong registerLongField(String fieldName, Nullability nullability) {
+    FieldValueLong fieldLongValue = new FieldValueLong(fieldName, LONG_CONVERSION, nullability);
+    addField(fieldLongValue);
+    return fieldLongValue;
+  }
+
+  protected final FieldValueDouble registerDoubleField(String fieldName, Nullability nullability) {
+    FieldValueDouble fieldDoubleValue = new FieldValueDouble(fieldName, DOUBLE_CONVERSION, nullability);
+    addField(fieldDoubleValue);
+    return fieldDoubleValue;
+  }
+
+  /**
+   * Same as registerBooleanField(), but the field stores its values unboxed. See FieldValueBool.
+   */
+  protected final FieldValueBool registerBoolField(String fieldName, Nullability nullability) {
+    FieldValueBool fieldBoolValue = new FieldValueBool(fieldName, BOOLEAN_CONVERSION, nullability);
+    addField(fieldBoolValue);
+    return fieldBoolValue;
+  }
+
+  /**
+   * Opt in to optimistic locking, e.g. public FieldValueInt version = registerVersionField();
+   *
+   * New rows start at version 0. Every UPDATE then only matches the row if its version is still the one this object
+   * loaded, and increments it in the same statement, so of two writers that loaded the same version, only the first
+   * commit succeeds. The other gets OptimisticLockException rather than silently overwriting the first, and can
+   * reload and retry. Commits manage the field, so don't change it directly.
+   */
+  protected final FieldValueInt registerVersionField() {
+    Preconditions.checkState(versionField == null, "Table " + getTableName() + " already has a version field.");
+    FieldValueInt fieldVersionValue = new FieldValueInt("version", INTEGER_CONVERSION, Nullability.NOT_NULL).defaultValue(0);
+    addField(fieldVersionValue);
+    versionField = fieldVersionValue;
+    return fieldVersionValue;
+  }
+
   protected final FieldValueSerial registerSerialField(String fieldName) {
     String sequenceName = getTableName() + "_" + fieldName + "_seq";
-    FieldValueSerial fieldSerialValue = new FieldValueSerial(fieldName, new FieldConversionInteger(), Nullability.NOT_NULL, sequenceName);
-    sequenceNames.add(sequenceName);
-    allFieldValues.add(fieldSerialValue);
+    FieldValueSerial fieldSerialValue = new FieldValueSerial(fieldName, INTEGER_CONVERSION, Nullability.NOT_NULL, sequenceName);
+    addField(fieldSerialValue);
     return fieldSerialValue;
   }
 
   private FieldValueSerial registerId() {
-    String sequenceName = getTableName() + "_id_seq";
-    FieldValueSerial fieldIntegerValue = new FieldValueSerial("id", new FieldConversionInteger(), Nullability.NOT_NULL, sequenceName);
-    sequenceNames.add(sequenceName);
-    return fieldIntegerValue;
+    String sequenceName = descriptor == null ? getTableName() + "_id_seq" : descriptor.getIdSequenceName();
+    return new FieldValueSerial("id", INTEGER_CONVERSION, Nullability.NOT_NULL, sequenceName);
   }
 
   protected final FieldValueForeignKey registerForeignKey(DataObject dataObject, Nullability nullability) {
-    String fieldName = dataObject.getTableName() + "_id";
-    FieldValueForeignKey fieldValueForeignKey = new FieldValueForeignKey(fieldName, new FieldConversionInteger(), nullability, dataObject);
-    allFieldValues.add(fieldValueForeignKey);
-    foreignKeys.add(fieldValueForeignKey);
-    return fieldValueForeignKey;
+    return registerForeignKeyToTable(dataObject.getTableName() + "_id", dataObject.getTableName(), nullability);
   }
 
   protected final FieldValueForeignKey registerForeignKeyWithName(DataObject dataObject, Nullability nullability, String columnName) {
-    FieldValueForeignKey fieldValueForeignKey = new FieldValueForeignKey(columnName, new FieldConversionInteger(), nullability, dataObject);
-    allFieldValues.add(fieldValueForeignKey);
-    foreignKeys.add(fieldValueForeignKey);
+    return registerForeignKeyToTable(columnName, dataObject.getTableName(), nullability);
+  }
+
+  /**
+   * Same as registerForeignKey(DataObject, Nullability), but looks up the parent's table name once per class instead
+   * of constructing a parent object for every instance of this one. The parent class needs a public no-arg constructor,
+   * unless an instance of it has already been initialized.
+   */
+  protected final FieldValueForeignKey registerForeignKey(Class<? extends DataObject> parentClass, Nullability nullability) {
+    String parentTableName = getTableNameOf(parentClass);
+    return registerForeignKeyToTable(parentTableName + "_id", parentTableName, nullability);
+  }
+
+  protected final FieldValueForeignKey registerForeignKeyWithName(Class<? extends DataObject> parentClass, Nullability nullability, String columnName) {
+    return registerForeignKeyToTable(columnName, getTableNameOf(parentClass), nullability);
+  }
+
+  private FieldValueForeignKey registerForeignKeyToTable(String columnName, String parentTableName, Nullability nullability) {
+    FieldValueForeignKey fieldValueForeignKey = new FieldValueForeignKey(columnName, INTEGER_CONVERSION, nullability, parentTableName);
+    addField(fieldValueForeignKey);
     return fieldValueForeignKey;
   }
 
+  private String getTableNameOf(Class<? extends DataObject> dataObjectClass) {
+    if (dataObjectClass.equals(getClass())) {
+      return getTableName();
+    }
+    TableDescriptor parentDescriptor = TableDescriptor.forClass(dataObjectClass);
+    if (parentDescriptor == null) {
+      throw new IllegalArgumentException("Can't find table name of " + dataObjectClass.getName() + ". " +
+          "Foreign keys registered by class need a parent class with a public no-arg constructor.");
+    }
+    return parentDescriptor.getTableName();
+  }
+
   protected final FieldValueBigDecimal registerBigDecimalField(String fieldName, Nullability nullability) {
-    FieldValueBigDecimal fieldBigDecimalValue = new FieldValueBigDecimal(fieldName, new FieldConversionBigDecimal(), nullability);
-    allFieldValues.add(fieldBigDecimalValue);
+    FieldValueBigDecimal fieldBigDecimalValue = new FieldValueBigDecimal(fieldName, BIG_DECIMAL_CONVERSION, nullability);
+    addField(fieldBigDecimalValue);
     return fieldBigDecimalValue;
   }
 
   protected final FieldValueString registerStringField(String fieldName, Nullability nullability) {
-    FieldValueString fieldBooleanValue = new FieldValueString(fieldName, new FieldConversionString(), nullability);
-    allFieldValues.add(fieldBooleanValue);
+    FieldValueString fieldBooleanValue = new FieldValueString(fieldName, STRING_CONVERSION, nullability);
+    addField(fieldBooleanValue);
     return fieldBooleanValue;
   }
 
@@ -0,0 +1,210 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Opt-in cache of DataObjects of one class by id, for reference tables that are read far more often than written.
+ *
+ * Entries are evicted past a maximum size or a time after loading, whichever comes first. Concurrent misses for the
+ * same id wait for one load rather than each running a query. Ids with no row are cached too, as absent.
+ *
+ * Committing an object of the cached class (commit(), commitAll(), or a bulk load) invalidates its id in every open
+ * cache of that class, so the next get() reads the committed row. Inside inTransaction(), it's invalidated again when
+ * the transaction ends, so a row loaded by another thread before the commit doesn't stay cached. Changes made by other processes, or by SQL that
+ * doesn't go through a DataObject, are only picked up when entries expire.
+ *
+ * Cached objects are shared by every caller, so treat them as read-only. To change one, change it and commit it
+ * right away, which invalidates it. Call close() when done with a cache so commits stop notifying it.
+ *
+ * Loads run on the given connection, so share a cache across threads only with a pooled connection.
+ */
+@SuppressWarnings("unused")
+public class DataObjectCache<T extends DataObject> implements AutoCloseable {
+
+  // Open caches by the class they hold, so commits can find the caches to invalidate.
+  private static final Map<Class<? extends DataObject>, List<DataObjectCache<?>>> openCaches = new ConcurrentHashMap<>();
+
+  private final Class<? extends DataObject> dataObjectClass;
+  private final LoadingCache<Integer, Optional<T>> cache;
+
+  /**
+   * @param connection Connection to load missing objects on.
+   * @param factory Creates an empty entity per row, e.g. MyObject::new.
+   * @param maximumSize Most objects to keep. Least recently used objects are evicted first.
+   * @param expireAfterWrite How long an object stays cached after it's loaded.
+   */
+  public DataObjectCache(SQLConnection connection, Supplier<T> factory, long maximumSize, Duration expireAfterWrite) {
+    Preconditions.checkArgument(maximumSize > 0, "Maximum size must be positive.");
+    DataObjectFinder<T> finder = new DataObjectFinder<>(connection, factory);
+    this.dataObjectClass = factory.get().getClass();
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(expireAfterWrite)
+        .recordStats()
+        .build(new CacheLoader<Integer, Optional<T>>() {
+          @Override
+          public Optional<T> load(@NotNull Integer id) throws SQLException {
+            return Optional.ofNullable(finder.findById(id));
+          }
+
+          @Override
+          public Map<Integer, Optional<T>> loadAll(@NotNull Iterable<? extends Integer> ids) throws SQLException {
+            Map<Integer, Optional<T>> loaded = new HashMap<>();
+            for (Integer id : ids) {
+              loaded.put(id, Optional.empty());
+            }
+            for (T dataObject : finder.findByIds(loaded.keySet())) {
+              loaded.put(dataObject.id.getValue(), Optional.of(dataObject));
+            }
+            return loaded;
+          }
+        });
+
+    openCaches.computeIfAbsent(dataObjectClass, key -> new CopyOnWriteArrayList<>()).add(this);
+  }
+
+  /**
+   * @return Object with the given id, loaded if it isn't cached, or null if there is no such row.
+   * @throws SQLException
+   */
+  @Nullable
+  public T get(int id) throws SQLException {
+    try {
+      return cache.get(id).orElse(null);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  /**
+   * Get several objects, loading every one that isn't cached with a single findByIds() query.
+   *
+   * @return Objects in the order their ids were given. Ids with no row are skipped.
+   * @throws SQLException
+   */
+  @NotNull
+  public List<T> getAll(Collection<Integer> ids) throws SQLException {
+    Map<Integer, Optional<T>> byId;
+    try {
+      byId = cache.getAll(ids);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw unwrap(e);
+    }
+    List<T> results = new ArrayList<>(byId.size());
+    for (Optional<T> dataObject : byId.values()) {
+      dataObject.ifPresent(results::add);
+    }
+    return results;
+  }
+
+  public void invalidate(int id) {
+    cache.invalidate(id);
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * Hit and miss counts, load times and evictions since the cache was created. See CacheStats.hitRate().
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Stop getting invalidations from commits, and drop every entry.
+   */
+  @Override
+  public void close() {
+    List<DataObjectCache<?>> caches = openCaches.get(dataObjectClass);
+    if (caches != null) {
+      caches.remove(this);
+    }
+    cache.invalidateAll();
+  }
+
+  /**
+   * Called after a DataObject is inserted or updated, to drop its row from every open cache of its class. Inside a
+   * transaction, the row is dropped again once the transaction ends, since until it commits, other threads can still
+   * load and cache the old row.
+   */
+  static void invalidateCommitted(SQLConnection connection, DataObject dataObject) {
+    if (openCaches.isEmpty()) {
+      return;
+    }
+    Class<? extends DataObject> dataObjectClass = dataObject.getClass();
+    Integer id = dataObject.id.getValue();
+    if (id != null && openCaches.containsKey(dataObjectClass)) {
+      invalidate(dataObjectClass, id);
+      if (connection.isInTransaction()) {
+        connection.runAfterTransaction(() -> invalidate(dataObjectClass, id));
+      }
+    }
+  }
+
+  /**
+   * Called after a statement changes rows of a class without going through objects, so the changed ids aren't known.
+   * Inside a transaction, the class is dropped again once the transaction ends, as in invalidateCommitted().
+   */
+  static void invalidateAll(SQLConnection connection, Class<? extends DataObject> dataObjectClass) {
+    if (openCaches.containsKey(dataObjectClass)) {
+      invalidateAll(dataObjectClass);
+      if (connection.isInTransaction()) {
+        connection.runAfterTransaction(() -> invalidateAll(dataObjectClass));
+      }
+    }
+  }
+
+  private static void invalidate(Class<? extends DataObject> dataObjectClass, int id) {
+    List<DataObjectCache<?>> caches = openCaches.get(dataObjectClass);
+    if (caches != null) {
+      for (DataObjectCache<?> dataObjectCache : caches) {
+        dataObjectCache.invalidate(id);
+      }
+    }
+  }
+
+  private static void invalidateAll(Class<? extends DataObject> dataObjectClass) {
+    List<DataObjectCache<?>> caches = openCaches.get(dataObjectClass);
+    if (caches != null) {
+      for (DataObjectCache<?> dataObjectCache : caches) {
+        dataObjectCache.invalidateAll();
+      }
+    }
+  }
+
+  private static SQLException unwrap(Exception e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof SQLException) {
+      return (SQLException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new SQLException(cause);
+  }
+}
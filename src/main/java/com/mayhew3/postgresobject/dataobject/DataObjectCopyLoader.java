@@ -0,0 +1,197 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.PostgresConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.DataOutputStream;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Inserts new DataObjects on Postgres with COPY ... FROM STDIN (FORMAT binary), which skips statement parsing,
+ * planning and per-row round trips, and is far faster than commit() or commitAll() for large loads.
+ *
+ * Objects are read in chunks (10,000 by default), so a Stream of any length loads in bounded memory. Within a chunk
+ * objects are grouped by table and by which columns they set, and each group is sent as one COPY, so columns an
+ * object doesn't set still get their DB default.
+ *
+ * COPY doesn't return generated keys. With assigned ids on, a block of ids is taken from each table's id sequence
+ * before its COPY and written into the id column, so every object has its id afterwards. Without it, the DB assigns
+ * ids that the objects never see, and they can't be updated later.
+ */
+@SuppressWarnings({"rawtypes", "unused"})
+public class DataObjectCopyLoader {
+  static final int DEFAULT_CHUNK_SIZE = 10000;
+
+  private final PostgresConnection connection;
+  private boolean assignIds = false;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+  private static final Logger logger = LogManager.getLogger(DataObjectCopyLoader.class);
+
+  public DataObjectCopyLoader(PostgresConnection connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * Allocate ids from the table's sequence before each COPY, so loaded objects get their ids like commit() gives them.
+   * Costs one extra round trip per COPY. Defaults to false.
+   */
+  public DataObjectCopyLoader withAssignedIds(boolean assignIds) {
+    this.assignIds = assignIds;
+    return this;
+  }
+
+  /**
+   * Max number of objects held in memory and sent per COPY. Defaults to 10,000.
+   */
+  public DataObjectCopyLoader withChunkSize(int chunkSize) {
+    Preconditions.checkArgument(chunkSize > 0, "Chunk size must be positive.");
+    this.chunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Insert every object with binary COPY. Afterwards each object is in UPDATE mode with its fields marked as saved,
+   * as after commit().
+   *
+   * @param dataObjects Objects initialized for insert.
+   * @return Number of rows copied.
+   * @throws SQLException
+   */
+  public long load(Iterable<? extends DataObject> dataObjects) throws SQLException {
+    long rowsCopied = 0;
+    List<DataObject> chunk = new ArrayList<>(chunkSize);
+    for (DataObject dataObject : dataObjects) {
+      chunk.add(dataObject);
+      if (chunk.size() == chunkSize) {
+        rowsCopied += loadChunk(chunk);
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      rowsCopied += loadChunk(chunk);
+    }
+    return rowsCopied;
+  }
+
+  /**
+   * Same as load(Iterable), consuming the stream lazily.
+   */
+  public <T extends DataObject> long load(Stream<T> dataObjects) throws SQLException {
+    Iterable<T> iterable = dataObjects::iterator;
+    return load(iterable);
+  }
+
+  private long loadChunk(List<DataObject> chunk) throws SQLException {
+    DataObject.restoreOnRollback(connection, chunk);
+    Map<String, List<PendingRow>> groups = new LinkedHashMap<>();
+
+    for (DataObject dataObject : chunk) {
+      if (!dataObject.isForInsert()) {
+        throw new IllegalStateException("Bulk load only inserts new objects. Found object of table " +
+            dataObject.getTableName() + " that isn't initialized for insert.");
+      }
+      dataObject.preInsert();
+      List<FieldValue> fields = dataObject.prepareInsert();
+      String copySql = createCopySql(dataObject, fields);
+      groups.computeIfAbsent(copySql, key -> new ArrayList<>()).add(new PendingRow(dataObject, fields));
+    }
+
+    long rowsCopied = 0;
+    for (Map.Entry<String, List<PendingRow>> group : groups.entrySet()) {
+      rowsCopied += copyGroup(group.getKey(), group.getValue());
+    }
+    return rowsCopied;
+  }
+
+  private long copyGroup(String copySql, List<PendingRow> rows) throws SQLException {
+    DataObject first = rows.get(0).dataObject;
+    List<Integer> ids = allocatesIds(first, rows.get(0).fields) ? allocateIds(first.id, rows.size()) : null;
+    IntegerSize idSize = first.id.getSize();
+    int fieldCount = rows.get(0).fields.size() + (ids != null ? 1 : 0);
+
+    debug("COPY of " + rows.size() + " rows into " + first.getTableName() + ".");
+
+    long rowsCopied = connection.copyIn(copySql, copyStream -> {
+      DataOutputStream out = new DataOutputStream(copyStream);
+      CopyBinaryFormat.writeHeader(out);
+      for (int i = 0; i < rows.size(); i++) {
+        CopyBinaryFormat.writeTupleStart(out, fieldCount);
+        if (ids != null) {
+          CopyBinaryFormat.writeInteger(out, ids.get(i), idSize);
+        }
+        for (FieldValue fieldValue : rows.get(i).fields) {
+          fieldValue.writeCopyBinary(out);
+        }
+      }
+      CopyBinaryFormat.writeTrailer(out);
+      out.flush();
+    });
+
+    if (rowsCopied != rows.size()) {
+      throw new IllegalStateException("Expected COPY into " + first.getTableName() + " to insert " + rows.size() +
+          " rows, but it inserted " + rowsCopied + ".");
+    }
+
+    for (int i = 0; i < rows.size(); i++) {
+      PendingRow row = rows.get(i);
+      row.dataObject.completeInsert(connection, row.fields, ids == null ? row.dataObject.id.getValue() : ids.get(i));
+    }
+
+    return rowsCopied;
+  }
+
+  private List<Integer> allocateIds(FieldValueSerial id, int count) throws SQLException {
+    List<Integer> ids = connection.query(
+        "SELECT nextval(CAST(? AS regclass)) AS id FROM generate_series(1, ?)",
+        resultSet -> resultSet.getInt("id"),
+        Lists.newArrayList((Object) id.getSequenceName(), count)
+    );
+    if (ids.size() != count) {
+      throw new IllegalStateException("Asked sequence " + id.getSequenceName() + " for " + count + " ids, but got " + ids.size() + ".");
+    }
+    return ids;
+  }
+
+  /**
+   * Objects that already have an id (see SequenceIdAllocator) have it in their insert fields, so don't need one.
+   */
+  private boolean allocatesIds(DataObject dataObject, List<FieldValue> fields) {
+    return assignIds && !dataObject.hasAssignedId(fields);
+  }
+
+  private String createCopySql(DataObject dataObject, List<FieldValue> fields) {
+    List<String> columnNames = new ArrayList<>();
+    if (allocatesIds(dataObject, fields)) {
+      columnNames.add(dataObject.id.getFieldNameDBSafe(DatabaseType.POSTGRES));
+    }
+    columnNames.addAll(fields.stream()
+        .map(fieldValue -> fieldValue.getFieldNameDBSafe(DatabaseType.POSTGRES))
+        .collect(Collectors.toList()));
+
+    return "COPY " + dataObject.getQualifiedTableName(connection) + " (" + Joiner.on(", ").join(columnNames) + ") " +
+        "FROM STDIN (FORMAT binary)";
+  }
+
+  private void debug(Object message) {
+    logger.debug(message);
+  }
+
+  private static class PendingRow {
+    private final DataObject dataObject;
+    private final List<FieldValue> fields;
+
+    private PendingRow(DataObject dataObject, List<FieldValue> fields) {
+      this.dataObject = dataObject;
+      this.fields = fields;
+    }
+  }
+}
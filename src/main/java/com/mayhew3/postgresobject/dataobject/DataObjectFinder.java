@@ -0,0 +1,307 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.RowMapper;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads DataObjects of one class without hand-written SQL. Queries select the class's columns by name rather than
+ * SELECT *, and every row is hydrated with initializeFromDBObject, so results read their columns by position.
+ *
+ * A finder made by DataObjectSession.finder() returns the session's instance for any row the session already has,
+ * and doesn't query for ids the session already has.
+ *
+ * Finders are cheap to create and hold no connection state beyond the one they're given. The SQL they generate only
+ * depends on the query's shape, not its values, so repeated queries reuse the connection's cached statements.
+ *
+ * Example:
+ *   DataObjectFinder&lt;Game&gt; games = new DataObjectFinder&lt;&gt;(connection, Game::new);
+ *   Game game = games.findById(12);
+ *   List&lt;Game&gt; recent = games.where("owned", Operator.EQUALS, true).orderByDescending("date_added").limit(10).list();
+ */
+@SuppressWarnings("unused")
+public class DataObjectFinder<T extends DataObject> {
+
+  // MySQL has no array parameters, so id lists become IN (?, ?, ...). Lists are padded up to a power of two, so a
+  // few statement shapes cover every list size, and capped so a huge list doesn't make a huge statement.
+  static final int MAX_IDS_PER_STATEMENT = 1024;
+
+  private final SQLConnection connection;
+  private final Supplier<T> factory;
+  @Nullable
+  private final DataObjectSession session;
+  private final T prototype;
+  private final String selectSql;
+
+  /**
+   * @param connection Connection to run queries on.
+   * @param factory Creates an empty entity per row, e.g. MyObject::new.
+   */
+  public DataObjectFinder(SQLConnection connection, Supplier<T> factory) {
+    this(connection, factory, null);
+  }
+
+  DataObjectFinder(SQLConnection connection, Supplier<T> factory, @Nullable DataObjectSession session) {
+    this.connection = connection;
+    this.factory = factory;
+    this.session = session;
+    this.prototype = factory.get();
+    this.selectSql = createSelectSql();
+  }
+
+  /**
+   * @return Object with the given id, or null if there is no such row.
+   * @throws SQLException
+   */
+  @Nullable
+  public T findById(int id) throws SQLException {
+    T loaded = getLoaded(id);
+    if (loaded != null) {
+      return loaded;
+    }
+    List<T> results = connection.query(selectSql + " WHERE " + getColumnName(prototype.id) + " = ?", getRowMapper(), Lists.newArrayList((Object) id));
+    return results.isEmpty() ? null : results.get(0);
+  }
+
+  /**
+   * Load every object whose id is in the list, with one statement on Postgres (id = ANY(?)), and one statement per
+   * 1,024 ids on MySQL.
+   *
+   * @return Objects in the order their ids were given. Ids with no row are skipped, and repeated ids are loaded once.
+   * @throws SQLException
+   */
+  @NotNull
+  public List<T> findByIds(Collection<Integer> ids) throws SQLException {
+    Set<Integer> uniqueIds = new LinkedHashSet<>(ids);
+    Preconditions.checkArgument(!uniqueIds.contains(null), "Can't find objects by null id.");
+
+    Map<Integer, T> byId = new HashMap<>();
+    List<Integer> idsToLoad = new ArrayList<>(uniqueIds.size());
+    for (Integer id : uniqueIds) {
+      T loaded = getLoaded(id);
+      if (loaded == null) {
+        idsToLoad.add(id);
+      } else {
+        byId.put(id, loaded);
+      }
+    }
+
+    if (!idsToLoad.isEmpty()) {
+      for (T dataObject : loadByIds(idsToLoad, getRowMapper())) {
+        byId.put(dataObject.id.getValue(), dataObject);
+      }
+    }
+
+    List<T> results = new ArrayList<>(byId.size());
+    for (Integer id : uniqueIds) {
+      T dataObject = byId.get(id);
+      if (dataObject != null) {
+        results.add(dataObject);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Load the columns that a projection (see DataObjectQuery.select()) left out of these objects, with the same one
+   * statement per batch as findByIds(). Objects that are fully loaded are skipped. Fields already loaded keep their
+   * values and unsaved changes, so this is safe to call after changing a partially loaded object.
+   *
+   * @throws SQLException
+   */
+  public void loadUnloadedFields(Collection<? extends T> dataObjects) throws SQLException {
+    Map<Integer, T> byId = new LinkedHashMap<>();
+    for (T dataObject : dataObjects) {
+      if (dataObject.hasUnloadedFields()) {
+        byId.put(dataObject.id.getValue(), dataObject);
+      }
+    }
+    if (byId.isEmpty()) {
+      return;
+    }
+
+    loadByIds(new ArrayList<>(byId.keySet()), resultSet -> {
+      T dataObject = byId.get(resultSet.getInt(1));
+      dataObject.initializeUnloadedFields(resultSet);
+      return dataObject;
+    });
+  }
+
+  private List<T> loadByIds(List<Integer> ids, RowMapper<T> rowMapper) throws SQLException {
+    String idColumn = getColumnName(prototype.id);
+
+    if (connection.getDatabaseType() == DatabaseType.POSTGRES) {
+      Integer[] idArray = ids.toArray(new Integer[0]);
+      return connection.query(selectSql + " WHERE " + idColumn + " = ANY(?)", rowMapper, Lists.newArrayList((Object) idArray));
+    }
+
+    List<T> loaded = new ArrayList<>(ids.size());
+    for (List<Integer> chunk : Lists.partition(ids, MAX_IDS_PER_STATEMENT)) {
+      List<Object> params = padToBucketSize(chunk);
+      String sql = selectSql + " WHERE " + idColumn + " IN (" + Joiner.on(", ").join(Collections.nCopies(params.size(), "?")) + ")";
+      loaded.addAll(connection.query(sql, rowMapper, params));
+    }
+    return loaded;
+  }
+
+  /**
+   * Start a query with no conditions, which returns every row of the table until conditions are added.
+   */
+  public DataObjectQuery<T> query() {
+    return new DataObjectQuery<>(this);
+  }
+
+  /**
+   * Start a query with one condition. Add more with DataObjectQuery.where().
+   */
+  public DataObjectQuery<T> where(String fieldName, DataObjectQuery.Operator operator, Object value) {
+    return query().where(fieldName, operator, value);
+  }
+
+  /**
+   * Batch loader for the parents of a collection of child objects, through one of the children's foreign keys to
+   * this finder's table. The first getParent() call loads every child's parent with one query.
+   *
+   * Example:
+   *   ForeignKeyLoader&lt;Game, Platform&gt; platforms = platformFinder.parentsOf(games, game -&gt; game.platformId);
+   *   for (Game game : games) {
+   *     Platform platform = platforms.getParent(game);
+   *   }
+   */
+  public <C extends DataObject> ForeignKeyLoader<C, T> parentsOf(Collection<? extends C> children, Function<? super C, FieldValueForeignKey> foreignKey) {
+    return new ForeignKeyLoader<>(this, children, foreignKey);
+  }
+
+  SQLConnection getConnection() {
+    return connection;
+  }
+
+  String getTableName() {
+    return prototype.getTableName();
+  }
+
+  String getQualifiedTableName() {
+    return prototype.getQualifiedTableName(connection);
+  }
+
+  boolean isRetireable() {
+    return prototype instanceof RetireableDataObject;
+  }
+
+  @Nullable
+  FieldValueInt getVersionField() {
+    return prototype.getVersionField();
+  }
+
+  String getSelectSql() {
+    return selectSql;
+  }
+
+  /**
+   * Same as getSelectSql(), but only naming the id and the fields at the given positions.
+   */
+  String getSelectSql(BitSet projectedFields) {
+    List<FieldValue> fieldValues = prototype.getAllFieldValues();
+    List<String> columnNames = new ArrayList<>();
+    columnNames.add(getColumnName(prototype.id));
+    for (int i = projectedFields.nextSetBit(0); i >= 0; i = projectedFields.nextSetBit(i + 1)) {
+      columnNames.add(getColumnName(fieldValues.get(i)));
+    }
+    return "SELECT " + Joiner.on(", ").join(columnNames) + " FROM " + prototype.getQualifiedTableName(connection);
+  }
+
+  /**
+   * Hydrates each row into a new object. With a session, a row the session already has maps to the session's
+   * instance instead, without being hydrated. Expects the id in the first column, as in getSelectSql().
+   */
+  RowMapper<T> getRowMapper() {
+    return withSession(RowMapper.forDataObject(factory));
+  }
+
+  /**
+   * Row mapper for getSelectSql(projectedFields). Objects come back with only those fields loaded.
+   */
+  RowMapper<T> getRowMapper(BitSet projectedFields) {
+    return withSession(resultSet -> {
+      T dataObject = factory.get();
+      dataObject.initializeFromProjection(resultSet, projectedFields);
+      return dataObject;
+    });
+  }
+
+  private RowMapper<T> withSession(RowMapper<T> hydrate) {
+    if (session == null) {
+      return hydrate;
+    }
+    return resultSet -> {
+      T loaded = getLoaded(resultSet.getInt(1));
+      if (loaded != null) {
+        return loaded;
+      }
+      T dataObject = hydrate.mapRow(resultSet);
+      return getDataObjectClass().cast(session.attach(dataObject));
+    };
+  }
+
+  @Nullable
+  private T getLoaded(int id) {
+    return session == null ? null : session.get(getDataObjectClass(), id);
+  }
+
+  @SuppressWarnings("unchecked")
+  Class<T> getDataObjectClass() {
+    return (Class<T>) prototype.getClass();
+  }
+
+  /**
+   * @throws IllegalArgumentException if the class has no field with that name, so only known column names ever make
+   * it into the SQL.
+   */
+  FieldValue getField(String fieldName) {
+    FieldValue fieldValue = prototype.getFieldValueWithName(fieldName);
+    if (fieldValue == null) {
+      throw new IllegalArgumentException("No field '" + fieldName + "' on table " + prototype.getTableName() + ".");
+    }
+    return fieldValue;
+  }
+
+  String getColumnName(FieldValue fieldValue) {
+    return fieldValue.getFieldNameDBSafe(connection.getDatabaseType());
+  }
+
+  private String createSelectSql() {
+    List<String> columnNames = new ArrayList<>();
+    columnNames.add(getColumnName(prototype.id));
+    for (FieldValue fieldValue : prototype.getAllFieldValues()) {
+      columnNames.add(getColumnName(fieldValue));
+    }
+    return "SELECT " + Joiner.on(", ").join(columnNames) + " FROM " + prototype.getQualifiedTableName(connection);
+  }
+
+  /**
+   * Repeat the last id until the list is a power of two long. Repeated ids in an IN list don't change the result.
+   */
+  private static List<Object> padToBucketSize(List<Integer> ids) {
+    int bucketSize = Integer.highestOneBit(ids.size());
+    if (bucketSize < ids.size()) {
+      bucketSize <<= 1;
+    }
+    List<Object> params = new ArrayList<>(bucketSize);
+    params.addAll(ids);
+    Integer last = ids.get(ids.size() - 1);
+    while (params.size() < bucketSize) {
+      params.add(last);
+    }
+    return params;
+  }
+}
@@ -0,0 +1,379 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.mayhew3.postgresobject.db.RowMapper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Query for DataObjects of one class, built from field conditions, ordering and a limit. Conditions are ANDed
+ * together. Create with DataObjectFinder.query() or DataObjectFinder.where().
+ *
+ * Besides loading objects, a query can change or delete its matching rows in one statement, without loading them:
+ * see update(), delete(), retire() and unRetire().
+ *
+ * Field names are checked against the class's registered fields, and values are always bound as parameters, so
+ * nothing passed in is pasted into the SQL.
+ */
+@SuppressWarnings("unused")
+public class DataObjectQuery<T extends DataObject> {
+
+  public enum Operator {
+    EQUALS("="),
+    NOT_EQUALS("<>"),
+    LESS_THAN("<"),
+    LESS_THAN_OR_EQUAL("<="),
+    GREATER_THAN(">"),
+    GREATER_THAN_OR_EQUAL(">=");
+
+    private final String sql;
+
+    Operator(String sql) {
+      this.sql = sql;
+    }
+  }
+
+  static final int DEFAULT_FETCH_SIZE = 1000;
+
+  private final DataObjectFinder<T> finder;
+  private final List<String> conditions = new ArrayList<>();
+  private final List<Object> params = new ArrayList<>();
+  private final List<String> orderings = new ArrayList<>();
+  private Integer limit;
+  // Column assignments for update(), as SQL with their parameter values.
+  private final List<String> assignments = new ArrayList<>();
+  private final List<Object> assignmentParams = new ArrayList<>();
+  private Integer idChunkSize;
+  private int fetchSize = DEFAULT_FETCH_SIZE;
+  // Positions of the fields to select, or null to select every field.
+  private BitSet projectedFields;
+
+  DataObjectQuery(DataObjectFinder<T> finder) {
+    this.finder = finder;
+  }
+
+  /**
+   * Only select these columns (plus the id, which is always selected), e.g. to skip large TEXT columns when only a
+   * few fields are needed. Fields left out are unloaded on the results: reading or changing one throws, and
+   * committing a result only updates the loaded fields that changed. Load the rest later with
+   * DataObjectFinder.loadUnloadedFields().
+   *
+   * A finder from a DataObjectSession returns the session's instance for rows it already has, whichever fields those
+   * have loaded.
+   */
+  public DataObjectQuery<T> select(String... fieldNames) {
+    BitSet fields = new BitSet();
+    for (String fieldName : fieldNames) {
+      FieldValue fieldValue = finder.getField(fieldName);
+      if (!"id".equals(fieldName)) {
+        fields.set(fieldValue.getPosition());
+      }
+    }
+    // Versioned objects can't be updated without knowing their version.
+    FieldValueInt versionField = finder.getVersionField();
+    if (versionField != null) {
+      fields.set(versionField.getPosition());
+    }
+    projectedFields = fields;
+    return this;
+  }
+
+  /**
+   * Only return rows where the field compares to the value with the operator. Use whereNull() to match nulls.
+   */
+  public DataObjectQuery<T> where(String fieldName, Operator operator, Object value) {
+    Preconditions.checkArgument(value != null, "Value for field '" + fieldName + "' is null. Use whereNull() or whereNotNull().");
+    conditions.add(getColumnName(fieldName) + " " + operator.sql + " ?");
+    params.add(toParam(value));
+    return this;
+  }
+
+  public DataObjectQuery<T> whereNull(String fieldName) {
+    conditions.add(getColumnName(fieldName) + " IS NULL");
+    return this;
+  }
+
+  public DataObjectQuery<T> whereNotNull(String fieldName) {
+    conditions.add(getColumnName(fieldName) + " IS NOT NULL");
+    return this;
+  }
+
+  public DataObjectQuery<T> orderBy(String fieldName) {
+    orderings.add(getColumnName(fieldName));
+    return this;
+  }
+
+  public DataObjectQuery<T> orderByDescending(String fieldName) {
+    orderings.add(getColumnName(fieldName) + " DESC");
+    return this;
+  }
+
+  /**
+   * Return at most this many rows. Without an ordering, which rows is up to the database.
+   */
+  public DataObjectQuery<T> limit(int limit) {
+    Preconditions.checkArgument(limit > 0, "Limit must be positive.");
+    this.limit = limit;
+    return this;
+  }
+
+  /**
+   * @return Every matching object, in the query's order.
+   * @throws SQLException
+   */
+  @NotNull
+  public List<T> list() throws SQLException {
+    return finder.getConnection().query(createSql(), getRowMapper(), getParams());
+  }
+
+  /**
+   * @return First matching object in the query's order, or null if nothing matches. Only one row is fetched.
+   * @throws SQLException
+   */
+  @Nullable
+  public T first() throws SQLException {
+    if (limit == null) {
+      limit = 1;
+    }
+    List<T> results = list();
+    return results.isEmpty() ? null : results.get(0);
+  }
+
+  /**
+   * Rows fetched per round trip by stream(). Defaults to 1,000.
+   */
+  public DataObjectQuery<T> withFetchSize(int fetchSize) {
+    Preconditions.checkArgument(fetchSize > 0, "Fetch size must be positive.");
+    this.fetchSize = fetchSize;
+    return this;
+  }
+
+  /**
+   * Lazy version of list() for results too large to hold in memory. Rows are read from a server-side cursor in
+   * batches, and each object is only created and hydrated when the stream gets to it, so limit() and findFirst()
+   * stop fetching early.
+   *
+   * The stream holds the cursor (and on Postgres, a transaction) open until closed, so use try-with-resources:
+   *   try (Stream&lt;Game&gt; games = finder.query().stream()) { ... }
+   *
+   * @return Every matching object, in the query's order.
+   * @throws SQLException
+   */
+  @NotNull
+  public Stream<T> stream() throws SQLException {
+    return finder.getConnection().streamRows(createSql(), fetchSize, getRowMapper(), getParams());
+  }
+
+  // Bulk changes
+
+  /**
+   * Value for update() to set the field to on every matching row. Null sets the column to NULL.
+   */
+  public DataObjectQuery<T> set(String fieldName, @Nullable Object value) {
+    Preconditions.checkArgument(!"id".equals(fieldName), "Can't change the id of existing rows.");
+    FieldValue fieldValue = finder.getField(fieldName);
+    Preconditions.checkArgument(fieldValue != finder.getVersionField(), "Can't set the version field. update() increments it.");
+    if (value == null) {
+      assignments.add(getColumnName(fieldName) + " = NULL");
+    } else {
+      assignments.add(getColumnName(fieldName) + " = ?");
+      assignmentParams.add(toParam(value));
+    }
+    return this;
+  }
+
+  /**
+   * Run update(), delete(), retire() and unRetire() as one statement per range of this many ids, from the lowest to
+   * the highest matching id, instead of one statement for the whole table. Each range commits on its own (unless
+   * the connection is in a transaction), so locks are held briefly and a huge change doesn't run as one giant
+   * transaction, but a failure part way through leaves the earlier ranges changed.
+   */
+  public DataObjectQuery<T> inIdChunks(int chunkSize) {
+    Preconditions.checkArgument(chunkSize > 0, "Chunk size must be positive.");
+    this.idChunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Set the fields given with set() on every matching row, with one UPDATE statement (or one per range of ids, see
+   * inIdChunks()). A version field, if the class has one, is incremented too.
+   *
+   * Objects already loaded, including those in a DataObjectSession, keep their old values. Open DataObjectCaches of
+   * the class are cleared.
+   *
+   * @return Number of rows updated.
+   * @throws SQLException
+   */
+  public int update() throws SQLException {
+    Preconditions.checkState(!assignments.isEmpty(), "Nothing to update. Name the fields to change with set().");
+    return executeUpdate(assignments, assignmentParams, null);
+  }
+
+  /**
+   * Delete every matching row, with one DELETE statement (or one per range of ids, see inIdChunks()). A query with no
+   * conditions deletes every row of the table.
+   *
+   * @return Number of rows deleted.
+   * @throws SQLException
+   */
+  public int delete() throws SQLException {
+    return executeChange("DELETE FROM " + finder.getQualifiedTableName(), new ArrayList<>(), null);
+  }
+
+  /**
+   * Retire every matching row that isn't retired, the same way RetireableDataObject.retire() does, without loading
+   * any of them.
+   *
+   * @return Number of rows retired.
+   * @throws IllegalStateException if the class isn't a RetireableDataObject.
+   * @throws SQLException
+   */
+  public int retire() throws SQLException {
+    checkRetireable();
+    String retired = getColumnName("retired");
+    List<String> retireAssignments = new ArrayList<>();
+    retireAssignments.add(retired + " = " + getColumnName("id"));
+    retireAssignments.add(getColumnName("retired_date") + " = ?");
+    List<Object> retireParams = new ArrayList<>();
+    retireParams.add(new Timestamp(new Date().getTime()));
+    return executeUpdate(retireAssignments, retireParams, retired + " = 0");
+  }
+
+  /**
+   * Undo retire() on every matching row that is retired, the same way RetireableDataObject.unRetire() does.
+   *
+   * @return Number of rows unretired.
+   * @throws IllegalStateException if the class isn't a RetireableDataObject.
+   * @throws SQLException
+   */
+  public int unRetire() throws SQLException {
+    checkRetireable();
+    String retired = getColumnName("retired");
+    List<String> unRetireAssignments = new ArrayList<>();
+    unRetireAssignments.add(retired + " = 0");
+    unRetireAssignments.add(getColumnName("retired_date") + " = NULL");
+    return executeUpdate(unRetireAssignments, new ArrayList<>(), retired + " <> 0");
+  }
+
+  private void checkRetireable() {
+    Preconditions.checkState(finder.isRetireable(), "Table " + finder.getTableName() + " isn't retireable.");
+  }
+
+  private int executeUpdate(List<String> setAssignments, List<Object> setParams, @Nullable String extraCondition) throws SQLException {
+    List<String> allAssignments = new ArrayList<>(setAssignments);
+    FieldValueInt versionField = finder.getVersionField();
+    if (versionField != null) {
+      String versionName = finder.getColumnName(versionField);
+      allAssignments.add(versionName + " = " + versionName + " + 1");
+    }
+    String sql = "UPDATE " + finder.getQualifiedTableName() + " SET " + Joiner.on(", ").join(allAssignments);
+    return executeChange(sql, setParams, extraCondition);
+  }
+
+  /**
+   * Run an UPDATE or DELETE with this query's conditions, plus an optional extra condition, in one statement or one
+   * per range of ids.
+   */
+  private int executeChange(String statementSql, List<Object> statementParams, @Nullable String extraCondition) throws SQLException {
+    Preconditions.checkState(orderings.isEmpty() && limit == null, "Bulk changes apply to every matching row, so can't have an ordering or limit.");
+
+    List<String> allConditions = new ArrayList<>(conditions);
+    if (extraCondition != null) {
+      allConditions.add(extraCondition);
+    }
+    List<Object> allParams = new ArrayList<>(statementParams);
+    allParams.addAll(params);
+
+    int rowsAffected = 0;
+    if (idChunkSize == null) {
+      rowsAffected = finder.getConnection().prepareAndExecuteStatementUpdate(statementSql + getWhereClause(allConditions), allParams);
+    } else {
+      String idColumn = getColumnName("id");
+      int[] idRange = getIdRange(allConditions);
+      if (idRange != null) {
+        allConditions.add(idColumn + " >= ?");
+        allConditions.add(idColumn + " <= ?");
+        String chunkSql = statementSql + getWhereClause(allConditions);
+        for (long chunkStart = idRange[0]; chunkStart <= idRange[1]; chunkStart += idChunkSize) {
+          List<Object> chunkParams = new ArrayList<>(allParams);
+          chunkParams.add((int) chunkStart);
+          chunkParams.add((int) Math.min(chunkStart + idChunkSize - 1, idRange[1]));
+          rowsAffected += finder.getConnection().prepareAndExecuteStatementUpdate(chunkSql, chunkParams);
+        }
+      }
+    }
+
+    DataObjectCache.invalidateAll(finder.getConnection(), finder.getDataObjectClass());
+    return rowsAffected;
+  }
+
+  /**
+   * @return Lowest and highest id of the rows matching the conditions, or null if none match.
+   */
+  @Nullable
+  private int[] getIdRange(List<String> allConditions) throws SQLException {
+    String idColumn = getColumnName("id");
+    String sql = "SELECT MIN(" + idColumn + "), MAX(" + idColumn + ") FROM " + finder.getQualifiedTableName() + getWhereClause(allConditions);
+    List<int[]> ranges = finder.getConnection().query(sql, resultSet -> {
+      int min = resultSet.getInt(1);
+      return resultSet.wasNull() ? null : new int[]{min, resultSet.getInt(2)};
+    }, new ArrayList<>(params));
+    return ranges.isEmpty() ? null : ranges.get(0);
+  }
+
+  private static String getWhereClause(List<String> allConditions) {
+    return allConditions.isEmpty() ? "" : " WHERE " + Joiner.on(" AND ").join(allConditions);
+  }
+
+  String createSql() {
+    StringBuilder sql = new StringBuilder(projectedFields == null ? finder.getSelectSql() : finder.getSelectSql(projectedFields));
+    sql.append(getWhereClause(conditions));
+    if (!orderings.isEmpty()) {
+      sql.append(" ORDER BY ").append(Joiner.on(", ").join(orderings));
+    }
+    if (limit != null) {
+      sql.append(" LIMIT ?");
+    }
+    return sql.toString();
+  }
+
+  /**
+   * Values for the SQL's parameters. The limit is a parameter too, so queries that only differ in their limit share
+   * a statement.
+   */
+  List<Object> getParams() {
+    List<Object> allParams = new ArrayList<>(params);
+    if (limit != null) {
+      allParams.add(limit);
+    }
+    return allParams;
+  }
+
+  private RowMapper<T> getRowMapper() {
+    return projectedFields == null ? finder.getRowMapper() : finder.getRowMapper(projectedFields);
+  }
+
+  private String getColumnName(String fieldName) {
+    return finder.getColumnName(finder.getField(fieldName));
+  }
+
+  /**
+   * Both connections bind Timestamps, but not the plain java.util.Dates that FieldValueTimestamp and FieldValueDate
+   * hold.
+   */
+  private static Object toParam(Object value) {
+    if (value instanceof Date && !(value instanceof Timestamp)) {
+      return new Timestamp(((Date) value).getTime());
+    }
+    return value;
+  }
+}
@@ -0,0 +1,204 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.base.Preconditions;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Unit of work for DataObjects: an identity map so each row is loaded into at most one instance, plus a flush that
+ * commits everything changed in one go.
+ *
+ * Load through finder(), and a row that's already in the session comes back as the instance already loaded (with
+ * any unsaved changes), and findById() and findByIds() skip the SELECT for ids the session already has. New objects
+ * join with add(). flush() then inserts the new objects and updates the loaded ones that changed, table by table
+ * with parent tables first, batching with commitAll().
+ *
+ * Sessions aren't thread-safe, and are meant to be short-lived, e.g. one per request or job. Nothing is ever
+ * evicted unless clear() or evict() is called.
+ */
+@SuppressWarnings("unused")
+public class DataObjectSession {
+
+  private final SQLConnection connection;
+
+  private final Map<Class<? extends DataObject>, Map<Integer, DataObject>> identityMap = new HashMap<>();
+  private final List<DataObject> newObjects = new ArrayList<>();
+  private final Set<DataObject> newObjectSet = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private static final Logger logger = LogManager.getLogger(DataObjectSession.class);
+
+  public DataObjectSession(SQLConnection connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * Finder whose results go through this session's identity map.
+   *
+   * @param factory Creates an empty entity per row, e.g. MyObject::new.
+   */
+  public <T extends DataObject> DataObjectFinder<T> finder(Supplier<T> factory) {
+    return new DataObjectFinder<>(connection, factory, this);
+  }
+
+  /**
+   * Add an object to the session. New objects (initialized for insert) are inserted at the next flush. Loaded
+   * objects join the identity map, and are updated at flush if they've changed.
+   *
+   * @throws IllegalStateException if the session already has a different instance for the same row.
+   */
+  public void add(DataObject dataObject) {
+    Preconditions.checkState(dataObject.isInitialized(), "Can't add an uninitialized object of table " + dataObject.getTableName() + " to a session.");
+    if (dataObject.isForInsert()) {
+      if (newObjectSet.add(dataObject)) {
+        newObjects.add(dataObject);
+      }
+    } else {
+      DataObject existing = attach(dataObject);
+      if (existing != dataObject) {
+        throw new IllegalStateException("Session already has a different instance of " + dataObject.getTableName() +
+            " row " + dataObject.id.getValue() + ".");
+      }
+    }
+  }
+
+  /**
+   * @return The session's instance of the row, or null if it hasn't been loaded or added.
+   */
+  @Nullable
+  public <T extends DataObject> T get(Class<T> dataObjectClass, int id) {
+    Map<Integer, DataObject> byId = identityMap.get(dataObjectClass);
+    return byId == null ? null : dataObjectClass.cast(byId.get(id));
+  }
+
+  public boolean contains(DataObject dataObject) {
+    if (dataObject.isForInsert()) {
+      return newObjectSet.contains(dataObject);
+    }
+    Integer id = dataObject.id.getValue();
+    return id != null && get(dataObject.getClass(), id) == dataObject;
+  }
+
+  /**
+   * Stop tracking an object. Its unsaved changes won't be flushed, and the next load of its row makes a new instance.
+   */
+  public void evict(DataObject dataObject) {
+    if (newObjectSet.remove(dataObject)) {
+      newObjects.removeIf(newObject -> newObject == dataObject);
+    }
+    Integer id = dataObject.id.getValue();
+    Map<Integer, DataObject> byId = identityMap.get(dataObject.getClass());
+    if (id != null && byId != null && byId.get(id) == dataObject) {
+      byId.remove(id);
+    }
+  }
+
+  /**
+   * Stop tracking everything, without flushing.
+   */
+  public void clear() {
+    identityMap.clear();
+    newObjects.clear();
+    newObjectSet.clear();
+  }
+
+  /**
+   * Insert every new object and update every loaded object with changes. Tables are committed parents first, in
+   * foreign key order, so a parent row exists before the rows that point at it. Within a table, objects are
+   * batched as in commitAll().
+   *
+   * Everything is flushed in one transaction (joining the caller's, if there is one), so either every table is
+   * saved or none is. As each table is sent, its new objects move into the identity map. If the transaction rolls
+   * back, objects of tables that were already sent are put back the way they were, new objects without ids and
+   * waiting to be inserted, so the next flush sends them again.
+   *
+   * @return Number of objects inserted or updated.
+   * @throws SQLException
+   */
+  public int flush() throws SQLException {
+    Map<String, List<DataObject>> byTable = new LinkedHashMap<>();
+    for (DataObject newObject : newObjects) {
+      byTable.computeIfAbsent(newObject.getTableName(), key -> new ArrayList<>()).add(newObject);
+    }
+    for (Map<Integer, DataObject> byId : identityMap.values()) {
+      for (DataObject dataObject : byId.values()) {
+        if (dataObject.hasChanged()) {
+          byTable.computeIfAbsent(dataObject.getTableName(), key -> new ArrayList<>()).add(dataObject);
+        }
+      }
+    }
+
+    if (byTable.isEmpty()) {
+      return 0;
+    }
+
+    List<String> tableOrder = DataObject.orderTablesByForeignKeys(byTable);
+    return connection.inTransaction(() -> {
+      int flushed = 0;
+      for (String tableName : tableOrder) {
+        List<DataObject> dataObjects = byTable.get(tableName);
+        debug("Flushing " + dataObjects.size() + " objects of table " + tableName + ".");
+        DataObject.commitAll(connection, dataObjects);
+        flushed += dataObjects.size();
+        attachInserted(dataObjects);
+      }
+      return flushed;
+    });
+  }
+
+  /**
+   * Inserted objects now have ids, so move them into the identity map, where later loads of their rows find them.
+   */
+  private void attachInserted(List<DataObject> committed) {
+    List<DataObject> inserted = new ArrayList<>();
+    for (DataObject dataObject : committed) {
+      if (newObjectSet.remove(dataObject)) {
+        attach(dataObject);
+        inserted.add(dataObject);
+      }
+    }
+    newObjects.removeIf(newObject -> !newObjectSet.contains(newObject));
+    if (!inserted.isEmpty()) {
+      connection.runAfterRollback(() -> detachInserted(inserted));
+    }
+  }
+
+  /**
+   * The transaction that inserted these objects rolled back, so they're new again: out of the identity map, and back
+   * with the objects to insert. Runs before commitAll() takes their ids back, since rollback actions run newest first.
+   */
+  private void detachInserted(List<DataObject> inserted) {
+    for (DataObject dataObject : inserted) {
+      Map<Integer, DataObject> byId = identityMap.get(dataObject.getClass());
+      Integer id = dataObject.id.getValue();
+      if (byId != null && byId.get(id) == dataObject) {
+        byId.remove(id);
+      }
+      if (newObjectSet.add(dataObject)) {
+        newObjects.add(dataObject);
+      }
+    }
+  }
+
+  /**
+   * Put a loaded object in the identity map, unless the map already has an instance for its row.
+   *
+   * @return The instance the session uses for the row.
+   */
+  DataObject attach(DataObject dataObject) {
+    Integer id = dataObject.id.getValue();
+    Preconditions.checkState(id != null, "Can't track an object of table " + dataObject.getTableName() + " with no id.");
+    Map<Integer, DataObject> byId = identityMap.computeIfAbsent(dataObject.getClass(), key -> new HashMap<>());
+    DataObject existing = byId.putIfAbsent(id, dataObject);
+    return existing == null ? dataObject : existing;
+  }
+
+  private void debug(Object message) {
+    logger.debug(message);
+  }
+}
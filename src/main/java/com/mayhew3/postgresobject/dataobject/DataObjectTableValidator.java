@@ -27,15 +27,15 @@ class DataObjectTableValidator {
   }
 
   List<DataObjectMismatch> matchSchema() throws SQLException {
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
+    Integer numTables = connection.queryForObject(
         "SELECT COUNT(1) as num_tables " +
             "FROM information_schema.tables " +
             "WHERE table_schema = ? " +
             "AND table_name = ? ",
+        resultSet -> resultSet.getInt("num_tables"),
         connection.getSchemaName(), dataObject.getTableName()
     );
-    resultSet.next();
-    if (resultSet.getInt("num_tables") != 1) {
+    if (numTables == null || numTables != 1) {
       addMismatch("Table not found!");
       return mismatches;
     }
@@ -52,15 +52,12 @@ class DataObjectTableValidator {
 
     List<FieldValue> unfoundFieldValues = dataObject.getAllFieldValues();
 
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
+    connection.forEachRow(
         "SELECT * " +
             "FROM information_schema.columns " +
             "WHERE table_schema = ? " +
             "AND table_name = ? ",
-        connection.getSchemaName(), dataObject.getTableName()
-    );
-
-    while (resultSet.next()) {
+        resultSet -> {
       String column_name = resultSet.getString("column_name");
       FieldValue fieldValue = dataObject.getFieldValueWithName(column_name);
 
@@ -88,7 +85,7 @@ class DataObjectTableValidator {
 
         unfoundFieldValues.remove(fieldValue);
       }
-    }
+    }, connection.getSchemaName(), dataObject.getTableName());
 
     if (!unfoundFieldValues.isEmpty()) {
       for (FieldValue fieldValue : unfoundFieldValues) {
@@ -101,32 +98,32 @@ class DataObjectTableValidator {
     List<ColumnsIndex> unfoundIndices = dataObject.getIndices();
     List<UniqueConstraint> unfoundUniqueIndices = dataObject.getUniqueIndices();
 
-    ResultSet resultSet = connection.getIndexesForTable(dataObject.getTableName());
-
-    while (resultSet.next()) {
-      String indexname = resultSet.getString("indexname");
-
-      // ignore primary key
-      if (indexname.endsWith("_key") || indexname.endsWith("_pkey")) {
-        Optional<UniqueConstraint> matching = unfoundUniqueIndices.stream()
-            .filter(index -> index.getIndexName().equals(indexname))
-            .findFirst();
-        if (matching.isPresent()) {
-          unfoundUniqueIndices.remove(matching.get());
-        } else {
-          addMismatch("DB unique index '" + indexname + "' specified in DB, but not found.");
-        }
-      } else if (indexname.endsWith("_ix")) {
-        Optional<ColumnsIndex> matching = unfoundIndices.stream()
-            .filter(index -> index.getIndexName().equals(indexname))
-            .findFirst();
-        if (matching.isPresent()) {
-          unfoundIndices.remove(matching.get());
-        } else {
-          addMismatch("DB index '" + indexname + "' specified in DB, but not found.");
+    try (ResultSet resultSet = connection.getIndexesForTable(dataObject.getTableName())) {
+      while (resultSet.next()) {
+        String indexname = resultSet.getString("indexname");
+
+        // ignore primary key
+        if (indexname.endsWith("_key") || indexname.endsWith("_pkey")) {
+          Optional<UniqueConstraint> matching = unfoundUniqueIndices.stream()
+              .filter(index -> index.getIndexName().equals(indexname))
+              .findFirst();
+          if (matching.isPresent()) {
+            unfoundUniqueIndices.remove(matching.get());
+          } else {
+            addMismatch("DB unique index '" + indexname + "' specified in DB, but not found.");
+          }
+        } else if (indexname.endsWith("_ix")) {
+          Optional<ColumnsIndex> matching = unfoundIndices.stream()
+              .filter(index -> index.getIndexName().equals(indexname))
+              .findFirst();
+          if (matching.isPresent()) {
+            unfoundIndices.remove(matching.get());
+          } else {
+            addMismatch("DB index '" + indexname + "' specified in DB, but not found.");
+          }
         }
-      }
 
+      }
     }
 
     if (!unfoundIndices.isEmpty()) {
@@ -144,44 +141,44 @@ class DataObjectTableValidator {
   private void matchForeignKeys() throws SQLException {
     List<FieldValueForeignKey> unfoundForeignKeys = dataObject.getForeignKeys();
 
-    ResultSet resultSet = connection.getFKInfoForTable(dataObject.getTableName());
-
-    while (resultSet.next()) {
-      String constraintName = resultSet.getString("constraint_name");
-      String originalColumn = resultSet.getString("original_column");
-      String referencedTable = resultSet.getString("referenced_table");
-      String referencedColumn = resultSet.getString("referenced_column");
-
-      if (!"id".equals(referencedColumn.toLowerCase())) {
-        addMismatch("Constraint pointing at a column that isn't 'id': '" + constraintName + "' pointing to table '" +
-            referencedTable + "', column '" + referencedColumn + "'");
-      }
+    try (ResultSet resultSet = connection.getFKInfoForTable(dataObject.getTableName())) {
+      while (resultSet.next()) {
+        String constraintName = resultSet.getString("constraint_name");
+        String originalColumn = resultSet.getString("original_column");
+        String referencedTable = resultSet.getString("referenced_table");
+        String referencedColumn = resultSet.getString("referenced_column");
 
-      List<FieldValueForeignKey> eligibleForeignKeys = unfoundForeignKeys
-          .stream()
-          .filter(fk -> fk.getTableName().equals(referencedTable))
-          .collect(Collectors.toList());
-
-      if (eligibleForeignKeys.size() == 1) {
-        FieldValueForeignKey foreignKey = eligibleForeignKeys.get(0);
-        if (!originalColumn.equalsIgnoreCase(foreignKey.getFieldName())) {
-          addMismatch(foreignKey, "DB constraint found to table '" + referencedTable + "', but column names don't match: '" +
-              originalColumn + "' in DB, '" + foreignKey.getFieldName() + "' in Schema.");
-        } else {
-          unfoundForeignKeys.remove(foreignKey);
+        if (!"id".equals(referencedColumn.toLowerCase())) {
+          addMismatch("Constraint pointing at a column that isn't 'id': '" + constraintName + "' pointing to table '" +
+              referencedTable + "', column '" + referencedColumn + "'");
         }
-      } else {
-        List<FieldValueForeignKey> matchedForeignKeys = eligibleForeignKeys
+
+        List<FieldValueForeignKey> eligibleForeignKeys = unfoundForeignKeys
             .stream()
-            .filter(fk -> fk.getFieldName().equals(originalColumn))
+            .filter(fk -> fk.getTableName().equals(referencedTable))
             .collect(Collectors.toList());
 
-        if (matchedForeignKeys.size() != 1) {
-          addMismatch("DB constraint '" + constraintName + "' exists, but " + matchedForeignKeys.size() +
-              " foreign keys exist in Schema pointing at table '" + referencedTable + "' with column name '" +
-              originalColumn + "'. Expected exactly 1.");
+        if (eligibleForeignKeys.size() == 1) {
+          FieldValueForeignKey foreignKey = eligibleForeignKeys.get(0);
+          if (!originalColumn.equalsIgnoreCase(foreignKey.getFieldName())) {
+            addMismatch(foreignKey, "DB constraint found to table '" + referencedTable + "', but column names don't match: '" +
+                originalColumn + "' in DB, '" + foreignKey.getFieldName() + "' in Schema.");
+          } else {
+            unfoundForeignKeys.remove(foreignKey);
+          }
         } else {
-          unfoundForeignKeys.remove(matchedForeignKeys.get(0));
+          List<FieldValueForeignKey> matchedForeignKeys = eligibleForeignKeys
+              .stream()
+              .filter(fk -> fk.getFieldName().equals(originalColumn))
+              .collect(Collectors.toList());
+
+          if (matchedForeignKeys.size() != 1) {
+            addMismatch("DB constraint '" + constraintName + "' exists, but " + matchedForeignKeys.size() +
+                " foreign keys exist in Schema pointing at table '" + referencedTable + "' with column name '" +
+                originalColumn + "'. Expected exactly 1.");
+          } else {
+            unfoundForeignKeys.remove(matchedForeignKeys.get(0));
+          }
         }
       }
     }
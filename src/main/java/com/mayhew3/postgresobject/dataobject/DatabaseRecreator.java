@@ -6,6 +6,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -53,21 +54,23 @@ public class DatabaseRecreator {
   /* DROP METHODS */
 
   private void dropAllForeignKeys(List<String> tableNames) throws SQLException {
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
+    List<String> dropStatements = new ArrayList<>();
+    connection.forEachRow(
         "SELECT * " +
             "FROM information_schema.table_constraints " +
             "WHERE table_schema = ? " +
             "AND constraint_type = ?",
+        resultSet -> {
+          String table_name = resultSet.getString("table_name");
+          if (tableNames.contains(table_name)) {
+            String constraint_name = resultSet.getString("constraint_name");
+            dropStatements.add("ALTER TABLE " + getQualifiedTableName(table_name) + " DROP CONSTRAINT IF EXISTS " + constraint_name);
+          }
+        },
         connection.getSchemaName(), "FOREIGN KEY"
     );
-    while (resultSet.next()) {
-      String table_name = resultSet.getString("table_name");
-      if (tableNames.contains(table_name)) {
-        String constraint_name = resultSet.getString("constraint_name");
-        connection.prepareAndExecuteStatementUpdate(
-            "ALTER TABLE " + getQualifiedTableName(table_name) + " DROP CONSTRAINT IF EXISTS " + constraint_name
-        );
-      }
+    for (String dropStatement : dropStatements) {
+      connection.prepareAndExecuteStatementUpdate(dropStatement);
     }
   }
 
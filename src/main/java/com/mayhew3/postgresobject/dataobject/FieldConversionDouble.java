@@ -0,0 +1,11 @@
+package com.mayhew3.postgresobject.dataobject;
+
+public class FieldConversionDouble extends FieldConversion<Double> {
+  @Override
+  Double parseFromString(String value) {
+    if (value == null) {
+      return null;
+    }
+    return Double.valueOf(value);
+  }
+}
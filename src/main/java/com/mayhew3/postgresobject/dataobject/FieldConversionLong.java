@@ -0,0 +1,11 @@
+package com.mayhew3.postgresobject.dataobject;
+
+public class FieldConversionLong extends FieldConversion<Long> {
+  @Override
+  Long parseFromString(String value) {
+    if (value == null) {
+      return null;
+    }
+    return Long.valueOf(value);
+  }
+}
@@ -4,16 +4,20 @@ import com.mayhew3.postgresobject.db.DatabaseType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Objects;
 
+/**
+ * One column of a DataObject: its name, type and nullability, and change tracking for its value. Where the original
+ * and changed values are kept is up to the subclass. FieldValueBoxed keeps them as objects, and the unboxed types
+ * (FieldValueInt, FieldValueLong, FieldValueDouble, FieldValueBool) as primitives.
+ */
 @SuppressWarnings("unused")
 public abstract class FieldValue<T> {
   private String fieldName;
-  private T originalValue;
-  private T changedValue;
   private FieldConversion<T> converter;
   private Boolean explicitNull = false;
   T defaultValue;
@@ -23,6 +27,14 @@ public abstract class FieldValue<T> {
   private Boolean wasText = false;
   Boolean isText = false;
 
+  // Object this field is registered on, and its position there, so value changes can mark it dirty. Null for fields
+  // that aren't registered on an object.
+  private DataObject owner;
+  private int position;
+
+  // False when the object was loaded by a query that didn't select this column. See DataObjectQuery.select().
+  private boolean loaded = true;
+
   public FieldValue(String fieldName, FieldConversion<T> converter, @NotNull Nullability nullability) {
     this.fieldName = fieldName;
     this.converter = converter;
@@ -44,24 +56,18 @@ public abstract class FieldValue<T> {
     return getDefaultValue(databaseType);
   }
 
-  public T getOriginalValue() {
-    return originalValue;
-  }
+  public abstract T getOriginalValue();
 
-  public T getValue() {
-    return changedValue;
-  }
+  public abstract T getValue();
 
-  protected void initializeValue(@Nullable T value) {
-    this.originalValue = value;
-    this.changedValue = value;
-  }
+  protected abstract void initializeValue(@Nullable T value);
 
   protected void initializeValueFromString(String valueString) {
     T convertedValue = getConversion(valueString);
     initializeValue(convertedValue);
 
     this.wasText = true;
+    refreshDirty();
   }
 
   public abstract String getDDLType(DatabaseType databaseType);
@@ -70,6 +76,14 @@ public abstract class FieldValue<T> {
 
   abstract protected void initializeValue(ResultSet resultSet) throws SQLException;
 
+  /**
+   * Same as initializeValue(ResultSet), reading the column at a known position instead of looking it up by name.
+   * Field types that don't override this fall back to the lookup by name.
+   */
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    initializeValue(resultSet);
+  }
+
   private T getConversion(String valueString) {
     try {
       return converter.parseFromString(valueString);
@@ -102,14 +116,16 @@ public abstract class FieldValue<T> {
   }
 
   public T getChangedValue() {
-    return changedValue;
+    return getValue();
   }
 
-  public void changeValue(@Nullable T newValue) {
-    if (newValue == null) {
-      explicitNull = true;
-    }
-    changedValue = newValue;
+  public abstract void changeValue(@Nullable T newValue);
+
+  /**
+   * Remember that the value was set to null on purpose. Every changeValue() must call this when given null.
+   */
+  void markExplicitNull() {
+    explicitNull = true;
   }
 
   public void changeValueUnlessToNull(@Nullable T newValue) {
@@ -118,41 +134,126 @@ public abstract class FieldValue<T> {
     }
   }
 
-  void nullValue() {
-    changedValue = null;
-  }
+  abstract void nullValue();
 
-  public void discardChange() {
-    changedValue = originalValue;
-  }
+  public abstract void discardChange();
 
   public Boolean isChanged() {
     return shouldUpgradeText() || valueHasChanged();
   }
 
-  private boolean valueHasChanged() {
-    return !Objects.equals(originalValue, changedValue);
-  }
+  abstract boolean valueHasChanged();
+
+  /**
+   * Same as getOriginalValue() != null, without boxing for the unboxed types.
+   */
+  abstract boolean hasOriginalValue();
 
   boolean shouldUpgradeText() {
-    return (originalValue != null && wasText && !isText);
+    return (hasOriginalValue() && wasText && !isText);
+  }
+
+  /**
+   * Make the changed value the original one, once it's committed.
+   */
+  abstract void updateInternal();
+
+  /**
+   * Put back values read earlier with getOriginalValue() and getValue(). Used to undo a commit whose transaction
+   * rolled back, so unlike initializeValue() the two can differ.
+   */
+  abstract void restoreValues(@Nullable T originalValue, @Nullable T value);
+
+  void attach(DataObject owner, int position) {
+    this.owner = owner;
+    this.position = position;
+  }
+
+  int getPosition() {
+    return position;
   }
 
-  void updateInternal() {
-    originalValue = changedValue;
+  /**
+   * @return False if the object was loaded without this column, in which case reading or changing the value throws
+   * until the column is loaded with DataObjectFinder.loadUnloadedFields().
+   */
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  void setLoaded(boolean loaded) {
+    this.loaded = loaded;
+    if (!loaded && owner != null) {
+      owner.markFieldClean(position);
+    }
+  }
+
+  /**
+   * Fail fast on a field whose column wasn't selected, rather than return a null that was never in the database.
+   */
+  void checkLoaded() {
+    if (!loaded) {
+      throw new IllegalStateException("Field '" + fieldName + "' wasn't loaded by the query that read this object. " +
+          "Add it to the query's select(), or load it with DataObjectFinder.loadUnloadedFields().");
+    }
+  }
+
+  /**
+   * Tell the owner this field may now differ from its original value. Every method that changes the current value
+   * must call this, or the owner's hasChanged() and commit() won't see the change.
+   */
+  void markDirty() {
+    if (owner != null) {
+      owner.markFieldDirty(position);
+    }
+  }
+
+  /**
+   * Tell the owner whether this field is changed, after the original and current values were set to match.
+   */
+  void refreshDirty() {
+    if (owner != null) {
+      if (shouldUpgradeText()) {
+        owner.markFieldDirty(position);
+      } else {
+        owner.markFieldClean(position);
+      }
+    }
+  }
+
+  /**
+   * Tell the owner whether this field is changed, after the original and current values were both set.
+   */
+  void refreshDirtyAfterRestore() {
+    if (valueHasChanged()) {
+      markDirty();
+    } else {
+      refreshDirty();
+    }
   }
 
   @Override
   public String toString() {
-    String displayString = "'" + fieldName + "': " + originalValue;
+    if (!loaded) {
+      return "'" + fieldName + "': (not loaded)";
+    }
+    String displayString = "'" + fieldName + "': " + getOriginalValue();
     if (isChanged()) {
-      displayString += " -> " + changedValue;
+      displayString += " -> " + getChangedValue();
     }
     return displayString;
   }
 
   public abstract void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException;
 
+  /**
+   * Write the changed value as one field of a Postgres binary COPY tuple. Used by {@link DataObjectCopyLoader}.
+   * Field types that don't override this can't be bulk loaded.
+   */
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    throw new UnsupportedOperationException("Binary COPY isn't supported for field '" + fieldName + "' of type " + getClass().getSimpleName() + ".");
+  }
+
   Boolean getExplicitNull() {
     return explicitNull;
   }
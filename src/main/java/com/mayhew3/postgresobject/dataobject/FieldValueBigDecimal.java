@@ -3,13 +3,15 @@ package com.mayhew3.postgresobject.dataobject;
 import com.mayhew3.postgresobject.db.DatabaseType;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 
-public class FieldValueBigDecimal extends FieldValue<BigDecimal> {
+public class FieldValueBigDecimal extends FieldValueBoxed<BigDecimal> {
   public FieldValueBigDecimal(String fieldName, FieldConversion<BigDecimal> converter, Nullability nullability) {
     super(fieldName, converter, nullability);
   }
@@ -43,6 +45,11 @@ public class FieldValueBigDecimal extends FieldValue<BigDecimal> {
     initializeValue(resultSet.getBigDecimal(getFieldName()));
   }
 
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    initializeValue(resultSet.getBigDecimal(columnIndex));
+  }
+
   @Override
   public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
     if (getChangedValue() == null) {
@@ -52,6 +59,11 @@ public class FieldValueBigDecimal extends FieldValue<BigDecimal> {
     }
   }
 
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    CopyBinaryFormat.writeNumeric(out, getChangedValue());
+  }
+
   public void changeValue(@Nullable Double newValue) {
     if (newValue == null) {
       changeValue((BigDecimal) null);
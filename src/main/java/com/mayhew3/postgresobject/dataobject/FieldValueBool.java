@@ -0,0 +1,195 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.mayhew3.postgresobject.db.DatabaseType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Boolean field that keeps its values as primitive booleans plus null flags. Like FieldValueBoolean, a NULL read
+ * into a NOT_NULL field becomes false. Use getBoolean() and isNull() to read without going through Boolean.
+ */
+public class FieldValueBool extends FieldValue<Boolean> {
+  private boolean originalBoolean;
+  private boolean changedBoolean;
+  private boolean originalNull = true;
+  private boolean changedNull = true;
+
+  public FieldValueBool(String fieldName, FieldConversion<Boolean> converter, Nullability nullability) {
+    super(fieldName, converter, nullability);
+  }
+
+  public FieldValueBool defaultValue(Boolean defaultValue) {
+    super.defaultValue(defaultValue);
+    return this;
+  }
+
+  @Override
+  public String getDefaultValue(DatabaseType databaseType) {
+    if (databaseType == DatabaseType.POSTGRES) {
+      return super.getDefaultValue(databaseType);
+    } else if (databaseType == DatabaseType.MYSQL) {
+      return defaultValue ? "1" : "0";
+    } else {
+      throw new IllegalStateException("Only PostgreSQL and MySQL supported.");
+    }
+  }
+
+  @Override
+  public String getDDLType(DatabaseType databaseType) {
+    return getDataType(databaseType);
+  }
+
+  @Override
+  public String getInformationSchemaType(DatabaseType databaseType) {
+    return getDataType(databaseType);
+  }
+
+  @NotNull
+  private String getDataType(DatabaseType databaseType) {
+    if (databaseType == DatabaseType.POSTGRES) {
+      return "BOOLEAN";
+    } else if (databaseType == DatabaseType.MYSQL) {
+      return "tinyint";
+    } else {
+      throw new IllegalStateException("Only PostgreSQL and MySQL supported.");
+    }
+  }
+
+  /**
+   * Current value, or false if it is null. See isNull().
+   */
+  public boolean getBoolean() {
+    checkLoaded();
+    return changedBoolean;
+  }
+
+  public boolean isNull() {
+    checkLoaded();
+    return changedNull;
+  }
+
+  @Override
+  public Boolean getOriginalValue() {
+    checkLoaded();
+    return originalNull ? null : originalBoolean;
+  }
+
+  @Override
+  public Boolean getValue() {
+    checkLoaded();
+    return changedNull ? null : changedBoolean;
+  }
+
+  @Override
+  public void initializeValue(@Nullable Boolean value) {
+    if (value == null) {
+      initializeBoolean(false, true);
+    } else {
+      initializeBoolean(value, false);
+    }
+  }
+
+  @Override
+  protected void initializeValue(ResultSet resultSet) throws SQLException {
+    boolean value = resultSet.getBoolean(getFieldName());
+    initializeBoolean(value, resultSet.wasNull());
+  }
+
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    boolean value = resultSet.getBoolean(columnIndex);
+    initializeBoolean(value, resultSet.wasNull());
+  }
+
+  private void initializeBoolean(boolean value, boolean isNull) {
+    boolean storeNull = isNull && nullability.getAllowNulls();
+    originalBoolean = !isNull && value;
+    changedBoolean = originalBoolean;
+    originalNull = storeNull;
+    changedNull = storeNull;
+    refreshDirty();
+  }
+
+  @Override
+  public void changeValue(@Nullable Boolean newValue) {
+    if (newValue == null) {
+      checkLoaded();
+      markExplicitNull();
+      nullValue();
+    } else {
+      changeValue(newValue.booleanValue());
+    }
+  }
+
+  public void changeValue(boolean newValue) {
+    checkLoaded();
+    changedBoolean = newValue;
+    changedNull = false;
+    markDirty();
+  }
+
+  @Override
+  void nullValue() {
+    changedBoolean = false;
+    changedNull = true;
+    markDirty();
+  }
+
+  @Override
+  public void discardChange() {
+    changedBoolean = originalBoolean;
+    changedNull = originalNull;
+    refreshDirty();
+  }
+
+  @Override
+  void updateInternal() {
+    originalBoolean = changedBoolean;
+    originalNull = changedNull;
+    refreshDirty();
+  }
+
+  @Override
+  void restoreValues(@Nullable Boolean originalValue, @Nullable Boolean value) {
+    originalNull = originalValue == null;
+    originalBoolean = originalNull ? false : originalValue;
+    changedNull = value == null;
+    changedBoolean = changedNull ? false : value;
+    refreshDirtyAfterRestore();
+  }
+
+  @Override
+  boolean hasOriginalValue() {
+    return !originalNull;
+  }
+
+  @Override
+  boolean valueHasChanged() {
+    return originalNull != changedNull || originalBoolean != changedBoolean;
+  }
+
+  @Override
+  public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
+    if (changedNull) {
+      preparedStatement.setNull(currentIndex, Types.BOOLEAN);
+    } else {
+      preparedStatement.setBoolean(currentIndex, changedBoolean);
+    }
+  }
+
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    if (changedNull) {
+      CopyBinaryFormat.writeNull(out);
+    } else {
+      CopyBinaryFormat.writeBoolean(out, changedBoolean);
+    }
+  }
+}
@@ -4,12 +4,14 @@ import com.mayhew3.postgresobject.db.DatabaseType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 
-public class FieldValueBoolean extends FieldValue<Boolean> {
+public class FieldValueBoolean extends FieldValueBoxed<Boolean> {
 
   public FieldValueBoolean(String fieldName, FieldConversion<Boolean> converter, Nullability nullability) {
     super(fieldName, converter, nullability);
@@ -70,6 +72,15 @@ public class FieldValueBoolean extends FieldValue<Boolean> {
     initializeValue(maybeValue);
   }
 
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    Boolean maybeValue = resultSet.getBoolean(columnIndex);
+    if (resultSet.wasNull()) {
+      maybeValue = null;
+    }
+    initializeValue(maybeValue);
+  }
+
   @Override
   public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
     if (getChangedValue() == null) {
@@ -78,4 +89,9 @@ public class FieldValueBoolean extends FieldValue<Boolean> {
       preparedStatement.setBoolean(currentIndex, getChangedValue());
     }
   }
+
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    CopyBinaryFormat.writeBoolean(out, getChangedValue());
+  }
 }
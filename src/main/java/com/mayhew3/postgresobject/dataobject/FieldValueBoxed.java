@@ -0,0 +1,83 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * Field that keeps its original and changed values as objects. Base of every field type except the unboxed ones.
+ */
+public abstract class FieldValueBoxed<T> extends FieldValue<T> {
+  private T originalValue;
+  private T changedValue;
+
+  public FieldValueBoxed(String fieldName, FieldConversion<T> converter, @NotNull Nullability nullability) {
+    super(fieldName, converter, nullability);
+  }
+
+  @Override
+  public T getOriginalValue() {
+    checkLoaded();
+    return originalValue;
+  }
+
+  @Override
+  public T getValue() {
+    checkLoaded();
+    return changedValue;
+  }
+
+  @Override
+  protected void initializeValue(@Nullable T value) {
+    this.originalValue = value;
+    this.changedValue = value;
+    refreshDirty();
+  }
+
+  @Override
+  public void changeValue(@Nullable T newValue) {
+    checkLoaded();
+    if (newValue == null) {
+      markExplicitNull();
+    }
+    changedValue = newValue;
+    markDirty();
+  }
+
+  @Override
+  void nullValue() {
+    checkLoaded();
+    changedValue = null;
+    markDirty();
+  }
+
+  @Override
+  public void discardChange() {
+    changedValue = originalValue;
+    refreshDirty();
+  }
+
+  @Override
+  boolean valueHasChanged() {
+    return !Objects.equals(originalValue, changedValue);
+  }
+
+  @Override
+  boolean hasOriginalValue() {
+    return originalValue != null;
+  }
+
+  @Override
+  void updateInternal() {
+    originalValue = changedValue;
+    refreshDirty();
+  }
+
+  @Override
+  void restoreValues(@Nullable T originalValue, @Nullable T value) {
+    this.originalValue = originalValue;
+    this.changedValue = value;
+    refreshDirtyAfterRestore();
+  }
+}
@@ -2,13 +2,15 @@ package com.mayhew3.postgresobject.dataobject;
 
 import com.mayhew3.postgresobject.db.DatabaseType;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.Date;
 
-public class FieldValueDate extends FieldValue<Date> {
+public class FieldValueDate extends FieldValueBoxed<Date> {
   public FieldValueDate(String fieldName, FieldConversion<Date> converter, Nullability nullability) {
     super(fieldName, converter, nullability);
   }
@@ -34,6 +36,11 @@ public class FieldValueDate extends FieldValue<Date> {
     initializeValue(resultSet.getDate(getFieldName()));
   }
 
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    initializeValue(resultSet.getDate(columnIndex));
+  }
+
   @Override
   public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
     if (getChangedValue() == null) {
@@ -44,6 +51,11 @@ public class FieldValueDate extends FieldValue<Date> {
     }
   }
 
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    CopyBinaryFormat.writeDate(out, getChangedValue());
+  }
+
   public void changeValueFromXMLString(String xmlString) {
     if (xmlString != null) {
       long numberOfSeconds = Long.decode(xmlString);
@@ -0,0 +1,179 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.mayhew3.postgresobject.db.DatabaseType;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * DOUBLE PRECISION field that keeps its values as primitive doubles plus null flags, so hydrating, change tracking
+ * and binding never box. getValue() and friends box on every call; use getDouble() and isNull() to read without it.
+ */
+public class FieldValueDouble extends FieldValue<Double> {
+  private double originalDouble;
+  private double changedDouble;
+  private boolean originalNull = true;
+  private boolean changedNull = true;
+
+  public FieldValueDouble(String fieldName, FieldConversion<Double> converter, Nullability nullability) {
+    super(fieldName, converter, nullability);
+  }
+
+  public FieldValueDouble defaultValue(Double defaultValue) {
+    super.defaultValue(defaultValue);
+    return this;
+  }
+
+  @Override
+  public String getDDLType(DatabaseType databaseType) {
+    if (databaseType == DatabaseType.POSTGRES) {
+      return "DOUBLE PRECISION";
+    } else {
+      return "double";
+    }
+  }
+
+  @Override
+  public String getInformationSchemaType(DatabaseType databaseType) {
+    if (databaseType == DatabaseType.POSTGRES) {
+      return "double precision";
+    } else {
+      return "double";
+    }
+  }
+
+  /**
+   * Current value, or 0 if it is null. See isNull().
+   */
+  public double getDouble() {
+    checkLoaded();
+    return changedDouble;
+  }
+
+  public boolean isNull() {
+    checkLoaded();
+    return changedNull;
+  }
+
+  @Override
+  public Double getOriginalValue() {
+    checkLoaded();
+    return originalNull ? null : originalDouble;
+  }
+
+  @Override
+  public Double getValue() {
+    checkLoaded();
+    return changedNull ? null : changedDouble;
+  }
+
+  @Override
+  protected void initializeValue(@Nullable Double value) {
+    if (value == null) {
+      initializeDouble(0d, true);
+    } else {
+      initializeDouble(value, false);
+    }
+  }
+
+  @Override
+  protected void initializeValue(ResultSet resultSet) throws SQLException {
+    double value = resultSet.getDouble(getFieldName());
+    initializeDouble(value, resultSet.wasNull());
+  }
+
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    double value = resultSet.getDouble(columnIndex);
+    initializeDouble(value, resultSet.wasNull());
+  }
+
+  private void initializeDouble(double value, boolean isNull) {
+    originalDouble = isNull ? 0d : value;
+    changedDouble = originalDouble;
+    originalNull = isNull;
+    changedNull = isNull;
+    refreshDirty();
+  }
+
+  @Override
+  public void changeValue(@Nullable Double newValue) {
+    if (newValue == null) {
+      checkLoaded();
+      markExplicitNull();
+      nullValue();
+    } else {
+      changeValue(newValue.doubleValue());
+    }
+  }
+
+  public void changeValue(double newValue) {
+    checkLoaded();
+    changedDouble = newValue;
+    changedNull = false;
+    markDirty();
+  }
+
+  @Override
+  void nullValue() {
+    changedDouble = 0d;
+    changedNull = true;
+    markDirty();
+  }
+
+  @Override
+  public void discardChange() {
+    changedDouble = originalDouble;
+    changedNull = originalNull;
+    refreshDirty();
+  }
+
+  @Override
+  void updateInternal() {
+    originalDouble = changedDouble;
+    originalNull = changedNull;
+    refreshDirty();
+  }
+
+  @Override
+  void restoreValues(@Nullable Double originalValue, @Nullable Double value) {
+    originalNull = originalValue == null;
+    originalDouble = originalNull ? 0.0 : originalValue;
+    changedNull = value == null;
+    changedDouble = changedNull ? 0.0 : value;
+    refreshDirtyAfterRestore();
+  }
+
+  @Override
+  boolean hasOriginalValue() {
+    return !originalNull;
+  }
+
+  @Override
+  boolean valueHasChanged() {
+    return originalNull != changedNull || Double.compare(originalDouble, changedDouble) != 0;
+  }
+
+  @Override
+  public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
+    if (changedNull) {
+      preparedStatement.setNull(currentIndex, Types.DOUBLE);
+    } else {
+      preparedStatement.setDouble(currentIndex, changedDouble);
+    }
+  }
+
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    if (changedNull) {
+      CopyBinaryFormat.writeNull(out);
+    } else {
+      CopyBinaryFormat.writeDouble(out, changedDouble);
+    }
+  }
+}
@@ -1,14 +1,90 @@
 package com.mayhew3.postgresobject.dataobject;
 
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.Nullable;
+
 public class FieldValueForeignKey extends FieldValueInteger {
   private String tableName;
 
+  // New parent this key points at, until the parent is inserted and its id is copied in. See references().
+  private DataObject pendingParent;
+
   public FieldValueForeignKey(String fieldName, FieldConversion<Integer> converter, Nullability nullability, DataObject dataObject) {
+    this(fieldName, converter, nullability, dataObject.getTableName());
+  }
+
+  public FieldValueForeignKey(String fieldName, FieldConversion<Integer> converter, Nullability nullability, String tableName) {
     super(fieldName, converter, nullability);
-    this.tableName = dataObject.getTableName();
+    this.tableName = tableName;
   }
 
   public String getTableName() {
     return tableName;
   }
+
+  /**
+   * Point this key at a parent object. If the parent already has an id, that's the new value. If it's a new object
+   * with no id yet, the id is copied in when this key's object is committed, which has to be after the parent is
+   * inserted. DataObject.commitGraph() takes care of the order.
+   *
+   * @throws IllegalArgumentException if the parent isn't a row of the table this key points at.
+   */
+  public void references(DataObject parent) {
+    Preconditions.checkArgument(parent.getTableName().equals(tableName), "Foreign key '" + getFieldName() +
+        "' points at table " + tableName + ", not " + parent.getTableName() + ".");
+    Integer parentId = parent.id.getValue();
+    if (parentId == null) {
+      checkLoaded();
+      pendingParent = parent;
+    } else {
+      changeValue(parentId);
+    }
+  }
+
+  /**
+   * @return Parent given to references() that had no id at the time, or null if there isn't one.
+   */
+  @Nullable
+  DataObject getPendingParent() {
+    return pendingParent;
+  }
+
+  /**
+   * Copy in the id of the parent given to references(), if it's been inserted since.
+   *
+   * @throws IllegalStateException if the parent still has no id.
+   */
+  void resolvePendingParent() {
+    if (pendingParent != null) {
+      Integer parentId = pendingParent.id.getValue();
+      Preconditions.checkState(parentId != null, "Foreign key '" + getFieldName() + "' points at a new object of table " +
+          tableName + " that hasn't been inserted yet. Commit it first, or commit both with commitGraph().");
+      changeValue(parentId);
+    }
+  }
+
+  /**
+   * Put back a pending parent that committing resolved, when the commit's transaction rolls back.
+   */
+  void restorePendingParent(@Nullable DataObject parent) {
+    pendingParent = parent;
+  }
+
+  @Override
+  public void changeValue(@Nullable Integer newValue) {
+    super.changeValue(newValue);
+    pendingParent = null;
+  }
+
+  @Override
+  void nullValue() {
+    super.nullValue();
+    pendingParent = null;
+  }
+
+  @Override
+  public void discardChange() {
+    super.discardChange();
+    pendingParent = null;
+  }
 }
@@ -0,0 +1,209 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.mayhew3.postgresobject.db.DatabaseType;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Integer field that keeps its values as primitive ints plus null flags, so hydrating, change tracking and binding
+ * never box. It has the same methods as FieldValueInteger, but getValue() and friends box on every call; use getInt()
+ * and isNull() to read without it.
+ */
+public class FieldValueInt extends FieldValue<Integer> {
+  private final IntegerSize size;
+  private int originalInt;
+  private int changedInt;
+  private boolean originalNull = true;
+  private boolean changedNull = true;
+
+  public FieldValueInt(String fieldName, FieldConversion<Integer> converter, Nullability nullability) {
+    this(fieldName, converter, nullability, IntegerSize.INTEGER);
+  }
+
+  public FieldValueInt(String fieldName, FieldConversion<Integer> converter, Nullability nullability, IntegerSize size) {
+    super(fieldName, converter, nullability);
+    if (size == IntegerSize.BIGINT) {
+      throw new IllegalArgumentException("Field '" + fieldName + "' can't hold a BIGINT in an int. Use FieldValueLong.");
+    }
+    this.size = size;
+  }
+
+  IntegerSize getSize() {
+    return size;
+  }
+
+  @Override
+  public String getDDLType(DatabaseType databaseType) {
+    return size.getDdlIdentifier(databaseType);
+  }
+
+  @Override
+  public String getInformationSchemaType(DatabaseType databaseType) {
+    return size.getDdlIdentifier(databaseType);
+  }
+
+  @Override
+  public FieldValueInt defaultValue(Integer defaultValue) {
+    super.defaultValue(defaultValue);
+    return this;
+  }
+
+  /**
+   * Current value, or 0 if it is null. See isNull().
+   */
+  public int getInt() {
+    checkLoaded();
+    return changedInt;
+  }
+
+  public boolean isNull() {
+    checkLoaded();
+    return changedNull;
+  }
+
+  @Override
+  public Integer getOriginalValue() {
+    checkLoaded();
+    return originalNull ? null : originalInt;
+  }
+
+  @Override
+  public Integer getValue() {
+    checkLoaded();
+    return changedNull ? null : changedInt;
+  }
+
+  @Override
+  protected void initializeValue(@Nullable Integer value) {
+    if (value == null) {
+      initializeInt(0, true);
+    } else {
+      initializeInt(value, false);
+    }
+  }
+
+  @Override
+  protected void initializeValue(ResultSet resultSet) throws SQLException {
+    int value = resultSet.getInt(getFieldName());
+    initializeInt(value, resultSet.wasNull());
+  }
+
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    int value = resultSet.getInt(columnIndex);
+    initializeInt(value, resultSet.wasNull());
+  }
+
+  void initializeInt(int value, boolean isNull) {
+    originalInt = isNull ? 0 : value;
+    changedInt = originalInt;
+    originalNull = isNull;
+    changedNull = isNull;
+    refreshDirty();
+  }
+
+  @Override
+  public void changeValue(@Nullable Integer newValue) {
+    if (newValue == null) {
+      checkLoaded();
+      markExplicitNull();
+      nullValue();
+    } else {
+      changeValue(newValue.intValue());
+    }
+  }
+
+  public void changeValue(int newValue) {
+    checkLoaded();
+    changedInt = newValue;
+    changedNull = false;
+    markDirty();
+  }
+
+  /**
+   * Same as FieldValueInteger.changeValue(Long), for migrating values that were long.
+   */
+  public void changeValue(@Nullable Long newValue) {
+    checkLoaded();
+    if (newValue == null) {
+      nullValue();
+    } else {
+      if (newValue > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Cannot convert long that is larger than Integer.MAX_VALUE");
+      }
+      changeValue(newValue.intValue());
+    }
+  }
+
+  @Override
+  void nullValue() {
+    changedInt = 0;
+    changedNull = true;
+    markDirty();
+  }
+
+  @Override
+  public void discardChange() {
+    changedInt = originalInt;
+    changedNull = originalNull;
+    refreshDirty();
+  }
+
+  @Override
+  void updateInternal() {
+    originalInt = changedInt;
+    originalNull = changedNull;
+    refreshDirty();
+  }
+
+  @Override
+  void restoreValues(@Nullable Integer originalValue, @Nullable Integer value) {
+    originalNull = originalValue == null;
+    originalInt = originalNull ? 0 : originalValue;
+    changedNull = value == null;
+    changedInt = changedNull ? 0 : value;
+    refreshDirtyAfterRestore();
+  }
+
+  @Override
+  boolean hasOriginalValue() {
+    return !originalNull;
+  }
+
+  @Override
+  boolean valueHasChanged() {
+    return originalNull != changedNull || originalInt != changedInt;
+  }
+
+  @Override
+  public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
+    if (changedNull) {
+      preparedStatement.setNull(currentIndex, Types.INTEGER);
+    } else {
+      preparedStatement.setInt(currentIndex, changedInt);
+    }
+  }
+
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    if (changedNull) {
+      CopyBinaryFormat.writeNull(out);
+    } else {
+      CopyBinaryFormat.writeIntegral(out, changedInt, getSize());
+    }
+  }
+
+  /**
+   * Add to the current value, treating null as 0.
+   */
+  public void increment(int numberToAdd) {
+    checkLoaded();
+    changeValue(changedInt + numberToAdd);
+  }
+}
@@ -3,12 +3,14 @@ package com.mayhew3.postgresobject.dataobject;
 import com.mayhew3.postgresobject.db.DatabaseType;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 
-public class FieldValueInteger extends FieldValue<Integer> {
+public class FieldValueInteger extends FieldValueBoxed<Integer> {
 
   private IntegerSize size = IntegerSize.INTEGER;
 
@@ -49,11 +51,21 @@ public class FieldValueInteger extends FieldValue<Integer> {
     initializeValue(resultSetInt);
   }
 
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    Integer resultSetInt = resultSet.getInt(columnIndex);
+    if (resultSet.wasNull()) {
+      resultSetInt = null;
+    }
+    initializeValue(resultSetInt);
+  }
+
   /**
    * Used for migrating values from Mongo that were long.
    * @param newValue long value to convert
    */
   public void changeValue(@Nullable Long newValue) {
+    checkLoaded();
     if (newValue == null) {
       nullValue();
     } else {
@@ -73,6 +85,11 @@ public class FieldValueInteger extends FieldValue<Integer> {
     }
   }
 
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    CopyBinaryFormat.writeInteger(out, getChangedValue(), size);
+  }
+
   public void increment(Integer numberToAdd) {
     Integer value = getValue();
     if (value == null) {
@@ -0,0 +1,175 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.mayhew3.postgresobject.db.DatabaseType;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * BIGINT field that keeps its values as primitive longs plus null flags, so hydrating, change tracking and binding
+ * never box. getValue() and friends box on every call; use getLong() and isNull() to read without it.
+ */
+public class FieldValueLong extends FieldValue<Long> {
+  private long originalLong;
+  private long changedLong;
+  private boolean originalNull = true;
+  private boolean changedNull = true;
+
+  public FieldValueLong(String fieldName, FieldConversion<Long> converter, Nullability nullability) {
+    super(fieldName, converter, nullability);
+  }
+
+  public FieldValueLong defaultValue(Long defaultValue) {
+    super.defaultValue(defaultValue);
+    return this;
+  }
+
+  @Override
+  public String getDDLType(DatabaseType databaseType) {
+    return IntegerSize.BIGINT.getDdlIdentifier(databaseType);
+  }
+
+  @Override
+  public String getInformationSchemaType(DatabaseType databaseType) {
+    return IntegerSize.BIGINT.getDdlIdentifier(databaseType);
+  }
+
+  /**
+   * Current value, or 0 if it is null. See isNull().
+   */
+  public long getLong() {
+    checkLoaded();
+    return changedLong;
+  }
+
+  public boolean isNull() {
+    checkLoaded();
+    return changedNull;
+  }
+
+  @Override
+  public Long getOriginalValue() {
+    checkLoaded();
+    return originalNull ? null : originalLong;
+  }
+
+  @Override
+  public Long getValue() {
+    checkLoaded();
+    return changedNull ? null : changedLong;
+  }
+
+  @Override
+  protected void initializeValue(@Nullable Long value) {
+    if (value == null) {
+      initializeLong(0L, true);
+    } else {
+      initializeLong(value, false);
+    }
+  }
+
+  @Override
+  protected void initializeValue(ResultSet resultSet) throws SQLException {
+    long value = resultSet.getLong(getFieldName());
+    initializeLong(value, resultSet.wasNull());
+  }
+
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    long value = resultSet.getLong(columnIndex);
+    initializeLong(value, resultSet.wasNull());
+  }
+
+  private void initializeLong(long value, boolean isNull) {
+    originalLong = isNull ? 0L : value;
+    changedLong = originalLong;
+    originalNull = isNull;
+    changedNull = isNull;
+    refreshDirty();
+  }
+
+  @Override
+  public void changeValue(@Nullable Long newValue) {
+    if (newValue == null) {
+      checkLoaded();
+      markExplicitNull();
+      nullValue();
+    } else {
+      changeValue(newValue.longValue());
+    }
+  }
+
+  public void changeValue(long newValue) {
+    checkLoaded();
+    changedLong = newValue;
+    changedNull = false;
+    markDirty();
+  }
+
+  @Override
+  void nullValue() {
+    changedLong = 0L;
+    changedNull = true;
+    markDirty();
+  }
+
+  @Override
+  public void discardChange() {
+    changedLong = originalLong;
+    changedNull = originalNull;
+    refreshDirty();
+  }
+
+  @Override
+  void updateInternal() {
+    originalLong = changedLong;
+    originalNull = changedNull;
+    refreshDirty();
+  }
+
+  @Override
+  void restoreValues(@Nullable Long originalValue, @Nullable Long value) {
+    originalNull = originalValue == null;
+    originalLong = originalNull ? 0L : originalValue;
+    changedNull = value == null;
+    changedLong = changedNull ? 0L : value;
+    refreshDirtyAfterRestore();
+  }
+
+  @Override
+  boolean hasOriginalValue() {
+    return !originalNull;
+  }
+
+  @Override
+  boolean valueHasChanged() {
+    return originalNull != changedNull || originalLong != changedLong;
+  }
+
+  @Override
+  public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
+    if (changedNull) {
+      preparedStatement.setNull(currentIndex, Types.BIGINT);
+    } else {
+      preparedStatement.setLong(currentIndex, changedLong);
+    }
+  }
+
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    if (changedNull) {
+      CopyBinaryFormat.writeNull(out);
+    } else {
+      CopyBinaryFormat.writeIntegral(out, changedLong, IntegerSize.BIGINT);
+    }
+  }
+
+  public void increment(long numberToAdd) {
+    changeValue(changedLong + numberToAdd);
+  }
+}
@@ -11,6 +11,10 @@ public class FieldValueSerial extends FieldValueInteger {
     this.sequenceName = sequenceName;
   }
 
+  String getSequenceName() {
+    return sequenceName;
+  }
+
   @Override
   public String getInformationSchemaDefault(DatabaseType databaseType) {
     if (databaseType == DatabaseType.POSTGRES) {
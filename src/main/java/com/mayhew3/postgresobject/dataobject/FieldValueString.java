@@ -3,12 +3,14 @@ package com.mayhew3.postgresobject.dataobject;
 import com.mayhew3.postgresobject.db.DatabaseType;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 
-public class FieldValueString extends FieldValue<String> {
+public class FieldValueString extends FieldValueBoxed<String> {
   public FieldValueString(String fieldName, FieldConversion<String> converter, Nullability nullability) {
     super(fieldName, converter, nullability);
   }
@@ -66,6 +68,11 @@ public class FieldValueString extends FieldValue<String> {
     initializeValue(resultSet.getString(getFieldName()));
   }
 
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    initializeValue(resultSet.getString(columnIndex));
+  }
+
   @Override
   public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
     if (getChangedValue() == null) {
@@ -74,4 +81,9 @@ public class FieldValueString extends FieldValue<String> {
       preparedStatement.setString(currentIndex, getChangedValue());
     }
   }
+
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    CopyBinaryFormat.writeText(out, getChangedValue());
+  }
 }
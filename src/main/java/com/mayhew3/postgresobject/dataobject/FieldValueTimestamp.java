@@ -3,11 +3,13 @@ package com.mayhew3.postgresobject.dataobject;
 import com.mayhew3.postgresobject.db.DatabaseType;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.*;
 import java.time.OffsetDateTime;
 import java.util.Date;
 
-public class FieldValueTimestamp extends FieldValue<Timestamp> {
+public class FieldValueTimestamp extends FieldValueBoxed<Timestamp> {
   private Boolean defaultNow = false;
   private OffsetDateTime originalDateTime;
   private OffsetDateTime offsetDateTime;
@@ -65,6 +67,11 @@ public class FieldValueTimestamp extends FieldValue<Timestamp> {
 //    offsetDateTime = originalDateTime;
   }
 
+  @Override
+  protected void initializeValue(ResultSet resultSet, int columnIndex) throws SQLException {
+    initializeValue(resultSet.getTimestamp(columnIndex));
+  }
+
   @Override
   public void updatePreparedStatement(PreparedStatement preparedStatement, int currentIndex) throws SQLException {
     if (getChangedValue() == null) {
@@ -74,6 +81,11 @@ public class FieldValueTimestamp extends FieldValue<Timestamp> {
     }
   }
 
+  @Override
+  protected void writeCopyBinary(DataOutputStream out) throws IOException {
+    CopyBinaryFormat.writeTimestamp(out, getChangedValue());
+  }
+
   public void changeValue(@Nullable Date date) {
     if (date == null) {
       changeValue(null);
@@ -0,0 +1,102 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Resolves one foreign key across a collection of objects to the parent objects it points at, loading parents in
+ * batches rather than one SELECT per child. The first getParent() call loads the parent of every child in the
+ * collection with a single findByIds() query, so rendering a list of N children with their parents takes two
+ * queries instead of N + 1. Create with DataObjectFinder.parentsOf().
+ *
+ * Parents are loaded once and kept, so getParent() doesn't see later changes to parent rows. If a child's foreign key
+ * is changed to an id that hasn't been loaded, the next getParent() loads every such id in another batch.
+ */
+@SuppressWarnings("unused")
+public class ForeignKeyLoader<C extends DataObject, P extends DataObject> {
+
+  private final DataObjectFinder<P> parentFinder;
+  private final List<C> children;
+  private final Function<? super C, FieldValueForeignKey> foreignKey;
+
+  // Parents by id. Ids that were looked up and have no row map to null.
+  private final Map<Integer, P> parentsById = new HashMap<>();
+
+  ForeignKeyLoader(DataObjectFinder<P> parentFinder, Collection<? extends C> children, Function<? super C, FieldValueForeignKey> foreignKey) {
+    this.parentFinder = parentFinder;
+    this.children = new ArrayList<>(children);
+    this.foreignKey = foreignKey;
+  }
+
+  /**
+   * @return Parent the child's foreign key points at, or null if the key is null or points at no row.
+   * @throws SQLException
+   */
+  @Nullable
+  public P getParent(C child) throws SQLException {
+    Integer parentId = getParentId(child);
+    if (parentId == null) {
+      return null;
+    }
+    if (!parentsById.containsKey(parentId)) {
+      loadMissingParents(parentId);
+    }
+    return parentsById.get(parentId);
+  }
+
+  /**
+   * Load every child's parent now, and return them by id. Ids with no row are left out.
+   *
+   * @throws SQLException
+   */
+  public Map<Integer, P> getParents() throws SQLException {
+    loadMissingParents(null);
+    Map<Integer, P> found = new HashMap<>();
+    parentsById.forEach((id, parent) -> {
+      if (parent != null) {
+        found.put(id, parent);
+      }
+    });
+    return found;
+  }
+
+  /**
+   * One query for the parent ids of every child (plus the requested id, for a child outside the collection) that
+   * haven't been looked up yet.
+   */
+  private void loadMissingParents(@Nullable Integer requestedId) throws SQLException {
+    Set<Integer> missingIds = new LinkedHashSet<>();
+    if (requestedId != null) {
+      missingIds.add(requestedId);
+    }
+    for (C child : children) {
+      Integer parentId = getParentId(child);
+      if (parentId != null && !parentsById.containsKey(parentId)) {
+        missingIds.add(parentId);
+      }
+    }
+    if (missingIds.isEmpty()) {
+      return;
+    }
+
+    for (Integer id : missingIds) {
+      parentsById.put(id, null);
+    }
+    for (P parent : parentFinder.findByIds(missingIds)) {
+      parentsById.put(parent.id.getValue(), parent);
+    }
+  }
+
+  @Nullable
+  private Integer getParentId(C child) {
+    FieldValueForeignKey fieldValue = foreignKey.apply(child);
+    Preconditions.checkArgument(fieldValue.getTableName().equals(parentFinder.getTableName()),
+        "Foreign key '" + fieldValue.getFieldName() + "' points at table " + fieldValue.getTableName() +
+            ", but parents are loaded from table " + parentFinder.getTableName() + ".");
+    return fieldValue.getValue();
+  }
+}
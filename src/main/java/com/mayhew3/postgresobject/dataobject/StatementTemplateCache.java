@@ -0,0 +1,84 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.mayhew3.postgresobject.db.DatabaseType;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * INSERT and UPDATE SQL for each TableDescriptor, so repeated commits of the same shape reuse one SQL string
+ * instead of rebuilding it. A template is keyed by database type, table name, statement type and which fields the
+ * statement sets, stored as a bitmask over the positions of the descriptor's fields. Parameters always bind in field
+ * registration order, so the mask fixes the parameter order too.
+ *
+ * Only objects whose fields match their descriptor can use the cache, since the mask only means the same columns
+ * for those. Objects with fields of their own, and classes with more fields than fit in the mask, build their SQL
+ * every time.
+ */
+final class StatementTemplateCache {
+
+  enum StatementType {INSERT, INSERT_WITH_ID, UPDATE}
+
+  static final int MAX_CACHEABLE_FIELDS = Long.SIZE;
+
+  private static final Map<TableDescriptor, Map<TemplateKey, String>> templatesByDescriptor = new ConcurrentHashMap<>();
+
+  private StatementTemplateCache() {
+  }
+
+  /**
+   * @param fieldMask Bit n set if the n-th registered field is in the statement.
+   * @param sqlBuilder Builds the SQL on a cache miss.
+   */
+  static String getSql(TableDescriptor descriptor,
+                       StatementType statementType,
+                       DatabaseType databaseType,
+                       String tableName,
+                       long fieldMask,
+                       Supplier<String> sqlBuilder) {
+    Map<TemplateKey, String> templates = templatesByDescriptor.computeIfAbsent(descriptor, key -> new ConcurrentHashMap<>());
+    TemplateKey templateKey = new TemplateKey(statementType, databaseType, tableName, fieldMask);
+
+    String sql = templates.get(templateKey);
+    if (sql == null) {
+      sql = sqlBuilder.get();
+      String existing = templates.putIfAbsent(templateKey, sql);
+      if (existing != null) {
+        sql = existing;
+      }
+    }
+    return sql;
+  }
+
+  private static class TemplateKey {
+    private final StatementType statementType;
+    private final DatabaseType databaseType;
+    private final String tableName;
+    private final long fieldMask;
+
+    private TemplateKey(StatementType statementType, DatabaseType databaseType, String tableName, long fieldMask) {
+      this.statementType = statementType;
+      this.databaseType = databaseType;
+      this.tableName = tableName;
+      this.fieldMask = fieldMask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      TemplateKey that = (TemplateKey) o;
+      return fieldMask == that.fieldMask &&
+          statementType == that.statementType &&
+          databaseType == that.databaseType &&
+          tableName.equals(that.tableName);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(statementType, databaseType, tableName, fieldMask);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table-level metadata for a DataObject class: table name, id sequence, unique constraints and indices. It is built
+ * once per class from the first instance to be initialized (for insert or from a row), and shared by every instance
+ * constructed after that which declares the same things, so loading a million rows doesn't build a million copies
+ * of it. Instances constructed before then keep their own metadata.
+ *
+ * Foreign keys registered by class need the parent's table name before any parent may have been made. For those,
+ * a parent with a public no-arg constructor is constructed once, the same as registerForeignKey(DataObject) would.
+ * Classes without one get no descriptor that way.
+ */
+final class TableDescriptor {
+
+  private static final Map<Class<? extends DataObject>, TableDescriptor> descriptors = new ConcurrentHashMap<>();
+
+  // Classes whose prototype is being constructed on this thread. Their registrations have nothing to share yet.
+  private static final ThreadLocal<Set<Class<?>>> classesInProgress = ThreadLocal.withInitial(HashSet::new);
+
+  private static final Logger logger = LogManager.getLogger(TableDescriptor.class);
+
+  private final String tableName;
+  private final String idSequenceName;
+  private final List<String> fieldNames;
+  private final Map<String, Integer> fieldPositions;
+  private final List<UniqueConstraint> uniqueConstraints;
+  private final List<ColumnsIndex> indices;
+
+  private TableDescriptor(DataObject prototype) {
+    this.tableName = prototype.getTableName();
+    this.idSequenceName = prototype.id.getSequenceName();
+
+    ImmutableList.Builder<String> fieldNames = ImmutableList.builder();
+    ImmutableMap.Builder<String, Integer> fieldPositions = ImmutableMap.builder();
+    List<FieldValue> fieldValues = prototype.getAllFieldValues();
+    for (int i = 0; i < fieldValues.size(); i++) {
+      String fieldName = fieldValues.get(i).getFieldName();
+      fieldNames.add(fieldName);
+      fieldPositions.put(fieldName, i);
+    }
+    this.fieldNames = fieldNames.build();
+    this.fieldPositions = fieldPositions.build();
+    this.uniqueConstraints = ImmutableList.copyOf(prototype.getUniqueIndices());
+    this.indices = ImmutableList.copyOf(prototype.getIndices());
+  }
+
+  /**
+   * Descriptor to share with a DataObject under construction, or null if it must keep its own metadata. Called from
+   * DataObject's field initializers, so only getTableName() can be relied on. Never constructs anything.
+   */
+  @Nullable
+  static TableDescriptor forInstance(DataObject dataObject) {
+    TableDescriptor descriptor = descriptors.get(dataObject.getClass());
+    if (descriptor == null || !descriptor.tableName.equals(dataObject.getTableName())) {
+      return null;
+    }
+    return descriptor;
+  }
+
+  /**
+   * Share a fully constructed instance's metadata with the instances of its class made after it, unless its class
+   * already has a descriptor.
+   */
+  static void publish(DataObject dataObject) {
+    Class<? extends DataObject> dataObjectClass = dataObject.getClass();
+    if (!descriptors.containsKey(dataObjectClass) && hasUniqueFieldNames(dataObject)) {
+      // Two threads can race to publish the same class. Both results are equivalent, so keep whichever landed first.
+      descriptors.putIfAbsent(dataObjectClass, new TableDescriptor(dataObject));
+    }
+  }
+
+  private static boolean hasUniqueFieldNames(DataObject dataObject) {
+    Set<String> fieldNames = new HashSet<>();
+    for (FieldValue fieldValue : dataObject.getAllFieldValues()) {
+      if (!fieldNames.add(fieldValue.getFieldName())) {
+        logger.debug("No shared table descriptor for " + dataObject.getClass().getName() + ": " +
+            "field '" + fieldValue.getFieldName() + "' is registered more than once.");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Descriptor of the class, constructing one instance with its public no-arg constructor if no instance has been
+   * initialized yet. Null if it has no such constructor.
+   */
+  @Nullable
+  static TableDescriptor forClass(Class<? extends DataObject> dataObjectClass) {
+    TableDescriptor existing = descriptors.get(dataObjectClass);
+    if (existing != null) {
+      return existing;
+    }
+
+    Set<Class<?>> inProgress = classesInProgress.get();
+    if (!inProgress.add(dataObjectClass)) {
+      return null;
+    }
+
+    Optional<DataObject> prototype;
+    try {
+      prototype = createPrototype(dataObjectClass);
+    } finally {
+      inProgress.remove(dataObjectClass);
+    }
+
+    if (prototype.isEmpty()) {
+      return null;
+    }
+    publish(prototype.get());
+    return descriptors.get(dataObjectClass);
+  }
+
+  private static Optional<DataObject> createPrototype(Class<? extends DataObject> dataObjectClass) {
+    if (Modifier.isAbstract(dataObjectClass.getModifiers())) {
+      return Optional.empty();
+    }
+    try {
+      // No access checks are bypassed. A class that doesn't want to be constructed this way won't be.
+      Constructor<? extends DataObject> constructor = dataObjectClass.getConstructor();
+      return Optional.of(constructor.newInstance());
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.debug("No shared table descriptor for " + dataObjectClass.getName() + ": " + e);
+      return Optional.empty();
+    }
+  }
+
+  String getTableName() {
+    return tableName;
+  }
+
+  String getIdSequenceName() {
+    return idSequenceName;
+  }
+
+  /**
+   * Names of the class's registered fields, not including id, in registration order.
+   */
+  List<String> getFieldNames() {
+    return fieldNames;
+  }
+
+  /**
+   * Position of the named field among the class's registered fields, or null if it has no such field.
+   */
+  @Nullable
+  Integer getFieldPosition(String fieldName) {
+    return fieldPositions.get(fieldName);
+  }
+
+  boolean hasFieldAt(int position, String fieldName) {
+    return position < fieldNames.size() && fieldNames.get(position).equals(fieldName);
+  }
+
+  List<UniqueConstraint> getUniqueConstraints() {
+    return uniqueConstraints;
+  }
+
+  List<ColumnsIndex> getIndices() {
+    return indices;
+  }
+}
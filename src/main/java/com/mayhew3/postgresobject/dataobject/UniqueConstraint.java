@@ -1,25 +1,21 @@
 package com.mayhew3.postgresobject.dataobject;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 class UniqueConstraint {
 
-  private List<FieldValue> fields;
-  private String tableName;
+  private final List<String> fieldNames;
+  private final String tableName;
 
-  UniqueConstraint(ArrayList<FieldValue> fieldValues, String tableName) {
-    this.fields = fieldValues;
+  UniqueConstraint(List<String> fieldNames, String tableName) {
+    this.fieldNames = ImmutableList.copyOf(fieldNames);
     this.tableName = tableName;
   }
 
   String getIndexName() {
-    List<String> fieldNames = getFields().stream()
-        .map(FieldValue::getFieldName)
-        .collect(Collectors.toList());
     String underJoin = Joiner.on("_").join(fieldNames);
     if ("id".equals(underJoin)) {
       return tableName + "_pkey";
@@ -28,7 +24,7 @@ class UniqueConstraint {
     }
   }
 
-  List<FieldValue> getFields() {
-    return fields;
+  List<String> getFieldNames() {
+    return fieldNames;
   }
 }
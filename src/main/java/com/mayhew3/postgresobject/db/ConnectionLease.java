@@ -0,0 +1,47 @@
+package com.mayhew3.postgresobject.db;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Exclusive use of one physical connection from a {@link PostgresConnectionPool} until closed. Use in a
+ * try-with-resources block when several statements need to run on the same connection, e.g. a transaction or
+ * a PreparedStatement handle that is executed more than once.
+ */
+public class ConnectionLease implements AutoCloseable {
+  private final PostgresConnectionPool pool;
+  private final PooledConnectionEntry entry;
+  private final boolean releaseOnClose;
+  private boolean released = false;
+
+  ConnectionLease(PostgresConnectionPool pool, PooledConnectionEntry entry) {
+    this(pool, entry, true);
+  }
+
+  private ConnectionLease(PostgresConnectionPool pool, PooledConnectionEntry entry, boolean releaseOnClose) {
+    this.pool = pool;
+    this.entry = entry;
+    this.releaseOnClose = releaseOnClose;
+  }
+
+  /**
+   * Use of the same connection that leaves it with this lease when closed, for calls made inside a transaction.
+   */
+  ConnectionLease joined() {
+    return new ConnectionLease(pool, entry, false);
+  }
+
+  public PostgresConnection getConnection() {
+    Preconditions.checkState(!released, "Connection lease has already been released.");
+    return entry.getConnection();
+  }
+
+  @Override
+  public void close() {
+    if (!released) {
+      released = true;
+      if (releaseOnClose) {
+        pool.release(entry);
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.mayhew3.postgresobject.db;
+
+/**
+ * Sizing and timing options for a {@link PostgresConnectionPool}. Defaults are conservative enough to use as-is
+ * for a small service; override with the with* methods.
+ */
+@SuppressWarnings("unused")
+public class ConnectionPoolSettings {
+  private int minSize = 1;
+  private int maxSize = 10;
+  private long maxWaitMillis = 30_000;
+  private long idleTimeoutMillis = 10 * 60_000;
+  private long evictionIntervalMillis = 60_000;
+  private long validationIntervalMillis = 30_000;
+  private int validationTimeoutSeconds = 5;
+
+  /**
+   * @param minSize Number of physical connections the pool opens up front and keeps open while idle.
+   */
+  public ConnectionPoolSettings withMinSize(int minSize) {
+    this.minSize = minSize;
+    return this;
+  }
+
+  /**
+   * @param maxSize Upper bound on physical connections, and so on concurrent leases.
+   */
+  public ConnectionPoolSettings withMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+    return this;
+  }
+
+  /**
+   * @param maxWaitMillis How long a caller waits for a free connection before getting an SQLTimeoutException.
+   */
+  public ConnectionPoolSettings withMaxWaitMillis(long maxWaitMillis) {
+    this.maxWaitMillis = maxWaitMillis;
+    return this;
+  }
+
+  /**
+   * @param idleTimeoutMillis Connections idle longer than this are closed, down to the min size.
+   */
+  public ConnectionPoolSettings withIdleTimeoutMillis(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * @param evictionIntervalMillis How often the background evictor runs. Zero or less disables the evictor thread.
+   */
+  public ConnectionPoolSettings withEvictionIntervalMillis(long evictionIntervalMillis) {
+    this.evictionIntervalMillis = evictionIntervalMillis;
+    return this;
+  }
+
+  /**
+   * @param validationIntervalMillis A connection is re-validated on borrow only if it hasn't been validated
+   *                                 within this window. Zero validates on every borrow.
+   */
+  public ConnectionPoolSettings withValidationIntervalMillis(long validationIntervalMillis) {
+    this.validationIntervalMillis = validationIntervalMillis;
+    return this;
+  }
+
+  public ConnectionPoolSettings withValidationTimeoutSeconds(int validationTimeoutSeconds) {
+    this.validationTimeoutSeconds = validationTimeoutSeconds;
+    return this;
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getMaxWaitMillis() {
+    return maxWaitMillis;
+  }
+
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  public long getEvictionIntervalMillis() {
+    return evictionIntervalMillis;
+  }
+
+  public long getValidationIntervalMillis() {
+    return validationIntervalMillis;
+  }
+
+  public int getValidationTimeoutSeconds() {
+    return validationTimeoutSeconds;
+  }
+}
@@ -0,0 +1,12 @@
+package com.mayhew3.postgresobject.db;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces the data for a COPY ... FROM STDIN statement. See {@link PostgresConnection#copyIn(String, CopyInWriter)}.
+ */
+@FunctionalInterface
+public interface CopyInWriter {
+  void write(OutputStream copyStream) throws IOException;
+}
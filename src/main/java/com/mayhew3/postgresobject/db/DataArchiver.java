@@ -8,14 +8,16 @@ import com.mayhew3.postgresobject.dataobject.FieldValueTimestamp;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeComparator;
 
 import java.io.*;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -29,6 +31,10 @@ public class DataArchiver {
   // Map of DB table to months of data to keep.
   private List<ArchiveableFactory> tablesToArchive;
   private String logDirectory;
+  private int fetchSize = DEFAULT_FETCH_SIZE;
+
+  private static final int DEFAULT_FETCH_SIZE = 1000;
+  private static final int DELETE_CHUNK_SIZE = 1000;
 
   private static Logger logger = LogManager.getLogger(DataArchiver.class);
 
@@ -42,6 +48,14 @@ public class DataArchiver {
     this.tablesToArchive = factories;
   }
 
+  /**
+   * Number of rows to pull from the server per round trip while scanning a table. Defaults to 1000.
+   */
+  public DataArchiver withFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+    return this;
+  }
+
   public void runUpdate() throws SQLException, IOException {
     for (ArchiveableFactory factory : tablesToArchive) {
       runUpdateOnTable(factory);
@@ -50,22 +64,40 @@ public class DataArchiver {
 
   private void runUpdateOnTable(ArchiveableFactory factory) throws SQLException, IOException {
     String tableName = factory.tableName();
+
+    // Ids of archived rows are spooled to a temp file rather than kept in memory, so memory doesn't grow with the
+    // table. Only those ids are deleted afterwards, never rows that merely match the condition, since rows can start
+    // matching it while the scan is running.
+    File archivedIds = File.createTempFile("archived_" + tableName + "_", ".ids");
+    try (ArchiveProgress progress = new ArchiveProgress(archivedIds)) {
+      archiveTable(factory, progress);
+    } finally {
+      if (!archivedIds.delete()) {
+        logger.warn("Failed to delete temp file of archived ids: {}", archivedIds.getAbsolutePath());
+      }
+    }
+  }
+
+  private void archiveTable(ArchiveableFactory factory, ArchiveProgress progress) throws SQLException, IOException {
+    String tableName = factory.tableName();
     String dateColumnName = factory.dateColumnName();
     Integer monthsToKeep = factory.monthsToKeep();
 
     String otherColumnName = factory.otherColumnName();
     Object otherColumnValue = factory.otherColumnValue();
 
-    File mostRecentFile = null;
-    DateTime mostRecentDate = null;
-    PrintStream mostRecentStream;
-
-    ResultSet resultSet = monthsToKeep == null ?
-        getResultSetForOther(tableName, otherColumnName, otherColumnValue) :
-        getResultSetForDates(tableName, dateColumnName, monthsToKeep);
+    String condition;
+    Object conditionValue;
+    if (monthsToKeep == null) {
+      condition = otherColumnName + " IS NOT NULL AND " + otherColumnName + " = ?";
+      conditionValue = otherColumnValue;
+    } else {
+      DateTime lastDateToKeep = new DateTime().minusMonths(monthsToKeep);
+      condition = dateColumnName + " IS NOT NULL AND " + dateColumnName + " < ?";
+      conditionValue = new Timestamp(lastDateToKeep.toDate().getTime());
+    }
 
-    Integer i = 0;
-    while (resultSet.next()) {
+    RowCallback archiveRow = resultSet -> {
       DataObject dataObject = factory.createEntity();
       dataObject.initializeFromDBObject(resultSet);
 
@@ -76,35 +108,55 @@ public class DataArchiver {
         Timestamp rowTimestamp = dateValue.getValue();
         DateTime rowDateTime = new DateTime(rowTimestamp);
 
-        if (mostRecentDate == null || DateTimeComparator.getDateOnlyInstance().compare(mostRecentDate, rowDateTime) < 0) {
-          mostRecentDate = rowDateTime;
-          mostRecentFile = getDateBasedFile(tableName, rowTimestamp);
+        if (progress.mostRecentDate == null || DateTimeComparator.getDateOnlyInstance().compare(progress.mostRecentDate, rowDateTime) < 0) {
+          progress.mostRecentDate = rowDateTime;
+          progress.mostRecentFile = getDateBasedFile(tableName, rowTimestamp);
         }
       } else {
-        mostRecentFile = getColumnBasedFile(tableName, otherColumnValue);
+        progress.mostRecentFile = getColumnBasedFile(tableName, otherColumnValue);
       }
 
-      mostRecentStream = createValidStream(mostRecentFile, dataObject);
-
       // todo: Check for duplicate
-      copyRowToArchiveFile(dataObject, mostRecentStream);
-      deleteOldData(factory, dataObject.id.getValue());
-      i++;
+      // The id is only spooled for deletion once its row is written out to the archive file.
+      try {
+        try (PrintStream mostRecentStream = createValidStream(progress.mostRecentFile, dataObject)) {
+          copyRowToArchiveFile(dataObject, mostRecentStream);
+        }
+        progress.addArchivedId(dataObject.id.getValue());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
 
-      if (i % 100 == 0) {
-        debug(i + " rows processed.");
+      if (progress.rowCount % 100 == 0) {
+        debug(progress.rowCount + " rows processed.");
       }
+    };
+
+    // Rows are only deleted once the cursor is closed, since MySQL can't run other statements on a connection
+    // while it is streaming. If archiving fails, nothing is deleted.
+    try {
+      String orderBy = monthsToKeep == null ? null : dateColumnName;
+      streamRows(tableName, condition, conditionValue, orderBy, archiveRow);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    // Flush the spooled ids before reading them back.
+    progress.close();
+    if (progress.rowCount > 0) {
+      deleteArchivedRows(tableName, progress);
     }
 
-    logger.info(i + " rows processed. Done with table " + tableName);
+    logger.info(progress.rowCount + " rows processed. Done with table " + tableName);
   }
 
   private PrintStream createValidStream(File file, DataObject dataObject) throws IOException {
     if (file.exists()) {
-      BufferedReader bufferedReader = new BufferedReader(new FileReader(file));
-      String firstLine = bufferedReader.readLine();
-      if (firstLine != null) {
-        validateHeaderRow(dataObject, firstLine);
+      try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
+        String firstLine = bufferedReader.readLine();
+        if (firstLine != null) {
+          validateHeaderRow(dataObject, firstLine);
+        }
       }
       return new PrintStream(new FileOutputStream(file, true));
     } else {
@@ -116,31 +168,15 @@ public class DataArchiver {
     }
   }
 
-  private ResultSet getResultSetForDates(String tableName, String dateColumnName, Integer monthsToKeep) throws SQLException {
-    DateTime today = new DateTime();
-    DateTime lastDateToKeep = today.minusMonths(monthsToKeep);
-    Timestamp lastDateInTimestamp = new Timestamp(lastDateToKeep.toDate().getTime());
-
+  private void streamRows(String tableName, String condition, Object conditionValue, @Nullable String orderBy, RowCallback archiveRow) throws SQLException {
     String sql = "SELECT * " +
         " FROM " + tableName +
-        " WHERE " + dateColumnName + " IS NOT NULL " +
-        " AND " + dateColumnName + " < ? " +
-        " ORDER BY " + dateColumnName;
-
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, lastDateInTimestamp);
+        " WHERE " + condition +
+        (orderBy == null ? "" : " ORDER BY " + orderBy);
 
-    logger.info("Query executed on table " + tableName + " before " + lastDateToKeep + ". Processing rows...");
+    logger.info("Query executing on table " + tableName + " where " + condition + " with value '" + conditionValue + "'. Processing rows...");
 
-    return resultSet;
-  }
-
-  private ResultSet getResultSetForOther(String tableName, String columnName, Object columnValue) throws SQLException {
-    String sql = "SELECT * " +
-        " FROM " + tableName +
-        " WHERE " + columnName + " IS NOT NULL " +
-        " AND " + columnName + " = ? ";
-    logger.info("Query executing on table " + tableName + " using " + columnName + " with value '" + columnValue + "'. Processing rows...");
-    return connection.prepareAndExecuteStatementFetch(sql, columnValue);
+    connection.forEachRowStreaming(sql, fetchSize, archiveRow, conditionValue);
   }
 
   private void debug(String message) {
@@ -187,10 +223,27 @@ public class DataArchiver {
         .collect(Collectors.toList());
   }
 
-  private void deleteOldData(ArchiveableFactory factory, Integer rowId) throws SQLException {
-    String sql = "DELETE FROM " + factory.tableName() +
-        " WHERE ID = ? ";
-    connection.prepareAndExecuteStatementUpdate(sql, rowId);
+  /**
+   * Delete the rows whose ids were spooled during the scan, DELETE_CHUNK_SIZE ids per statement.
+   */
+  private void deleteArchivedRows(String tableName, ArchiveProgress progress) throws SQLException, IOException {
+    int deleted = 0;
+    try (DataInputStream ids = new DataInputStream(new BufferedInputStream(new FileInputStream(progress.archivedIds)))) {
+      List<Object> chunk = new ArrayList<>(DELETE_CHUNK_SIZE);
+      for (int i = 0; i < progress.rowCount; i++) {
+        chunk.add(ids.readInt());
+        if (chunk.size() == DELETE_CHUNK_SIZE || i == progress.rowCount - 1) {
+          String sql = "DELETE FROM " + tableName +
+              " WHERE id IN (" + Joiner.on(", ").join(Collections.nCopies(chunk.size(), "?")) + ")";
+          deleted += connection.prepareAndExecuteStatementUpdate(sql, chunk);
+          chunk.clear();
+        }
+      }
+    }
+    if (deleted != progress.rowCount) {
+      logger.warn("Archived " + progress.rowCount + " rows from " + tableName + ", but deleted " + deleted + ". " +
+          "Rows may have been deleted during the archive.");
+    }
   }
 
   private File getColumnBasedFile(String tableName, Object fileBase) {
@@ -225,4 +278,27 @@ public class DataArchiver {
     return new File(logDirectory + File.separator + dbIdentifier + File.separator + "Archive_" + tableName + "_" + dateFormatted + ".csv");
   }
 
+  private static class ArchiveProgress implements Closeable {
+    private final File archivedIds;
+    private final DataOutputStream archivedIdStream;
+    private int rowCount = 0;
+    private File mostRecentFile = null;
+    private DateTime mostRecentDate = null;
+
+    private ArchiveProgress(File archivedIds) throws IOException {
+      this.archivedIds = archivedIds;
+      this.archivedIdStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archivedIds)));
+    }
+
+    private void addArchivedId(int id) throws IOException {
+      archivedIdStream.writeInt(id);
+      rowCount++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      archivedIdStream.close();
+    }
+  }
+
 }
@@ -0,0 +1,121 @@
+package com.mayhew3.postgresobject.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Begin, commit or roll back, and clean up a transaction on a JDBC connection, for the SQLConnection implementations.
+ */
+final class JdbcTransactions {
+
+  private JdbcTransactions() {
+  }
+
+  /**
+   * Run work in a new transaction on a connection in autocommit mode. Commits if the work returns, and rolls back and
+   * rethrows if it throws. Either way the connection is back in autocommit mode with its previous isolation level and
+   * access mode afterwards.
+   */
+  static <T> T run(Connection connection, TransactionOptions options, TransactionWork<T> work) throws SQLException {
+    Preconditions.checkState(connection.getAutoCommit(), "Connection already has a transaction open.");
+
+    // Read before autocommit is off, since on Postgres asking for the isolation level is itself a query.
+    Integer previousIsolation = options.getIsolation() == null ? null : connection.getTransactionIsolation();
+    boolean currentReadOnly = connection.isReadOnly();
+    Boolean previousReadOnly = currentReadOnly == options.isReadOnly() ? null : currentReadOnly;
+
+    connection.setAutoCommit(false);
+    try {
+      if (options.getIsolation() != null) {
+        connection.setTransactionIsolation(options.getIsolation().getJdbcLevel());
+      }
+      if (previousReadOnly != null) {
+        connection.setReadOnly(options.isReadOnly());
+      }
+
+      T result = work.execute();
+      connection.commit();
+      restore(connection, previousIsolation, previousReadOnly);
+      return result;
+    } catch (SQLException | RuntimeException | Error e) {
+      rollbackQuietly(connection, e);
+      try {
+        restore(connection, previousIsolation, previousReadOnly);
+      } catch (SQLException restoreException) {
+        e.addSuppressed(restoreException);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Run and clear the actions waiting for a transaction to end: the rollback actions, newest first, if it rolled
+   * back, and then the actions for either outcome. Every action runs, even if one before it throws.
+   */
+  static void endTransaction(boolean committed, List<Runnable> afterRollback, List<Runnable> afterTransaction) {
+    List<Runnable> pending = new ArrayList<>();
+    if (!committed) {
+      pending.addAll(Lists.reverse(afterRollback));
+    }
+    pending.addAll(afterTransaction);
+    afterRollback.clear();
+    afterTransaction.clear();
+    RuntimeException failure = null;
+    for (Runnable action : pending) {
+      try {
+        action.run();
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * @throws IllegalStateException if a transaction nested in one with the given options asks for different ones.
+   */
+  static void checkNestedOptions(TransactionOptions outer, TransactionOptions nested) {
+    Preconditions.checkState(nested.getIsolation() == null || nested.getIsolation() == outer.getIsolation(),
+        "Can't change to isolation level " + nested.getIsolation() + " inside a transaction that's already open.");
+    Preconditions.checkState(nested.isReadOnly() || !outer.isReadOnly(),
+        "Can't write inside a read-only transaction.");
+  }
+
+  private static void rollbackQuietly(Connection connection, Throwable cause) {
+    try {
+      if (!connection.isClosed()) {
+        connection.rollback();
+      }
+    } catch (SQLException e) {
+      cause.addSuppressed(e);
+    }
+  }
+
+  /**
+   * Null previous values weren't changed, so don't need restoring.
+   */
+  private static void restore(Connection connection, @Nullable Integer previousIsolation, @Nullable Boolean previousReadOnly) throws SQLException {
+    if (connection.isClosed()) {
+      return;
+    }
+    connection.setAutoCommit(true);
+    if (previousIsolation != null) {
+      connection.setTransactionIsolation(previousIsolation);
+    }
+    if (previousReadOnly != null) {
+      connection.setReadOnly(previousReadOnly);
+    }
+  }
+}
@@ -7,7 +7,9 @@ import org.jetbrains.annotations.NotNull;
 
 import java.math.BigDecimal;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 import java.util.logging.Logger;
 
 @SuppressWarnings({"unused", "rawtypes"})
@@ -17,6 +19,14 @@ public class MySQLConnection implements SQLConnection {
 
   private Connection _connection;
   private final String schemaName;
+  private final PreparedStatementCache statementCache = new PreparedStatementCache(PreparedStatementCache.DEFAULT_MAX_SIZE);
+
+  // Options of the transaction open in inTransaction(), or null if there isn't one.
+  private TransactionOptions openTransaction;
+
+  // Actions from runAfterTransaction() and runAfterRollback(), run once the open transaction ends.
+  private final List<Runnable> afterTransaction = new ArrayList<>();
+  private final List<Runnable> afterRollback = new ArrayList<>();
 
   MySQLConnection(Connection connection, String schemaName) {
     _connection = connection;
@@ -36,6 +46,46 @@ public class MySQLConnection implements SQLConnection {
     return this.schemaName;
   }
 
+  @Override
+  public <T> T inTransaction(TransactionOptions options, TransactionWork<T> work) throws SQLException {
+    if (openTransaction != null) {
+      JdbcTransactions.checkNestedOptions(openTransaction, options);
+      return work.execute();
+    }
+
+    openTransaction = options;
+    boolean committed = false;
+    try {
+      T result = JdbcTransactions.run(_connection, options, work);
+      committed = true;
+      return result;
+    } finally {
+      openTransaction = null;
+      JdbcTransactions.endTransaction(committed, afterRollback, afterTransaction);
+    }
+  }
+
+  @Override
+  public boolean isInTransaction() {
+    return openTransaction != null;
+  }
+
+  @Override
+  public void runAfterTransaction(Runnable action) {
+    if (openTransaction == null) {
+      action.run();
+    } else {
+      afterTransaction.add(action);
+    }
+  }
+
+  @Override
+  public void runAfterRollback(Runnable action) {
+    if (openTransaction != null) {
+      afterRollback.add(action);
+    }
+  }
+
   @Override
   @NotNull
   public ResultSet executeQuery(String sql) throws SQLException {
@@ -54,9 +104,14 @@ public class MySQLConnection implements SQLConnection {
 
   @Override
   public void closeConnection() throws SQLException {
+    statementCache.clear();
     _connection.close();
   }
 
+  public PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
 
   // Full lifecycle operations using PreparedStatement
 
@@ -72,10 +127,69 @@ public class MySQLConnection implements SQLConnection {
   @Override
   public ResultSet prepareAndExecuteStatementFetch(String sql, List<Object> params) throws SQLException {
     PreparedStatement preparedStatement = prepareStatementWithParams(sql, params);
+    preparedStatement.closeOnCompletion();
 //    logger.log(Level.INFO, preparedStatement.toString());
     return preparedStatement.executeQuery();
   }
 
+  @Override
+  public void forEachRow(String sql, RowCallback rowCallback, List<Object> params) throws SQLException {
+    forEachRow(sql, 0, rowCallback, params);
+  }
+
+  @Override
+  public void forEachRow(String sql, int maxRows, RowCallback rowCallback, List<Object> params) throws SQLException {
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.NO_GENERATED_KEYS);
+    try {
+      // cached statements are shared between calls, so the limit is cleared again before check-in
+      if (maxRows > 0) {
+        preparedStatement.setMaxRows(maxRows);
+      }
+      plugParamsIntoStatement(preparedStatement, params);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        while (resultSet.next()) {
+          rowCallback.processRow(resultSet);
+        }
+      }
+      if (maxRows > 0) {
+        preparedStatement.setMaxRows(0);
+      }
+      statementCache.checkin(sql, Statement.NO_GENERATED_KEYS, preparedStatement);
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
+  }
+
+  @Override
+  public void forEachRowStreaming(String sql, int fetchSize, RowCallback rowCallback, List<Object> params) throws SQLException {
+    try (PreparedStatement preparedStatement = _connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      // Connector/J only streams rows for a forward-only, read-only statement with this exact fetch size.
+      preparedStatement.setFetchSize(Integer.MIN_VALUE);
+      plugParamsIntoStatement(preparedStatement, params);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        while (resultSet.next()) {
+          rowCallback.processRow(resultSet);
+        }
+      }
+    }
+  }
+
+
+  @NotNull
+  @Override
+  public <T> Stream<T> streamRows(String sql, int fetchSize, RowMapper<T> rowMapper, List<Object> params) throws SQLException {
+    PreparedStatement preparedStatement = _connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    try {
+      preparedStatement.setFetchSize(Integer.MIN_VALUE);
+      plugParamsIntoStatement(preparedStatement, params);
+      ResultSet resultSet = preparedStatement.executeQuery();
+      return RowStream.create(preparedStatement, resultSet, rowMapper, succeeded -> {});
+    } catch (SQLException | RuntimeException e) {
+      preparedStatement.close();
+      throw e;
+    }
+  }
 
   @Override
   public Integer prepareAndExecuteStatementUpdate(String sql, Object... params) throws SQLException {
@@ -84,11 +198,17 @@ public class MySQLConnection implements SQLConnection {
 
   @Override
   public Integer prepareAndExecuteStatementUpdate(String sql, List<Object> params) throws SQLException {
-    PreparedStatement preparedStatement = prepareStatementWithParams(sql, params);
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.NO_GENERATED_KEYS);
+    try {
+      plugParamsIntoStatement(preparedStatement, params);
 //    logger.log(Level.INFO, preparedStatement.toString());
-    int updatedRowCount = preparedStatement.executeUpdate();
-    preparedStatement.close();
-    return updatedRowCount;
+      int updatedRowCount = preparedStatement.executeUpdate();
+      statementCache.checkin(sql, Statement.NO_GENERATED_KEYS, preparedStatement);
+      return updatedRowCount;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
   }
 
   @Override
@@ -144,30 +264,84 @@ public class MySQLConnection implements SQLConnection {
   }
 
   @Override
-  public void prepareAndExecuteStatementUpdateWithFields(String sql, List<FieldValue> fields) throws SQLException {
-    PreparedStatement preparedStatement = prepareStatementWithFields(sql, fields);
-
-    preparedStatement.executeUpdate();
-    preparedStatement.close();
+  public int prepareAndExecuteStatementUpdateWithFields(String sql, List<FieldValue> fields) throws SQLException {
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.NO_GENERATED_KEYS);
+    try {
+      plugFieldsIntoStatement(preparedStatement, fields);
+      int rowsAffected = preparedStatement.executeUpdate();
+      statementCache.checkin(sql, Statement.NO_GENERATED_KEYS, preparedStatement);
+      return rowsAffected;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
   }
 
   @NotNull
   @Override
   public Integer prepareAndExecuteStatementInsertReturnId(String sql, List<FieldValue> fieldValues) throws SQLException {
-    PreparedStatement preparedStatement = prepareStatementForInsertId(sql);
-    plugFieldsIntoStatement(preparedStatement, fieldValues);
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.RETURN_GENERATED_KEYS);
+    try {
+      plugFieldsIntoStatement(preparedStatement, fieldValues);
+
+      preparedStatement.executeUpdate();
+
+      int id;
+      try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+        if (!generatedKeys.next()) {
+          throw new RuntimeException("No rows in ResultSet from Inserted object!");
+        }
+        id = generatedKeys.getInt(1);
+      }
 
-    preparedStatement.executeUpdate();
+      statementCache.checkin(sql, Statement.RETURN_GENERATED_KEYS, preparedStatement);
+      return id;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
+  }
 
-    ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
 
-    if (!generatedKeys.next()) {
-      throw new RuntimeException("No rows in ResultSet from Inserted object!");
+  @NotNull
+  @Override
+  public List<Integer> prepareAndExecuteStatementInsertReturnIds(String sql, List<FieldValue> fieldValues) throws SQLException {
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.RETURN_GENERATED_KEYS);
+    try {
+      plugFieldsIntoStatement(preparedStatement, fieldValues);
+
+      preparedStatement.executeUpdate();
+
+      List<Integer> ids = new ArrayList<>();
+      try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+        while (generatedKeys.next()) {
+          ids.add(generatedKeys.getInt(1));
+        }
+      }
+
+      statementCache.checkin(sql, Statement.RETURN_GENERATED_KEYS, preparedStatement);
+      return ids;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
     }
+  }
 
-    int id = generatedKeys.getInt(1);
-    preparedStatement.close();
-    return id;
+  @Override
+  public int[] prepareAndExecuteStatementBatchUpdateWithFields(String sql, List<List<FieldValue>> fieldValueRows) throws SQLException {
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.NO_GENERATED_KEYS);
+    try {
+      for (List<FieldValue> fieldValues : fieldValueRows) {
+        plugFieldsIntoStatement(preparedStatement, fieldValues);
+        preparedStatement.addBatch();
+      }
+      int[] rowsAffected = preparedStatement.executeBatch();
+      statementCache.checkin(sql, Statement.NO_GENERATED_KEYS, preparedStatement);
+      return rowsAffected;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
   }
 
 
@@ -231,10 +405,14 @@ public class MySQLConnection implements SQLConnection {
         preparedStatement.setString(i, (String) param);
       } else if (param instanceof Integer) {
         preparedStatement.setInt(i, (Integer) param);
+      } else if (param instanceof Long) {
+        preparedStatement.setLong(i, (Long) param);
       } else if (param instanceof BigDecimal) {
         preparedStatement.setBigDecimal(i, (BigDecimal) param);
       } else if (param instanceof Double) {
         preparedStatement.setDouble(i, (Double) param);
+      } else if (param instanceof Timestamp) {
+        preparedStatement.setTimestamp(i, (Timestamp) param);
       } else if (param instanceof Date) {
         preparedStatement.setDate(i, (Date) param);
       } else if (param instanceof Boolean) {
@@ -247,8 +425,4 @@ public class MySQLConnection implements SQLConnection {
     return preparedStatement;
   }
 
-  PreparedStatement prepareStatementForInsertId(String sql) throws SQLException {
-    return _connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-  }
-
 }
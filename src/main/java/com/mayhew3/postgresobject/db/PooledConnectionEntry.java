@@ -0,0 +1,33 @@
+package com.mayhew3.postgresobject.db;
+
+class PooledConnectionEntry {
+  private final PostgresConnection connection;
+  private volatile long lastValidated;
+  private volatile long lastReleased;
+
+  PooledConnectionEntry(PostgresConnection connection, long now) {
+    this.connection = connection;
+    this.lastValidated = now;
+    this.lastReleased = now;
+  }
+
+  PostgresConnection getConnection() {
+    return connection;
+  }
+
+  long getLastValidated() {
+    return lastValidated;
+  }
+
+  long getLastReleased() {
+    return lastReleased;
+  }
+
+  void markValidated(long now) {
+    lastValidated = now;
+  }
+
+  void markReleased(long now) {
+    lastReleased = now;
+  }
+}
@@ -1,16 +1,24 @@
 package com.mayhew3.postgresobject.db;
 
 import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.dataobject.DataObject;
+import com.mayhew3.postgresobject.dataobject.DataObjectCopyLoader;
 import com.mayhew3.postgresobject.dataobject.FieldValue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.joda.time.DateTime;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.PGCopyOutputStream;
 import org.postgresql.util.PSQLException;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 @SuppressWarnings({"rawtypes", "unused"})
 public class PostgresConnection implements SQLConnection {
@@ -19,6 +27,20 @@ public class PostgresConnection implements SQLConnection {
   private final String _connectionString;
   private DateTime lastQueryExecuted;
   private final String schemaName;
+  private final PreparedStatementCache statementCache = new PreparedStatementCache(PreparedStatementCache.DEFAULT_MAX_SIZE);
+
+  // Number of forEachRowStreaming() cursors open on this connection. The connection mustn't be renewed under them.
+  private int openStreams = 0;
+
+  // Options of the transaction open in inTransaction(), or null if there isn't one. While there is, the connection
+  // is never replaced, since statements after a reconnect would run outside the transaction.
+  private TransactionOptions openTransaction;
+
+  // Actions from runAfterTransaction() and runAfterRollback(), run once the open transaction ends.
+  private final List<Runnable> afterTransaction = new ArrayList<>();
+  private final List<Runnable> afterRollback = new ArrayList<>();
+
+  private static final int COPY_BUFFER_SIZE = 65536;
 
   private static Logger logger = LogManager.getLogger(PostgresConnection.class);
 
@@ -41,6 +63,48 @@ public class PostgresConnection implements SQLConnection {
     return this.schemaName == null ? "public" : this.schemaName;
   }
 
+  @Override
+  public <T> T inTransaction(TransactionOptions options, TransactionWork<T> work) throws SQLException {
+    if (openTransaction != null) {
+      JdbcTransactions.checkNestedOptions(openTransaction, options);
+      return work.execute();
+    }
+
+    checkConnection();
+    openTransaction = options;
+    boolean committed = false;
+    try {
+      T result = JdbcTransactions.run(_connection, options, work);
+      committed = true;
+      updateLastExecuted();
+      return result;
+    } finally {
+      openTransaction = null;
+      JdbcTransactions.endTransaction(committed, afterRollback, afterTransaction);
+    }
+  }
+
+  @Override
+  public boolean isInTransaction() {
+    return openTransaction != null;
+  }
+
+  @Override
+  public void runAfterTransaction(Runnable action) {
+    if (openTransaction == null) {
+      action.run();
+    } else {
+      afterTransaction.add(action);
+    }
+  }
+
+  @Override
+  public void runAfterRollback(Runnable action) {
+    if (openTransaction != null) {
+      afterRollback.add(action);
+    }
+  }
+
   @NotNull
   public ResultSet executeQuery(String sql) throws SQLException {
     checkConnection();
@@ -84,7 +148,15 @@ public class PostgresConnection implements SQLConnection {
   }
 
   private void checkConnection() throws SQLException {
-    if (_connection.isClosed()) {
+    if (openTransaction != null) {
+      if (_connection.isClosed()) {
+        throw new SQLException("Connection lost in the middle of a transaction. The transaction will be rolled back.");
+      }
+    } else if (openStreams > 0) {
+      if (_connection.isClosed()) {
+        throw new SQLException("Connection lost while a streaming query was open on it.");
+      }
+    } else if (_connection.isClosed()) {
       debug("Connection lost. Trying to reconnect...");
       resetConnection();
     } else if (isExpired()) {
@@ -100,6 +172,13 @@ public class PostgresConnection implements SQLConnection {
   }
 
   private void resetConnection() {
+    if (hasOpenWork()) {
+      // A failed statement aborts the transaction, which inTransaction() rolls back, and closing the connection
+      // would tear down any streaming cursor. Reconnecting now would let the work carry on outside either.
+      debug("Not reconnecting while a transaction or streaming query is open.");
+      return;
+    }
+
     // first, close existing connection so we don't explode active clients
     try {
       closeConnection();
@@ -116,9 +195,30 @@ public class PostgresConnection implements SQLConnection {
   }
 
   public void closeConnection() throws SQLException {
+    statementCache.clear();
     _connection.close();
   }
 
+  public PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  boolean isClosed() {
+    try {
+      return _connection.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  boolean isValid(int timeoutSeconds) {
+    try {
+      return !_connection.isClosed() && _connection.isValid(timeoutSeconds);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
 
   // Full lifecycle operations using PreparedStatement
 
@@ -134,11 +234,158 @@ public class PostgresConnection implements SQLConnection {
     checkConnection();
 
     PreparedStatement preparedStatement = prepareStatementWithParams(sql, params);
+    preparedStatement.closeOnCompletion();
     ResultSet resultSet = executePreparedStatement(preparedStatement);
     updateLastExecuted();
     return resultSet;
   }
 
+  @Override
+  public void forEachRow(String sql, RowCallback rowCallback, List<Object> params) throws SQLException {
+    forEachRow(sql, 0, rowCallback, params);
+  }
+
+  @Override
+  public void forEachRow(String sql, int maxRows, RowCallback rowCallback, List<Object> params) throws SQLException {
+    checkConnection();
+
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.NO_GENERATED_KEYS);
+    try {
+      // cached statements are shared between calls, so the limit is cleared again before check-in
+      if (maxRows > 0) {
+        preparedStatement.setMaxRows(maxRows);
+      }
+      plugParamsIntoStatement(preparedStatement, params);
+      try (ResultSet resultSet = executePreparedStatement(preparedStatement)) {
+        updateLastExecuted();
+        while (resultSet.next()) {
+          rowCallback.processRow(resultSet);
+        }
+      }
+      if (maxRows > 0) {
+        preparedStatement.setMaxRows(0);
+      }
+      statementCache.checkin(sql, Statement.NO_GENERATED_KEYS, preparedStatement);
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
+  }
+
+  @Override
+  public void forEachRowStreaming(String sql, int fetchSize, RowCallback rowCallback, List<Object> params) throws SQLException {
+    checkConnection();
+
+    // pgjdbc ignores the fetch size and reads the whole result unless autocommit is off.
+    boolean ownsTransaction = beginStreamTransaction();
+    openStreams++;
+
+    boolean committed = false;
+    try {
+      try (PreparedStatement preparedStatement = _connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+        preparedStatement.setFetchSize(fetchSize);
+        plugParamsIntoStatement(preparedStatement, params);
+        try (ResultSet resultSet = executePreparedStatement(preparedStatement)) {
+          updateLastExecuted();
+          while (resultSet.next()) {
+            rowCallback.processRow(resultSet);
+          }
+        }
+      }
+      if (ownsTransaction) {
+        _connection.commit();
+        committed = true;
+      }
+    } catch (SQLException | RuntimeException e) {
+      if (ownsTransaction) {
+        rollbackQuietly();
+      }
+      throw e;
+    } finally {
+      openStreams--;
+      if (ownsTransaction) {
+        endStreamTransaction(committed);
+      }
+    }
+  }
+
+
+  @NotNull
+  @Override
+  public <T> Stream<T> streamRows(String sql, int fetchSize, RowMapper<T> rowMapper, List<Object> params) throws SQLException {
+    checkConnection();
+
+    // Same as forEachRowStreaming(), except the transaction ends when the Stream is closed rather than here.
+    boolean ownsTransaction = beginStreamTransaction();
+    openStreams++;
+
+    PreparedStatement preparedStatement = null;
+    try {
+      preparedStatement = _connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      preparedStatement.setFetchSize(fetchSize);
+      plugParamsIntoStatement(preparedStatement, params);
+      ResultSet resultSet = executePreparedStatement(preparedStatement);
+      updateLastExecuted();
+      return RowStream.create(preparedStatement, resultSet, rowMapper, succeeded -> endStream(ownsTransaction, succeeded));
+    } catch (SQLException | RuntimeException e) {
+      if (preparedStatement != null) {
+        closeQuietly(preparedStatement);
+      }
+      endStream(ownsTransaction, false);
+      throw e;
+    }
+  }
+
+  private void endStream(boolean ownsTransaction, boolean succeeded) throws SQLException {
+    openStreams--;
+    if (ownsTransaction) {
+      boolean committed = false;
+      try {
+        if (succeeded) {
+          _connection.commit();
+          committed = true;
+        } else {
+          rollbackQuietly();
+        }
+      } finally {
+        endStreamTransaction(committed);
+      }
+    }
+  }
+
+  /**
+   * Turn autocommit off for a streaming query, if no transaction is open yet. The stream's transaction then counts as
+   * the open one until the stream ends, so inTransaction() work inside it joins it, and runAfterTransaction() actions
+   * wait for it.
+   *
+   * @return True if the stream owns the transaction, and has to end it.
+   */
+  private boolean beginStreamTransaction() throws SQLException {
+    if (!_connection.getAutoCommit()) {
+      return false;
+    }
+    _connection.setAutoCommit(false);
+    openTransaction = new TransactionOptions();
+    return true;
+  }
+
+  /**
+   * Called after the stream's transaction is committed or rolled back.
+   */
+  private void endStreamTransaction(boolean committed) {
+    openTransaction = null;
+    restoreAutoCommit();
+    JdbcTransactions.endTransaction(committed, afterRollback, afterTransaction);
+  }
+
+  private void closeQuietly(Statement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      debug("Failed to close statement: " + e.getLocalizedMessage());
+    }
+  }
+
 
   public Integer prepareAndExecuteStatementUpdate(String sql, Object... params) throws SQLException {
     return prepareAndExecuteStatementUpdate(sql, Lists.newArrayList(params));
@@ -148,12 +395,17 @@ public class PostgresConnection implements SQLConnection {
   public Integer prepareAndExecuteStatementUpdate(String sql, List<Object> params) throws SQLException {
     checkConnection();
 
-    PreparedStatement preparedStatement = prepareStatementWithParams(sql, params);
-
-    int rowsAffected = executePreparedUpdate(preparedStatement);
-    preparedStatement.close();
-    updateLastExecuted();
-    return rowsAffected;
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.NO_GENERATED_KEYS);
+    try {
+      plugParamsIntoStatement(preparedStatement, params);
+      int rowsAffected = executePreparedUpdate(preparedStatement);
+      statementCache.checkin(sql, Statement.NO_GENERATED_KEYS, preparedStatement);
+      updateLastExecuted();
+      return rowsAffected;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
   }
 
   @Override
@@ -226,6 +478,18 @@ public class PostgresConnection implements SQLConnection {
   }
 
 
+  private int[] executePreparedBatch(PreparedStatement preparedBatch) throws SQLException {
+    try {
+      return preparedBatch.executeBatch();
+    } catch (PSQLException e) {
+      debug("Exception while executing batch: " + e.getLocalizedMessage());
+      debug("Trying to reconnect...");
+      resetConnection();
+      throw e;
+    }
+  }
+
+
   // Using FieldValue
 
 
@@ -237,33 +501,94 @@ public class PostgresConnection implements SQLConnection {
     return plugFieldsIntoStatement(preparedStatement, fields);
   }
 
-  public void prepareAndExecuteStatementUpdateWithFields(String sql, List<FieldValue> fields) throws SQLException {
+  public int prepareAndExecuteStatementUpdateWithFields(String sql, List<FieldValue> fields) throws SQLException {
     checkConnection();
 
-    PreparedStatement preparedStatement = prepareStatementWithFields(sql, fields);
-
-    executePreparedUpdate(preparedStatement);
-    preparedStatement.close();
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.NO_GENERATED_KEYS);
+    try {
+      plugFieldsIntoStatement(preparedStatement, fields);
+      int rowsAffected = executePreparedUpdate(preparedStatement);
+      statementCache.checkin(sql, Statement.NO_GENERATED_KEYS, preparedStatement);
+      updateLastExecuted();
+      return rowsAffected;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
   }
 
   @NotNull
   public Integer prepareAndExecuteStatementInsertReturnId(String sql, List<FieldValue> fieldValues) throws SQLException {
     checkConnection();
 
-    PreparedStatement preparedStatement = prepareStatementForInsertId(sql);
-    plugFieldsIntoStatement(preparedStatement, fieldValues);
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.RETURN_GENERATED_KEYS);
+    try {
+      plugFieldsIntoStatement(preparedStatement, fieldValues);
 
-    executePreparedUpdate(preparedStatement);
+      executePreparedUpdate(preparedStatement);
+
+      int id;
+      try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+        if (!generatedKeys.next()) {
+          throw new RuntimeException("No rows in ResultSet from Inserted object!");
+        }
+        id = generatedKeys.getInt("ID");
+      }
+
+      statementCache.checkin(sql, Statement.RETURN_GENERATED_KEYS, preparedStatement);
+      updateLastExecuted();
+      return id;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
+  }
+
+
+  @NotNull
+  @Override
+  public List<Integer> prepareAndExecuteStatementInsertReturnIds(String sql, List<FieldValue> fieldValues) throws SQLException {
+    checkConnection();
 
-    ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+    String returningSql = sql + " RETURNING id";
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, returningSql, Statement.NO_GENERATED_KEYS);
+    try {
+      plugFieldsIntoStatement(preparedStatement, fieldValues);
+
+      List<Integer> ids = new ArrayList<>();
+      try (ResultSet resultSet = executePreparedStatement(preparedStatement)) {
+        while (resultSet.next()) {
+          ids.add(resultSet.getInt("id"));
+        }
+      }
 
-    if (!generatedKeys.next()) {
-      throw new RuntimeException("No rows in ResultSet from Inserted object!");
+      statementCache.checkin(returningSql, Statement.NO_GENERATED_KEYS, preparedStatement);
+      updateLastExecuted();
+      return ids;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
     }
+  }
 
-    int id = generatedKeys.getInt("ID");
-    preparedStatement.close();
-    return id;
+  @Override
+  public int[] prepareAndExecuteStatementBatchUpdateWithFields(String sql, List<List<FieldValue>> fieldValueRows) throws SQLException {
+    checkConnection();
+
+    PreparedStatement preparedStatement = statementCache.checkout(_connection, sql, Statement.NO_GENERATED_KEYS);
+    try {
+      for (List<FieldValue> fieldValues : fieldValueRows) {
+        plugFieldsIntoStatement(preparedStatement, fieldValues);
+        preparedStatement.addBatch();
+      }
+      int[] rowsAffected = executePreparedBatch(preparedStatement);
+      statementCache.checkin(sql, Statement.NO_GENERATED_KEYS, preparedStatement);
+      updateLastExecuted();
+      return rowsAffected;
+    } catch (SQLException | RuntimeException e) {
+      statementCache.discard(preparedStatement);
+      throw e;
+    }
   }
 
 
@@ -275,6 +600,58 @@ public class PostgresConnection implements SQLConnection {
     updateLastExecuted();
   }
 
+  // Bulk loading
+
+  /**
+   * Run a COPY ... FROM STDIN statement, streaming whatever the writer produces straight to the server.
+   *
+   * @param copySql COPY statement, e.g. "COPY my_table (a, b) FROM STDIN (FORMAT binary)".
+   * @param writer Writes the COPY data in the format named by the statement.
+   * @return Number of rows the server reports as copied.
+   * @throws SQLException if the COPY fails, or the writer throws. The COPY is cancelled in either case.
+   */
+  public long copyIn(String copySql, CopyInWriter writer) throws SQLException {
+    checkConnection();
+
+    CopyManager copyManager = _connection.unwrap(PGConnection.class).getCopyAPI();
+    PGCopyOutputStream copyStream = new PGCopyOutputStream(copyManager.copyIn(copySql), COPY_BUFFER_SIZE);
+    try {
+      writer.write(copyStream);
+      long rowsCopied = copyStream.endCopy();
+      updateLastExecuted();
+      return rowsCopied;
+    } catch (IOException e) {
+      cancelCopyQuietly(copyStream);
+      throw new SQLException("Failed to write COPY data: " + e.getLocalizedMessage(), e);
+    } catch (SQLException | RuntimeException e) {
+      cancelCopyQuietly(copyStream);
+      throw e;
+    }
+  }
+
+  /**
+   * Insert new DataObjects with binary COPY. See {@link DataObjectCopyLoader} for details and more options.
+   *
+   * @param dataObjects Objects initialized for insert.
+   * @param assignIds Whether to allocate ids from each table's sequence first, so the objects have them afterwards.
+   * @return Number of rows copied.
+   */
+  public long bulkLoad(Iterable<? extends DataObject> dataObjects, boolean assignIds) throws SQLException {
+    return new DataObjectCopyLoader(this)
+        .withAssignedIds(assignIds)
+        .load(dataObjects);
+  }
+
+  private void cancelCopyQuietly(PGCopyOutputStream copyStream) {
+    try {
+      if (copyStream.isActive()) {
+        copyStream.cancelCopy();
+      }
+    } catch (SQLException e) {
+      debug("Failed to cancel COPY: " + e.getLocalizedMessage());
+    }
+  }
+
   @Override
   public ResultSet getFKInfoForTable(String tableName) throws SQLException {
     return prepareAndExecuteStatementFetch(
@@ -334,6 +711,10 @@ public class PostgresConnection implements SQLConnection {
         preparedStatement.setString(i, (String) param);
       } else if (param instanceof Integer) {
         preparedStatement.setInt(i, (Integer) param);
+      } else if (param instanceof Long) {
+        preparedStatement.setLong(i, (Long) param);
+      } else if (param instanceof Integer[]) {
+        preparedStatement.setArray(i, preparedStatement.getConnection().createArrayOf("integer", (Integer[]) param));
       } else if (param instanceof BigDecimal) {
         preparedStatement.setBigDecimal(i, (BigDecimal) param);
       } else if (param instanceof Double) {
@@ -350,17 +731,41 @@ public class PostgresConnection implements SQLConnection {
     return preparedStatement;
   }
 
-  PreparedStatement prepareStatementForInsertId(String sql) throws SQLException {
-    checkConnection();
+  private void rollbackQuietly() {
+    try {
+      if (!_connection.isClosed()) {
+        _connection.rollback();
+      }
+    } catch (SQLException e) {
+      debug("Failed to roll back streaming transaction: " + e.getLocalizedMessage());
+    }
+  }
 
-    return _connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+  private void restoreAutoCommit() {
+    try {
+      if (!_connection.isClosed()) {
+        _connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      debug("Failed to restore autocommit after streaming query: " + e.getLocalizedMessage());
+    }
   }
 
   private void updateLastExecuted() {
     lastQueryExecuted = new DateTime();
   }
 
+  /**
+   * True while a transaction or a streaming cursor is open, which reconnecting would silently break.
+   */
+  private boolean hasOpenWork() {
+    return openStreams > 0 || openTransaction != null;
+  }
+
   private boolean isExpired() {
+    if (hasOpenWork()) {
+      return false;
+    }
     DateTime threshold = DateTime.now().minusMinutes(30);
     return threshold.isAfter(lastQueryExecuted);
   }
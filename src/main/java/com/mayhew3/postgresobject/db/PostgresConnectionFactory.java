@@ -28,6 +28,24 @@ public class PostgresConnectionFactory {
     return initiateDBConnect(databaseUrl);
   }
 
+  public static PostgresConnectionPool createConnectionPool(DatabaseEnvironment databaseEnvironment, ConnectionPoolSettings settings) throws MissingEnvException, SQLException {
+    String databaseUrl = databaseEnvironment.getDatabaseUrl();
+    if (databaseUrl == null) {
+      throw new IllegalStateException("Null database URL from database environment: " + databaseEnvironment.getEnvironmentName());
+    }
+    String poolSchemaName = databaseEnvironment.getSchemaName();
+    maybeHandleDrivers();
+    return new PostgresConnectionPool(() -> connectForPool(databaseUrl, poolSchemaName), poolSchemaName, settings);
+  }
+
+  private static PostgresConnection connectForPool(String databaseUrl, String poolSchemaName) throws SQLException {
+    try {
+      return connect(databaseUrl, poolSchemaName);
+    } catch (URISyntaxException e) {
+      throw new SQLException("Invalid database URL: " + e.getLocalizedMessage(), e);
+    }
+  }
+
   private static void maybeHandleDrivers() throws SQLException {
 
     logger.debug("Drivers found: ");
@@ -47,21 +65,25 @@ public class PostgresConnectionFactory {
 
     maybeHandleDrivers();
 
+    return connect(postgresURL, PostgresConnectionFactory.schemaName);
+  }
+
+  private static PostgresConnection connect(String postgresURL, String searchSchema) throws URISyntaxException, SQLException {
     debug("Connecting to: " + postgresURL);
     try {
       Connection connection = DriverManager.getConnection(postgresURL);
 
       // Set search_path if schema is specified to ensure tables are created in the correct schema
-      if (PostgresConnectionFactory.schemaName != null) {
+      if (searchSchema != null) {
         try (var stmt = connection.createStatement()) {
-          stmt.execute("SET search_path TO " + PostgresConnectionFactory.schemaName + ", public");
-          logger.debug("Set search_path to: {}, public", PostgresConnectionFactory.schemaName);
+          stmt.execute("SET search_path TO " + searchSchema + ", public");
+          logger.debug("Set search_path to: {}, public", searchSchema);
         } catch (SQLException e) {
-          logger.warn("Failed to set search_path to {}: {}", PostgresConnectionFactory.schemaName, e.getMessage());
+          logger.warn("Failed to set search_path to {}: {}", searchSchema, e.getMessage());
         }
       }
 
-      return new PostgresConnection(connection, postgresURL, PostgresConnectionFactory.schemaName);
+      return new PostgresConnection(connection, postgresURL, searchSchema);
     } catch (SQLException e) {
       // Only retry with URI parsing if the URL is in URI format (postgres://...) not JDBC format (jdbc:postgresql://...)
       // JDBC URLs already have credentials in query parameters, so this retry logic doesn't apply
@@ -86,8 +108,8 @@ public class PostgresConnectionFactory {
       paramParts.add("sslmode=require");
       paramParts.add("characterEncoding=UTF-8");
 
-      if (PostgresConnectionFactory.schemaName != null) {
-        paramParts.add("currentSchema=" + PostgresConnectionFactory.schemaName);
+      if (searchSchema != null) {
+        paramParts.add("currentSchema=" + searchSchema);
       }
 
       String paramStr = "?" + Joiner.on("&").join(paramParts);
@@ -97,7 +119,7 @@ public class PostgresConnectionFactory {
       logger.info("Connecting to {}...", dbUrl);
 
       Connection connection = DriverManager.getConnection(dbUrl);
-      return new PostgresConnection(connection, dbUrl, PostgresConnectionFactory.schemaName);
+      return new PostgresConnection(connection, dbUrl, searchSchema);
     }
   }
 
@@ -0,0 +1,517 @@
+package com.mayhew3.postgresobject.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mayhew3.postgresobject.dataobject.FieldValue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.*;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Bounded pool of physical Postgres connections, usable anywhere a single {@link SQLConnection} is.
+ *
+ * Each SQLConnection method leases a connection for the length of that one call. The ResultSets returned by the
+ * fetch methods are fully materialized by the driver, so they stay readable after the connection goes back to
+ * the pool. Inside inTransaction(), calls from the same thread all use the connection leased for the transaction.
+ * The methods that hand back a Statement or PreparedStatement can only be called inside inTransaction(), since the
+ * statement is tied to one connection. Other work that needs several statements on one connection should take a
+ * {@link ConnectionLease} with {@link #lease()} instead.
+ *
+ * Idle connections sit in a LIFO deque so the warmest one is handed out first, and a Semaphore caps concurrent
+ * leases at the max size. There is no pool-wide lock.
+ */
+@SuppressWarnings({"rawtypes", "unused"})
+public class PostgresConnectionPool implements SQLConnection {
+
+  private final PostgresConnectionSupplier connectionSupplier;
+  private final String schemaName;
+  private final ConnectionPoolSettings settings;
+
+  private final LinkedBlockingDeque<PooledConnectionEntry> idleConnections = new LinkedBlockingDeque<>();
+  private final Semaphore leasePermits;
+  private final AtomicInteger totalConnections = new AtomicInteger();
+  private final ScheduledExecutorService evictionExecutor;
+  private volatile boolean closed = false;
+
+  // Lease held by inTransaction() on each thread, which that thread's calls use until the transaction ends.
+  private final ThreadLocal<ConnectionLease> transactionLease = new ThreadLocal<>();
+
+  private static final Logger logger = LogManager.getLogger(PostgresConnectionPool.class);
+
+  PostgresConnectionPool(PostgresConnectionSupplier connectionSupplier, String schemaName, ConnectionPoolSettings settings) throws SQLException {
+    Preconditions.checkArgument(settings.getMinSize() >= 0, "Pool min size can't be negative.");
+    Preconditions.checkArgument(settings.getMaxSize() >= 1, "Pool max size must be at least 1.");
+    Preconditions.checkArgument(settings.getMinSize() <= settings.getMaxSize(), "Pool min size can't exceed max size.");
+
+    this.connectionSupplier = connectionSupplier;
+    this.schemaName = schemaName;
+    this.settings = settings;
+    this.leasePermits = new Semaphore(settings.getMaxSize());
+
+    fillToMinimum();
+
+    if (settings.getEvictionIntervalMillis() > 0) {
+      evictionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setDaemon(true)
+          .setNameFormat("postgres-pool-evictor-%d")
+          .build());
+      evictionExecutor.scheduleWithFixedDelay(this::evictIdleConnections,
+          settings.getEvictionIntervalMillis(),
+          settings.getEvictionIntervalMillis(),
+          TimeUnit.MILLISECONDS);
+    } else {
+      evictionExecutor = null;
+    }
+  }
+
+
+  // Leasing
+
+  /**
+   * Borrow one physical connection for exclusive use. Blocks up to the configured max wait if every connection
+   * is already leased.
+   *
+   * @return lease that must be closed to hand the connection back.
+   * @throws SQLTimeoutException if no connection frees up within the max wait.
+   */
+  @NotNull
+  public ConnectionLease lease() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool has been closed.");
+    }
+
+    boolean acquired;
+    try {
+      acquired = leasePermits.tryAcquire(settings.getMaxWaitMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a pooled connection.", e);
+    }
+
+    if (!acquired) {
+      throw new SQLTimeoutException("Timed out after " + settings.getMaxWaitMillis() + "ms waiting for a pooled connection. " +
+          "All " + settings.getMaxSize() + " connections are leased.");
+    }
+
+    try {
+      return new ConnectionLease(this, borrowEntry());
+    } catch (SQLException | RuntimeException e) {
+      leasePermits.release();
+      throw e;
+    }
+  }
+
+  void release(PooledConnectionEntry entry) {
+    try {
+      if (closed) {
+        discard(entry);
+      } else {
+        entry.markReleased(System.currentTimeMillis());
+        idleConnections.offerFirst(entry);
+        // pool may have been closed while we were putting it back
+        if (closed && idleConnections.remove(entry)) {
+          discard(entry);
+        }
+      }
+    } finally {
+      leasePermits.release();
+    }
+  }
+
+  private PooledConnectionEntry borrowEntry() throws SQLException {
+    PooledConnectionEntry entry;
+    while ((entry = idleConnections.pollFirst()) != null) {
+      if (isUsable(entry)) {
+        return entry;
+      }
+      debug("Discarding pooled connection that failed validation.");
+      discard(entry);
+    }
+    return openEntry();
+  }
+
+  private boolean isUsable(PooledConnectionEntry entry) {
+    // cheap local check, so done even when the last full validation is recent
+    if (entry.getConnection().isClosed()) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    if (now - entry.getLastValidated() < settings.getValidationIntervalMillis()) {
+      return true;
+    }
+    boolean valid = entry.getConnection().isValid(settings.getValidationTimeoutSeconds());
+    if (valid) {
+      entry.markValidated(now);
+    }
+    return valid;
+  }
+
+  private PooledConnectionEntry openEntry() throws SQLException {
+    totalConnections.incrementAndGet();
+    try {
+      PostgresConnection connection = connectionSupplier.get();
+      debug("Opened pooled connection. Total: " + totalConnections.get());
+      return new PooledConnectionEntry(connection, System.currentTimeMillis());
+    } catch (SQLException | RuntimeException e) {
+      totalConnections.decrementAndGet();
+      throw e;
+    }
+  }
+
+  private void discard(PooledConnectionEntry entry) {
+    totalConnections.decrementAndGet();
+    try {
+      entry.getConnection().closeConnection();
+    } catch (SQLException e) {
+      debug("Failed to close discarded pooled connection: " + e.getLocalizedMessage());
+    }
+  }
+
+  private void fillToMinimum() throws SQLException {
+    while (!closed && totalConnections.get() < settings.getMinSize()) {
+      idleConnections.offerLast(openEntry());
+    }
+  }
+
+  /**
+   * Close connections that have sat idle past the idle timeout, oldest first, without going below the min size.
+   * Then top the pool back up to the min size. Runs on the evictor thread.
+   */
+  void evictIdleConnections() {
+    long now = System.currentTimeMillis();
+    Iterator<PooledConnectionEntry> oldestFirst = idleConnections.descendingIterator();
+    while (oldestFirst.hasNext() && totalConnections.get() > settings.getMinSize()) {
+      PooledConnectionEntry entry = oldestFirst.next();
+      if (now - entry.getLastReleased() >= settings.getIdleTimeoutMillis() && idleConnections.remove(entry)) {
+        debug("Evicting idle pooled connection.");
+        discard(entry);
+      }
+    }
+
+    try {
+      fillToMinimum();
+    } catch (SQLException | RuntimeException e) {
+      logger.warn("Failed to restore pool to minimum size: {}", e.getMessage());
+    }
+  }
+
+  public int getTotalConnectionCount() {
+    return totalConnections.get();
+  }
+
+  public int getIdleConnectionCount() {
+    return idleConnections.size();
+  }
+
+  public int getLeasedConnectionCount() {
+    return settings.getMaxSize() - leasePermits.availablePermits();
+  }
+
+
+  // SQLConnection, one lease per call
+
+  @Override
+  public DatabaseType getDatabaseType() {
+    return DatabaseType.POSTGRES;
+  }
+
+  @Override
+  public String getSchemaName() {
+    return this.schemaName == null ? "public" : this.schemaName;
+  }
+
+  @Override
+  public <T> T inTransaction(TransactionOptions options, TransactionWork<T> work) throws SQLException {
+    ConnectionLease openLease = transactionLease.get();
+    if (openLease != null) {
+      return openLease.getConnection().inTransaction(options, work);
+    }
+
+    try (ConnectionLease lease = lease()) {
+      transactionLease.set(lease);
+      try {
+        return lease.getConnection().inTransaction(options, work);
+      } finally {
+        transactionLease.remove();
+      }
+    }
+  }
+
+  @Override
+  public boolean isInTransaction() {
+    return transactionLease.get() != null;
+  }
+
+  @Override
+  public void runAfterTransaction(Runnable action) {
+    ConnectionLease openLease = transactionLease.get();
+    if (openLease == null) {
+      action.run();
+    } else {
+      openLease.getConnection().runAfterTransaction(action);
+    }
+  }
+
+  @Override
+  public void runAfterRollback(Runnable action) {
+    ConnectionLease openLease = transactionLease.get();
+    if (openLease != null) {
+      openLease.getConnection().runAfterRollback(action);
+    }
+  }
+
+  /**
+   * The lease of this thread's open transaction, if there is one, or else a new lease for one call.
+   */
+  private ConnectionLease leaseForCall() throws SQLException {
+    ConnectionLease openLease = transactionLease.get();
+    return openLease == null ? lease() : openLease.joined();
+  }
+
+  /**
+   * The lease of this thread's open transaction, for calls that return a statement tied to the connection. Outside
+   * a transaction the connection would go back to the pool while the caller still holds its statement, and another
+   * thread could lease it and use it at the same time.
+   */
+  private ConnectionLease leaseForStatement(String methodName) {
+    ConnectionLease openLease = transactionLease.get();
+    if (openLease == null) {
+      throw new IllegalStateException(methodName + "() returns a statement tied to one pooled connection, so can " +
+          "only be called on the pool inside inTransaction(). Otherwise, take a lease() and use its connection.");
+    }
+    return openLease.joined();
+  }
+
+  @NotNull
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().executeQuery(sql);
+    }
+  }
+
+  /**
+   * Only allowed inside inTransaction().
+   */
+  @NotNull
+  @Override
+  public Statement executeUpdate(String sql) throws SQLException {
+    try (ConnectionLease lease = leaseForStatement("executeUpdate")) {
+      return lease.getConnection().executeUpdate(sql);
+    }
+  }
+
+  /**
+   * Shuts the pool down. Idle connections are closed now; leased ones are closed as their leases are released.
+   */
+  @Override
+  public void closeConnection() {
+    closed = true;
+    if (evictionExecutor != null) {
+      evictionExecutor.shutdownNow();
+    }
+    PooledConnectionEntry entry;
+    while ((entry = idleConnections.pollFirst()) != null) {
+      discard(entry);
+    }
+  }
+
+  @NotNull
+  @Override
+  public ResultSet prepareAndExecuteStatementFetch(String sql, Object... params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().prepareAndExecuteStatementFetch(sql, params);
+    }
+  }
+
+  @NotNull
+  @Override
+  public ResultSet prepareAndExecuteStatementFetch(String sql, List<Object> params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().prepareAndExecuteStatementFetch(sql, params);
+    }
+  }
+
+  @Override
+  public Integer prepareAndExecuteStatementUpdate(String sql, Object... params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().prepareAndExecuteStatementUpdate(sql, params);
+    }
+  }
+
+  @Override
+  public Integer prepareAndExecuteStatementUpdate(String sql, List<Object> params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().prepareAndExecuteStatementUpdate(sql, params);
+    }
+  }
+
+  /**
+   * The lease is held until the last row has been handed to the callback.
+   */
+  @Override
+  public void forEachRow(String sql, RowCallback rowCallback, List<Object> params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      lease.getConnection().forEachRow(sql, rowCallback, params);
+    }
+  }
+
+  @Override
+  public void forEachRow(String sql, int maxRows, RowCallback rowCallback, List<Object> params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      lease.getConnection().forEachRow(sql, maxRows, rowCallback, params);
+    }
+  }
+
+  /**
+   * The lease, and the cursor's transaction, are held until the stream is done. Statements the callback runs
+   * through the pool go out on other connections, outside that transaction.
+   */
+  @Override
+  public void forEachRowStreaming(String sql, int fetchSize, RowCallback rowCallback, List<Object> params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      lease.getConnection().forEachRowStreaming(sql, fetchSize, rowCallback, params);
+    }
+  }
+
+  /**
+   * The connection stays leased until the Stream is closed.
+   */
+  @NotNull
+  @Override
+  public <T> Stream<T> streamRows(String sql, int fetchSize, RowMapper<T> rowMapper, List<Object> params) throws SQLException {
+    ConnectionLease lease = leaseForCall();
+    try {
+      return lease.getConnection().streamRows(sql, fetchSize, rowMapper, params).onClose(lease::close);
+    } catch (SQLException | RuntimeException e) {
+      lease.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Only allowed inside inTransaction().
+   */
+  @NotNull
+  @Override
+  public PreparedStatement prepareStatementNoParams(String sql) throws SQLException {
+    try (ConnectionLease lease = leaseForStatement("prepareStatementNoParams")) {
+      return lease.getConnection().prepareStatementNoParams(sql);
+    }
+  }
+
+  /**
+   * Only allowed inside inTransaction().
+   */
+  @NotNull
+  @Override
+  public PreparedStatement prepareStatementWithParams(String sql, List<Object> params) throws SQLException {
+    try (ConnectionLease lease = leaseForStatement("prepareStatementWithParams")) {
+      return lease.getConnection().prepareStatementWithParams(sql, params);
+    }
+  }
+
+  @NotNull
+  @Override
+  public ResultSet executePreparedStatementWithParams(PreparedStatement preparedStatement, Object... params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().executePreparedStatementWithParams(preparedStatement, params);
+    }
+  }
+
+  @NotNull
+  @Override
+  public ResultSet executePreparedStatementWithParams(PreparedStatement preparedStatement, List<Object> params) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().executePreparedStatementWithParams(preparedStatement, params);
+    }
+  }
+
+  @Override
+  public void executePreparedUpdateWithParams(PreparedStatement preparedStatement, List<Object> paramList) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      lease.getConnection().executePreparedUpdateWithParams(preparedStatement, paramList);
+    }
+  }
+
+  @Override
+  public void executePreparedUpdateWithParams(PreparedStatement preparedStatement, Object... paramList) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      lease.getConnection().executePreparedUpdateWithParams(preparedStatement, paramList);
+    }
+  }
+
+  /**
+   * Only allowed inside inTransaction().
+   */
+  @NotNull
+  @Override
+  public PreparedStatement prepareStatementWithFields(String sql, List<FieldValue> fields) throws SQLException {
+    try (ConnectionLease lease = leaseForStatement("prepareStatementWithFields")) {
+      return lease.getConnection().prepareStatementWithFields(sql, fields);
+    }
+  }
+
+  @Override
+  public int prepareAndExecuteStatementUpdateWithFields(String sql, List<FieldValue> fields) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().prepareAndExecuteStatementUpdateWithFields(sql, fields);
+    }
+  }
+
+  @NotNull
+  @Override
+  public Integer prepareAndExecuteStatementInsertReturnId(String sql, List<FieldValue> fieldValues) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().prepareAndExecuteStatementInsertReturnId(sql, fieldValues);
+    }
+  }
+
+  @NotNull
+  @Override
+  public List<Integer> prepareAndExecuteStatementInsertReturnIds(String sql, List<FieldValue> fieldValues) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().prepareAndExecuteStatementInsertReturnIds(sql, fieldValues);
+    }
+  }
+
+  @Override
+  public int[] prepareAndExecuteStatementBatchUpdateWithFields(String sql, List<List<FieldValue>> fieldValueRows) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().prepareAndExecuteStatementBatchUpdateWithFields(sql, fieldValueRows);
+    }
+  }
+
+
+  @Override
+  public void executePreparedUpdateWithFields(PreparedStatement preparedStatement, List<FieldValue> fieldValues) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      lease.getConnection().executePreparedUpdateWithFields(preparedStatement, fieldValues);
+    }
+  }
+
+  @Override
+  public ResultSet getFKInfoForTable(String tableName) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().getFKInfoForTable(tableName);
+    }
+  }
+
+  @Override
+  public ResultSet getIndexesForTable(String tableName) throws SQLException {
+    try (ConnectionLease lease = leaseForCall()) {
+      return lease.getConnection().getIndexesForTable(tableName);
+    }
+  }
+
+  private void debug(Object message) {
+    logger.debug(message);
+  }
+}
@@ -0,0 +1,8 @@
+package com.mayhew3.postgresobject.db;
+
+import java.sql.SQLException;
+
+@FunctionalInterface
+interface PostgresConnectionSupplier {
+  PostgresConnection get() throws SQLException;
+}
@@ -0,0 +1,154 @@
+package com.mayhew3.postgresobject.db;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of PreparedStatements belonging to one physical connection, keyed by SQL text plus the flags the
+ * statement was prepared with.
+ *
+ * A statement is removed from the cache while it is checked out, so two callers never share parameters or a
+ * ResultSet. Checking it back in makes it the most recently used entry; the least recently used one is closed
+ * once the cache is over its max size.
+ */
+@SuppressWarnings("unused")
+public class PreparedStatementCache {
+  static final int DEFAULT_MAX_SIZE = 64;
+
+  private final int maxSize;
+  private final LinkedHashMap<StatementKey, PreparedStatement> statements;
+
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long evictionCount = 0;
+
+  PreparedStatementCache(int maxSize) {
+    this.maxSize = maxSize;
+    this.statements = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Take a statement for the given SQL out of the cache, or prepare a new one on the connection if none is free.
+   *
+   * @param connection Connection to prepare on when there is a cache miss.
+   * @param sql SQL text of the statement.
+   * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS.
+   * @return PreparedStatement owned by the caller until it is checked back in or discarded.
+   */
+  @NotNull
+  synchronized PreparedStatement checkout(Connection connection, String sql, int autoGeneratedKeys) throws SQLException {
+    PreparedStatement cached = statements.remove(new StatementKey(sql, autoGeneratedKeys));
+    if (cached != null) {
+      hitCount++;
+      return cached;
+    }
+    missCount++;
+    if (autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS) {
+      return connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+    } else {
+      return connection.prepareStatement(sql);
+    }
+  }
+
+  /**
+   * Hand a statement from checkout() back for reuse. Closes it instead if caching is disabled or an identical
+   * statement was checked in first.
+   */
+  synchronized void checkin(String sql, int autoGeneratedKeys, PreparedStatement preparedStatement) {
+    if (maxSize <= 0) {
+      closeQuietly(preparedStatement);
+      return;
+    }
+
+    StatementKey key = new StatementKey(sql, autoGeneratedKeys);
+    if (statements.containsKey(key)) {
+      closeQuietly(preparedStatement);
+      return;
+    }
+
+    statements.put(key, preparedStatement);
+
+    if (statements.size() > maxSize) {
+      Map.Entry<StatementKey, PreparedStatement> eldest = statements.entrySet().iterator().next();
+      statements.remove(eldest.getKey());
+      closeQuietly(eldest.getValue());
+      evictionCount++;
+    }
+  }
+
+  /**
+   * Close a checked-out statement that shouldn't be reused, e.g. after its execution failed.
+   */
+  void discard(PreparedStatement preparedStatement) {
+    closeQuietly(preparedStatement);
+  }
+
+  /**
+   * Close and drop every cached statement. Called whenever the underlying connection is closed or replaced.
+   */
+  void clear() {
+    List<PreparedStatement> toClose;
+    synchronized (this) {
+      toClose = new ArrayList<>(statements.values());
+      statements.clear();
+    }
+    toClose.forEach(this::closeQuietly);
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  public synchronized int size() {
+    return statements.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  private void closeQuietly(PreparedStatement preparedStatement) {
+    try {
+      preparedStatement.close();
+    } catch (SQLException ignored) {}
+  }
+
+  private static final class StatementKey {
+    private final String sql;
+    private final int autoGeneratedKeys;
+
+    private StatementKey(String sql, int autoGeneratedKeys) {
+      this.sql = sql;
+      this.autoGeneratedKeys = autoGeneratedKeys;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof StatementKey)) return false;
+      StatementKey other = (StatementKey) o;
+      return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * sql.hashCode() + autoGeneratedKeys;
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package com.mayhew3.postgresobject.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Handles the current row of a ResultSet without collecting anything. The ResultSet is closed by the caller
+ * after the last row.
+ */
+@FunctionalInterface
+public interface RowCallback {
+  void processRow(ResultSet resultSet) throws SQLException;
+}
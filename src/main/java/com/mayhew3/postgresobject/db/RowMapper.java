@@ -0,0 +1,29 @@
+package com.mayhew3.postgresobject.db;
+
+import com.mayhew3.postgresobject.dataobject.DataObject;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.function.Supplier;
+
+/**
+ * Turns the current row of a ResultSet into a value. Used by the query methods on {@link SQLConnection}, which
+ * own the statement and ResultSet and close both once mapping is done, so implementations shouldn't keep a
+ * reference to the ResultSet.
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+  T mapRow(ResultSet resultSet) throws SQLException;
+
+  /**
+   * @param factory Creates an empty entity per row, e.g. MyObject::new or an ArchiveableFactory's createEntity.
+   * @return RowMapper that hydrates each row into a new DataObject with initializeFromDBObject.
+   */
+  static <T extends DataObject> RowMapper<T> forDataObject(Supplier<T> factory) {
+    return resultSet -> {
+      T dataObject = factory.get();
+      dataObject.initializeFromDBObject(resultSet);
+      return dataObject;
+    };
+  }
+}
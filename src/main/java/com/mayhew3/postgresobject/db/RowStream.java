@@ -0,0 +1,104 @@
+package com.mayhew3.postgresobject.db;
+
+import com.mayhew3.postgresobject.exception.UncheckedSQLException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Stream over an open ResultSet, mapping a row only when the stream asks for the next element. Closing the stream,
+ * or reading past the last row, closes the ResultSet and statement and then runs the connection's own cleanup, once.
+ */
+final class RowStream<T> extends Spliterators.AbstractSpliterator<T> {
+
+  /**
+   * Connection-side cleanup once the cursor is closed, e.g. ending the transaction the cursor needed.
+   */
+  @FunctionalInterface
+  interface Release {
+    void release(boolean succeeded) throws SQLException;
+  }
+
+  private final PreparedStatement preparedStatement;
+  private final ResultSet resultSet;
+  private final RowMapper<T> rowMapper;
+  private final Release release;
+
+  private boolean closed = false;
+  private boolean failed = false;
+
+  private RowStream(PreparedStatement preparedStatement, ResultSet resultSet, RowMapper<T> rowMapper, Release release) {
+    super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+    this.preparedStatement = preparedStatement;
+    this.resultSet = resultSet;
+    this.rowMapper = rowMapper;
+    this.release = release;
+  }
+
+  static <T> Stream<T> create(PreparedStatement preparedStatement, ResultSet resultSet, RowMapper<T> rowMapper, Release release) {
+    RowStream<T> rowStream = new RowStream<>(preparedStatement, resultSet, rowMapper, release);
+    return StreamSupport.stream(rowStream, false).onClose(rowStream::close);
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (closed) {
+      return false;
+    }
+    // A failure mapping the row, or anywhere downstream in the pipeline, rolls back the stream's transaction, as
+    // forEachRowStreaming() does when its callback throws.
+    try {
+      if (!resultSet.next()) {
+        close();
+        return false;
+      }
+      action.accept(rowMapper.mapRow(resultSet));
+      return true;
+    } catch (SQLException e) {
+      fail();
+      throw new UncheckedSQLException(e);
+    } catch (RuntimeException | Error e) {
+      fail();
+      throw e;
+    }
+  }
+
+  private void fail() {
+    failed = true;
+    close();
+  }
+
+  private void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    SQLException firstFailure = null;
+    try {
+      resultSet.close();
+    } catch (SQLException e) {
+      firstFailure = e;
+    }
+    try {
+      preparedStatement.close();
+    } catch (SQLException e) {
+      firstFailure = firstFailure == null ? e : firstFailure;
+    }
+    try {
+      release.release(!failed && firstFailure == null);
+    } catch (SQLException e) {
+      firstFailure = firstFailure == null ? e : firstFailure;
+    }
+
+    if (firstFailure != null && !failed) {
+      throw new UncheckedSQLException(firstFailure);
+    }
+  }
+}
@@ -1,13 +1,17 @@
 package com.mayhew3.postgresobject.db;
 
 import com.mayhew3.postgresobject.dataobject.FieldValue;
+import com.google.common.collect.Lists;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 @SuppressWarnings({"JavaDoc", "unused", "UnusedReturnValue", "rawtypes"})
 public interface SQLConnection {
@@ -27,6 +31,61 @@ public interface SQLConnection {
   void closeConnection() throws SQLException;
 
 
+  // Transactions
+
+  /**
+   * Run work in one transaction: every statement it runs on this connection, including DataObject commits, is
+   * committed together at the end, or rolled back together if it throws. One commit instead of one per statement
+   * also means one WAL flush on Postgres instead of one per statement.
+   *
+   * Called inside another transaction on this connection, the work joins the open one, which commits or rolls
+   * back as a whole. A connection lost in the middle of a transaction isn't silently replaced, since statements
+   * after the reconnect would run outside it. The next statement throws instead, and the transaction rolls back.
+   *
+   * On a PostgresConnectionPool, one connection is leased for the whole transaction, and calls to the pool from
+   * the same thread go to it.
+   *
+   * @param options Isolation level and access mode. Can't be changed by a nested call.
+   * @param work Statements to run. Returns the result of inTransaction.
+   * @throws SQLException Whatever the work threw, after rolling back, or a failure to commit.
+   */
+  <T> T inTransaction(TransactionOptions options, TransactionWork<T> work) throws SQLException;
+
+  default <T> T inTransaction(TransactionWork<T> work) throws SQLException {
+    return inTransaction(new TransactionOptions(), work);
+  }
+
+  default void inTransaction(TransactionOptions options, TransactionCallback callback) throws SQLException {
+    inTransaction(options, () -> {
+      callback.execute();
+      return null;
+    });
+  }
+
+  default void inTransaction(TransactionCallback callback) throws SQLException {
+    inTransaction(new TransactionOptions(), callback);
+  }
+
+  /**
+   * @return True while inTransaction() work is running on this connection (on a pool, on this thread), or while a
+   * streaming query that opened its own transaction is open on it. inTransaction() work inside either joins it.
+   */
+  boolean isInTransaction();
+
+  /**
+   * Run an action once the inTransaction() work open on this connection ends, whether it commits or rolls back, or
+   * right away if none is open. Use it for work that must only happen after changes are visible to other connections.
+   */
+  void runAfterTransaction(Runnable action);
+
+  /**
+   * Run an action if the inTransaction() work open on this connection rolls back, before any runAfterTransaction()
+   * actions. Actions run newest first, so each can undo what was done after the ones before it. Dropped if the
+   * transaction commits, and outside a transaction, since there is nothing to roll back.
+   */
+  void runAfterRollback(Runnable action);
+
+
   // Full lifecycle operations using PreparedStatement
 
   /**
@@ -34,9 +93,8 @@ public interface SQLConnection {
    * - Plug given parameters into PreparedStatement.
    * - Execute PreparedStatement against DB.
    *
-   * (Note: PreparedStatement is not closed because that would close the associated ResultSet. If this is
-   * an issue, try using the methods to get a handle on the PreparedStatement so close() can be called when
-   * finished.)
+   * (Note: PreparedStatement is set to close on completion, so closing the returned ResultSet closes it too.
+   * Prefer query() or forEachRow(), which close both for you.)
    *
    * @param sql SQL query that should be run. Should be SELECT query.
    * @param params Vararg of parameters that should be plugged into query.
@@ -51,9 +109,8 @@ public interface SQLConnection {
    * - Plug given parameters into PreparedStatement.
    * - Execute PreparedStatement against DB.
    *
-   * (Note: PreparedStatement is not closed because that would close the associated ResultSet. If this is
-   * an issue, try using the methods to get a handle on the PreparedStatement so close() can be called when
-   * finished.)
+   * (Note: PreparedStatement is set to close on completion, so closing the returned ResultSet closes it too.
+   * Prefer query() or forEachRow(), which close both for you.)
    *
    * @param sql SQL query that should be run. Should be SELECT query.
    * @param params List of parameters that should be plugged into query.
@@ -90,6 +147,125 @@ public interface SQLConnection {
   Integer prepareAndExecuteStatementUpdate(String sql, List<Object> params) throws SQLException;
 
 
+  // Row-mapping queries. The PreparedStatement and ResultSet are closed before these return.
+
+  /**
+   * - Create PreparedStatement using given SQL.
+   * - Plug given parameters into PreparedStatement.
+   * - Execute PreparedStatement against DB, and hand each row to the callback.
+   * - Close ResultSet and PreparedStatement, even if the callback throws.
+   *
+   * @param sql SQL query that should be run. Should be SELECT query.
+   * @param rowCallback Called once per row, with the ResultSet positioned on that row.
+   * @param params List of parameters that should be plugged into query.
+   * @throws SQLException
+   */
+  void forEachRow(String sql, RowCallback rowCallback, List<Object> params) throws SQLException;
+
+  /**
+   * Same as forEachRow(String, RowCallback, List), with vararg parameters.
+   */
+  default void forEachRow(String sql, RowCallback rowCallback, Object... params) throws SQLException {
+    forEachRow(sql, rowCallback, Lists.newArrayList(params));
+  }
+
+  /**
+   * Same as forEachRow(String, RowCallback, List), but the driver is told to stop after maxRows rows, so the rest
+   * of the result is never sent.
+   *
+   * @param maxRows Max number of rows to hand to the callback. Zero means no limit.
+   */
+  void forEachRow(String sql, int maxRows, RowCallback rowCallback, List<Object> params) throws SQLException;
+
+  /**
+   * - Create PreparedStatement using given SQL.
+   * - Plug given parameters into PreparedStatement.
+   * - Execute PreparedStatement against DB, and map each row with the RowMapper.
+   * - Close ResultSet and PreparedStatement.
+   *
+   * @param sql SQL query that should be run. Should be SELECT query.
+   * @param rowMapper Converts each row to a result. See RowMapper.forDataObject for DataObjects.
+   * @param params List of parameters that should be plugged into query.
+   * @return Mapped rows, in ResultSet order.
+   * @throws SQLException
+   */
+  @NotNull
+  default <T> List<T> query(String sql, RowMapper<T> rowMapper, List<Object> params) throws SQLException {
+    List<T> results = new ArrayList<>();
+    forEachRow(sql, resultSet -> results.add(rowMapper.mapRow(resultSet)), params);
+    return results;
+  }
+
+  /**
+   * Same as query(String, RowMapper, List), with vararg parameters.
+   */
+  @NotNull
+  default <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... params) throws SQLException {
+    return query(sql, rowMapper, Lists.newArrayList(params));
+  }
+
+  /**
+   * Same as query(String, RowMapper, Object...), but only the first row is mapped.
+   *
+   * @return Mapped first row, or null if the query returned no rows.
+   */
+  @Nullable
+  default <T> T queryForObject(String sql, RowMapper<T> rowMapper, Object... params) throws SQLException {
+    List<T> first = new ArrayList<>(1);
+    forEachRow(sql, 1, resultSet -> first.add(rowMapper.mapRow(resultSet)), Lists.newArrayList(params));
+    return first.isEmpty() ? null : first.get(0);
+  }
+
+  /**
+   * - Create forward-only, read-only PreparedStatement using given SQL.
+   * - Plug given parameters into PreparedStatement.
+   * - Execute PreparedStatement against DB, fetching rows from the server in batches rather than all at once, and
+   *   hand each row to the callback.
+   * - Close ResultSet and PreparedStatement, even if the callback throws.
+   *
+   * Use for scans too large to hold in memory. On Postgres this runs inside a transaction (joined if one is already
+   * open on this connection, otherwise started and committed here), because the driver only uses a cursor with
+   * autocommit off. Statements the callback runs on this connection belong to that transaction too.
+   * On MySQL the driver's row-by-row streaming mode is used, so no other statement can run on this connection until
+   * the stream is done.
+   *
+   * @param sql SQL query that should be run. Should be SELECT query.
+   * @param fetchSize Number of rows to fetch per round trip. (Ignored by MySQL, which always streams one row at a time.)
+   * @param rowCallback Called once per row, with the ResultSet positioned on that row.
+   * @param params List of parameters that should be plugged into query.
+   * @throws SQLException
+   */
+  void forEachRowStreaming(String sql, int fetchSize, RowCallback rowCallback, List<Object> params) throws SQLException;
+
+  /**
+   * Same as forEachRowStreaming(String, int, RowCallback, List), with vararg parameters.
+   */
+  default void forEachRowStreaming(String sql, int fetchSize, RowCallback rowCallback, Object... params) throws SQLException {
+    forEachRowStreaming(sql, fetchSize, rowCallback, Lists.newArrayList(params));
+  }
+
+  /**
+   * - Create forward-only, read-only PreparedStatement using given SQL.
+   * - Plug given parameters into PreparedStatement.
+   * - Execute PreparedStatement against DB, and return a Stream that fetches rows from the server in batches and maps
+   *   each row only when the Stream asks for it.
+   *
+   * Pull-based version of forEachRowStreaming(), with the same transaction behavior: on Postgres the cursor holds a
+   * transaction open, and on MySQL no other statement can run on this connection, until the Stream is closed. Close
+   * it with try-with-resources. Reading past the last row closes it too, but a Stream cut short by limit() or
+   * findFirst() is only closed by close(). SQLExceptions while reading rows are thrown as UncheckedSQLException.
+   *
+   * @param sql SQL query that should be run. Should be SELECT query.
+   * @param fetchSize Number of rows to fetch per round trip. (Ignored by MySQL, which always streams one row at a time.)
+   * @param rowMapper Converts each row to a result. See RowMapper.forDataObject for DataObjects.
+   * @param params List of parameters that should be plugged into query.
+   * @return Lazy, sequential Stream of mapped rows, in ResultSet order.
+   * @throws SQLException
+   */
+  @NotNull
+  <T> Stream<T> streamRows(String sql, int fetchSize, RowMapper<T> rowMapper, List<Object> params) throws SQLException;
+
+
 
 
   // Operations with user handle on PreparedStatement
@@ -183,9 +359,10 @@ public interface SQLConnection {
    *
    * @param sql SQL query that should be run. Should be INSERT or UPDATE query.
    * @param fields List of FieldValues that should be plugged into query.
+   * @return Number of rows affected.
    * @throws SQLException
    */
-  void prepareAndExecuteStatementUpdateWithFields(String sql, List<FieldValue> fields) throws SQLException;
+  int prepareAndExecuteStatementUpdateWithFields(String sql, List<FieldValue> fields) throws SQLException;
 
   /**
    * - Create PreparedStatement using given SQL, with Generated Keys enabled.
@@ -202,6 +379,32 @@ public interface SQLConnection {
   @NotNull
   Integer prepareAndExecuteStatementInsertReturnId(String sql, List<FieldValue> fieldValues) throws SQLException;
 
+  /**
+   * - Create PreparedStatement using given multi-row INSERT SQL.
+   * - Plug given parameters into PreparedStatement, row after row.
+   * - Execute PreparedStatement against DB.
+   * - Return IDs of all newly inserted rows.
+   *
+   * @param sql SQL query that should be run. Should be INSERT query with one VALUES tuple per row, and no RETURNING clause.
+   * @param fieldValues FieldValues of every row, in the same order as the VALUES tuples.
+   * @return IDs of newly inserted rows, in the same order as the VALUES tuples.
+   * @throws SQLException
+   */
+  @NotNull
+  List<Integer> prepareAndExecuteStatementInsertReturnIds(String sql, List<FieldValue> fieldValues) throws SQLException;
+
+  /**
+   * - Create PreparedStatement using given SQL.
+   * - Plug each row of FieldValues into PreparedStatement, and add it to the batch.
+   * - Execute batch against DB in one round trip.
+   *
+   * @param sql SQL query that should be run. Should be INSERT or UPDATE query.
+   * @param fieldValueRows One list of FieldValues per execution of the statement.
+   * @return Number of rows affected by each execution, in the same order as the given rows.
+   * @throws SQLException
+   */
+  int[] prepareAndExecuteStatementBatchUpdateWithFields(String sql, List<List<FieldValue>> fieldValueRows) throws SQLException;
+
   /**
    * - Plug given parameters into given PreparedStatement.
    * - Execute PreparedStatement. (NOTE: doesn't close PreparedStatement. Be sure to close it when done.)
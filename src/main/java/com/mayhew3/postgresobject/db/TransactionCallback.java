@@ -0,0 +1,11 @@
+package com.mayhew3.postgresobject.db;
+
+import java.sql.SQLException;
+
+/**
+ * Statements to run in one transaction with {@link SQLConnection#inTransaction(TransactionCallback)}, with no result.
+ */
+@FunctionalInterface
+public interface TransactionCallback {
+  void execute() throws SQLException;
+}
@@ -0,0 +1,59 @@
+package com.mayhew3.postgresobject.db;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+
+/**
+ * Isolation level and access mode for {@link SQLConnection#inTransaction(TransactionOptions, TransactionWork)}.
+ * Defaults to the database's default isolation level (READ COMMITTED on Postgres, REPEATABLE READ on MySQL) and
+ * read-write; override with the with* methods.
+ */
+@SuppressWarnings("unused")
+public class TransactionOptions {
+
+  public enum Isolation {
+    READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+    REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+    SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+    private final int jdbcLevel;
+
+    Isolation(int jdbcLevel) {
+      this.jdbcLevel = jdbcLevel;
+    }
+
+    int getJdbcLevel() {
+      return jdbcLevel;
+    }
+  }
+
+  private Isolation isolation;
+  private boolean readOnly = false;
+
+  /**
+   * @param isolation Isolation level for the transaction, or null for the database's default.
+   */
+  public TransactionOptions withIsolation(@Nullable Isolation isolation) {
+    this.isolation = isolation;
+    return this;
+  }
+
+  /**
+   * @param readOnly True to reject writes in the transaction. Lets Postgres skip some bookkeeping, and with
+   *                 SERIALIZABLE, lets it run without risk of serialization failures.
+   */
+  public TransactionOptions withReadOnly(boolean readOnly) {
+    this.readOnly = readOnly;
+    return this;
+  }
+
+  @Nullable
+  public Isolation getIsolation() {
+    return isolation;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+}
@@ -0,0 +1,11 @@
+package com.mayhew3.postgresobject.db;
+
+import java.sql.SQLException;
+
+/**
+ * Statements to run in one transaction with {@link SQLConnection#inTransaction(TransactionWork)}, returning a result.
+ */
+@FunctionalInterface
+public interface TransactionWork<T> {
+  T execute() throws SQLException;
+}
@@ -0,0 +1,58 @@
+package com.mayhew3.postgresobject.exception;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thrown when committing a DataObject with a version field, if its row was updated or deleted by someone else since
+ * the object was loaded. Nothing was written for the listed rows. Reload them, reapply the change and commit again.
+ */
+public class OptimisticLockException extends SQLException {
+  private final Map<String, List<Integer>> idsByTable;
+
+  public OptimisticLockException(String tableName, List<Integer> ids) {
+    this(Collections.singletonMap(tableName, ids));
+  }
+
+  /**
+   * @param idsByTable Ids of the rows that weren't updated, by table, in the order the tables were committed.
+   */
+  public OptimisticLockException(Map<String, List<Integer>> idsByTable) {
+    super(createMessage(idsByTable));
+    this.idsByTable = new LinkedHashMap<>();
+    idsByTable.forEach((tableName, ids) -> this.idsByTable.put(tableName, new ArrayList<>(ids)));
+  }
+
+  private static String createMessage(Map<String, List<Integer>> idsByTable) {
+    List<String> tableMessages = new ArrayList<>();
+    idsByTable.forEach((tableName, ids) -> tableMessages.add("Row(s) " + ids + " of table " + tableName));
+    return String.join(", ", tableMessages) + " were changed or deleted since they were loaded.";
+  }
+
+  /**
+   * @return First table with rows that weren't updated. See getIdsByTable() when several tables were committed.
+   */
+  public String getTableName() {
+    return idsByTable.keySet().iterator().next();
+  }
+
+  /**
+   * @return Ids of the rows of getTableName() that weren't updated.
+   */
+  public List<Integer> getIds() {
+    return new ArrayList<>(idsByTable.get(getTableName()));
+  }
+
+  /**
+   * @return Ids of the rows that weren't updated, by table.
+   */
+  public Map<String, List<Integer>> getIdsByTable() {
+    Map<String, List<Integer>> copy = new LinkedHashMap<>();
+    idsByTable.forEach((tableName, ids) -> copy.put(tableName, new ArrayList<>(ids)));
+    return copy;
+  }
+}
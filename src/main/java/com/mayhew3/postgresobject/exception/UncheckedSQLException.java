@@ -0,0 +1,17 @@
+package com.mayhew3.postgresobject.exception;
+
+import java.sql.SQLException;
+
+/**
+ * Wraps a SQLException thrown where a checked exception can't be, like inside a Stream of query results.
+ */
+public class UncheckedSQLException extends RuntimeException {
+  public UncheckedSQLException(SQLException cause) {
+    super(cause.getMessage(), cause);
+  }
+
+  @Override
+  public synchronized SQLException getCause() {
+    return (SQLException) super.getCause();
+  }
+}
@@ -0,0 +1,103 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CopyBinaryFormatTest {
+
+  @Test
+  public void testNull() throws IOException {
+    assertThat(encode(out -> CopyBinaryFormat.writeText(out, null)))
+        .isEqualTo(bytes(0xFF, 0xFF, 0xFF, 0xFF));
+  }
+
+  @Test
+  public void testIntegerSizes() throws IOException {
+    assertThat(encode(out -> CopyBinaryFormat.writeInteger(out, 258, IntegerSize.SMALLINT)))
+        .isEqualTo(bytes(0, 0, 0, 2, 0x01, 0x02));
+    assertThat(encode(out -> CopyBinaryFormat.writeInteger(out, -1, IntegerSize.INTEGER)))
+        .isEqualTo(bytes(0, 0, 0, 4, 0xFF, 0xFF, 0xFF, 0xFF));
+    assertThat(encode(out -> CopyBinaryFormat.writeInteger(out, 1, IntegerSize.BIGINT)))
+        .isEqualTo(bytes(0, 0, 0, 8, 0, 0, 0, 0, 0, 0, 0, 1));
+  }
+
+  @Test
+  public void testSmallintOverflowRejected() {
+    assertThrows(IllegalStateException.class, () -> encode(out -> CopyBinaryFormat.writeInteger(out, 40000, IntegerSize.SMALLINT)));
+  }
+
+  @Test
+  public void testTextIsUtf8() throws IOException {
+    assertThat(encode(out -> CopyBinaryFormat.writeText(out, "é")))
+        .isEqualTo(bytes(0, 0, 0, 2, 0xC3, 0xA9));
+  }
+
+  @Test
+  public void testNumeric() throws IOException {
+    // 12.34 -> digits [12, 3400], weight 0, positive, scale 2
+    assertThat(encode(out -> CopyBinaryFormat.writeNumeric(out, new BigDecimal("12.34"))))
+        .isEqualTo(bytes(0, 0, 0, 12, 0, 2, 0, 0, 0, 0, 0, 2, 0, 12, 0x0D, 0x48));
+
+    // -0.0012 -> digits [12], weight -1, negative, scale 4
+    assertThat(encode(out -> CopyBinaryFormat.writeNumeric(out, new BigDecimal("-0.0012"))))
+        .isEqualTo(bytes(0, 0, 0, 10, 0, 1, 0xFF, 0xFF, 0x40, 0x00, 0, 4, 0, 12));
+
+    // 100000000 -> digits [1], weight 2 (trailing zero digits dropped), scale 0
+    assertThat(encode(out -> CopyBinaryFormat.writeNumeric(out, new BigDecimal("1E+8"))))
+        .isEqualTo(bytes(0, 0, 0, 10, 0, 1, 0, 2, 0, 0, 0, 0, 0, 1));
+
+    // 0.00 -> no digits, scale 2
+    assertThat(encode(out -> CopyBinaryFormat.writeNumeric(out, new BigDecimal("0.00"))))
+        .isEqualTo(bytes(0, 0, 0, 8, 0, 0, 0, 0, 0, 0, 0, 2));
+  }
+
+  @Test
+  public void testDateIsDaysSince2000() throws IOException {
+    Date date = Date.from(LocalDate.of(2000, 1, 3).atStartOfDay(ZoneId.systemDefault()).toInstant());
+
+    assertThat(encode(out -> CopyBinaryFormat.writeDate(out, date)))
+        .isEqualTo(bytes(0, 0, 0, 4, 0, 0, 0, 2));
+  }
+
+  @Test
+  public void testTimestampIsMicrosSince2000() throws IOException {
+    Timestamp timestamp = Timestamp.from(Instant.parse("2000-01-01T00:00:01.000002Z"));
+
+    assertThat(encode(out -> CopyBinaryFormat.writeTimestamp(out, timestamp)))
+        .isEqualTo(bytes(0, 0, 0, 8, 0, 0, 0, 0, 0, 0x0F, 0x42, 0x42));
+  }
+
+  // utility methods
+
+  private interface Encoder {
+    void encode(DataOutputStream out) throws IOException;
+  }
+
+  private byte[] encode(Encoder encoder) throws IOException {
+    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(byteStream);
+    encoder.encode(out);
+    out.flush();
+    return byteStream.toByteArray();
+  }
+
+  private byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,156 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.RowMapper;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DataObjectCacheTest {
+
+  private SQLConnection connection;
+  private DataObjectCache<DataObjectMock> cache;
+  private List<DataObjectMock> rows;
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    connection = mock(SQLConnection.class);
+    rows = new ArrayList<>();
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenAnswer(invocation -> new ArrayList<>(rows));
+
+    cache = new DataObjectCache<>(connection, DataObjectMock::new, 100, Duration.ofMinutes(5));
+  }
+
+  @AfterEach
+  public void tearDown() {
+    cache.close();
+  }
+
+  @Test
+  public void testRepeatedGetQueriesOnce() throws SQLException {
+    DataObjectMock existing = DataObjectMock.loaded(3);
+    rows.add(existing);
+
+    assertThat(cache.get(3))
+        .isSameAs(existing);
+    assertThat(cache.get(3))
+        .isSameAs(existing);
+
+    verify(connection, times(1)).query(anyString(), any(RowMapper.class), anyList());
+    assertThat(cache.getStats().hitCount())
+        .isEqualTo(1L);
+    assertThat(cache.getStats().missCount())
+        .isEqualTo(1L);
+  }
+
+  @Test
+  public void testMissingRowCachedAsAbsent() throws SQLException {
+    assertThat(cache.get(3))
+        .isNull();
+    assertThat(cache.get(3))
+        .isNull();
+
+    verify(connection, times(1)).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testGetAllLoadsMissesInOneQuery() throws SQLException {
+    DataObjectMock first = DataObjectMock.loaded(1);
+    DataObjectMock second = DataObjectMock.loaded(2);
+    rows.addAll(Lists.newArrayList(first, second));
+
+    List<DataObjectMock> found = cache.getAll(Arrays.asList(2, 1, 9));
+
+    assertThat(found)
+        .containsExactly(second, first);
+    verify(connection, times(1)).query(endsWith("= ANY(?)"), any(RowMapper.class), anyList());
+
+    assertThat(cache.get(9))
+        .as("Expect ids with no row to be cached as absent.")
+        .isNull();
+    verify(connection, times(1)).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testCommitInvalidatesCachedRow() throws SQLException {
+    DataObjectMock existing = DataObjectMock.loaded(3);
+    rows.add(existing);
+
+    DataObjectMock cached = cache.get(3);
+    cached.kernels.changeValue(12);
+    cached.commit(connection);
+
+    cache.get(3);
+
+    verify(connection, times(2)).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testCommitInTransactionInvalidatesAgainWhenTransactionEnds() throws SQLException {
+    List<Runnable> afterTransaction = new ArrayList<>();
+    when(connection.isInTransaction()).thenReturn(true);
+    doAnswer(invocation -> afterTransaction.add(invocation.getArgument(0)))
+        .when(connection).runAfterTransaction(any(Runnable.class));
+
+    rows.add(DataObjectMock.loaded(3));
+
+    DataObjectMock cached = cache.get(3);
+    cached.kernels.changeValue(12);
+    cached.commit(connection);
+
+    // Before the commit, another thread loads the old row again.
+    cache.get(3);
+    cache.get(3);
+    verify(connection, times(2)).query(anyString(), any(RowMapper.class), anyList());
+
+    assertThat(afterTransaction)
+        .hasSize(1);
+    afterTransaction.forEach(Runnable::run);
+
+    cache.get(3);
+    verify(connection, times(3)).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testInsertInvalidatesCachedAbsence() throws SQLException {
+    when(connection.prepareAndExecuteStatementInsertReturnId(anyString(), anyList())).thenReturn(3);
+    assertThat(cache.get(3))
+        .isNull();
+
+    DataObjectMock inserted = new DataObjectMock();
+    inserted.initializeForInsert();
+    inserted.title.changeValue("New");
+    inserted.commit(connection);
+    rows.add(inserted);
+
+    assertThat(cache.get(3))
+        .isSameAs(inserted);
+  }
+
+  @Test
+  public void testInvalidateForcesReload() throws SQLException {
+    rows.add(DataObjectMock.loaded(3));
+
+    cache.get(3);
+    cache.invalidate(3);
+    cache.get(3);
+
+    verify(connection, times(2)).query(anyString(), any(RowMapper.class), anyList());
+    assertThat(cache.getStats().loadCount())
+        .isEqualTo(2L);
+  }
+
+}
@@ -0,0 +1,162 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.CopyInWriter;
+import com.mayhew3.postgresobject.db.PostgresConnection;
+import com.mayhew3.postgresobject.db.RowMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DataObjectCopyLoaderTest {
+
+  private PostgresConnection connection;
+  private List<String> copyStatements;
+  private List<byte[]> copyData;
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    connection = mock(PostgresConnection.class);
+    copyStatements = new ArrayList<>();
+    copyData = new ArrayList<>();
+
+    when(connection.copyIn(anyString(), any(CopyInWriter.class))).thenAnswer(invocation -> {
+      ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+      CopyInWriter writer = invocation.getArgument(1);
+      writer.write(byteStream);
+      copyStatements.add(invocation.getArgument(0));
+      copyData.add(byteStream.toByteArray());
+      return (long) countTuples(byteStream.toByteArray());
+    });
+  }
+
+  @Test
+  public void testObjectsWithSameColumnsShareOneCopy() throws SQLException, IOException {
+    List<DataObjectMock> dataObjects = Lists.newArrayList(newMock("First", 1), newMock("Second", 2));
+
+    long rowsCopied = new DataObjectCopyLoader(connection).load(dataObjects);
+
+    assertThat(rowsCopied)
+        .isEqualTo(2L);
+    assertThat(copyStatements)
+        .containsExactly("COPY test (\"date_added\", \"title\", \"kernels\") FROM STDIN (FORMAT binary)");
+    assertThat(countTuples(copyData.get(0)))
+        .isEqualTo(2);
+
+    for (DataObjectMock dataObject : dataObjects) {
+      assertThat(dataObject.isForUpdate())
+          .as("Expect loaded objects to switch to UPDATE mode, as after commit().")
+          .isTrue();
+      assertThat(dataObject.title.isChanged())
+          .isFalse();
+    }
+  }
+
+  @Test
+  public void testObjectsWithDifferentColumnsGetSeparateCopies() throws SQLException {
+    DataObjectMock withKernels = newMock("First", 1);
+    DataObjectMock withoutKernels = new DataObjectMock();
+    withoutKernels.initializeForInsert();
+    withoutKernels.title.changeValue("Second");
+
+    new DataObjectCopyLoader(connection).load(Lists.newArrayList(withKernels, withoutKernels));
+
+    assertThat(copyStatements)
+        .containsExactly(
+            "COPY test (\"date_added\", \"title\", \"kernels\") FROM STDIN (FORMAT binary)",
+            "COPY test (\"date_added\", \"title\") FROM STDIN (FORMAT binary)");
+  }
+
+  @Test
+  public void testChunkSizeSplitsCopies() throws SQLException {
+    List<DataObjectMock> dataObjects = Lists.newArrayList(newMock("A", 1), newMock("B", 2), newMock("C", 3));
+
+    long rowsCopied = new DataObjectCopyLoader(connection)
+        .withChunkSize(2)
+        .load(dataObjects.stream());
+
+    assertThat(rowsCopied)
+        .isEqualTo(3L);
+    assertThat(copyStatements)
+        .hasSize(2);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testAssignedIdsComeFromSequence() throws SQLException {
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenReturn(Lists.newArrayList(40, 41));
+
+    DataObjectMock first = newMock("First", 1);
+    DataObjectMock second = newMock("Second", 2);
+
+    new DataObjectCopyLoader(connection)
+        .withAssignedIds(true)
+        .load(Lists.newArrayList(first, second));
+
+    verify(connection).query(contains("nextval"), any(RowMapper.class), eq(Lists.newArrayList((Object) "test_id_seq", 2)));
+    assertThat(copyStatements)
+        .containsExactly("COPY test (\"id\", \"date_added\", \"title\", \"kernels\") FROM STDIN (FORMAT binary)");
+    assertThat(first.id.getValue())
+        .isEqualTo(40);
+    assertThat(second.id.getValue())
+        .isEqualTo(41);
+  }
+
+  @Test
+  public void testObjectNotForInsertRejected() {
+    DataObjectMock dataObject = new DataObjectMock();
+
+    assertThrows(IllegalStateException.class, () -> new DataObjectCopyLoader(connection).load(Lists.newArrayList(dataObject)));
+  }
+
+  // utility methods
+
+  private DataObjectMock newMock(String title, Integer kernels) {
+    DataObjectMock dataObject = new DataObjectMock();
+    dataObject.initializeForInsert();
+    dataObject.title.changeValue(title);
+    dataObject.kernels.changeValue(kernels);
+    return dataObject;
+  }
+
+  /**
+   * Walk a binary COPY stream and count its tuples, checking the header and trailer along the way.
+   */
+  private int countTuples(byte[] data) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    byte[] signature = new byte[11];
+    in.readFully(signature);
+    assertThat(new String(signature, 0, 5))
+        .isEqualTo("PGCOP");
+    in.readInt();
+    in.readInt();
+
+    int tuples = 0;
+    short fieldCount;
+    while ((fieldCount = in.readShort()) != -1) {
+      for (int i = 0; i < fieldCount; i++) {
+        int length = in.readInt();
+        if (length > 0) {
+          in.skipBytes(length);
+        }
+      }
+      tuples++;
+    }
+    assertThat(in.available())
+        .as("Expect nothing after the trailer.")
+        .isEqualTo(0);
+    return tuples;
+  }
+}
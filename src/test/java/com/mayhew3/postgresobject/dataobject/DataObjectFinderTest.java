@@ -0,0 +1,341 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.RowMapper;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DataObjectFinderTest {
+
+  private SQLConnection connection;
+  private List<String> statements;
+  private List<List<Object>> statementParams;
+  private Deque<List<DataObjectMock>> results;
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    connection = mock(SQLConnection.class);
+    statements = new ArrayList<>();
+    statementParams = new ArrayList<>();
+    results = new ArrayDeque<>();
+
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenAnswer(invocation -> {
+      statements.add(invocation.getArgument(0));
+      statementParams.add(new ArrayList<>(invocation.<List<Object>>getArgument(2)));
+      return results.isEmpty() ? new ArrayList<>() : results.removeFirst();
+    });
+  }
+
+  @Test
+  public void testFindByIdSelectsColumnsByName() throws SQLException {
+    DataObjectMock existing = DataObjectMock.loaded(12);
+    results.add(Collections.singletonList(existing));
+
+    DataObjectMock found = new DataObjectFinder<>(connection, DataObjectMock::new).findById(12);
+
+    assertThat(found)
+        .isSameAs(existing);
+    assertThat(statements.get(0))
+        .as("Expect explicit column list rather than SELECT *.")
+        .startsWith("SELECT \"id\", \"date_added\", \"title\", \"kernels\", ")
+        .endsWith(" FROM test WHERE \"id\" = ?");
+    assertThat(statementParams.get(0))
+        .containsExactly(12);
+  }
+
+  @Test
+  public void testFindByIdReturnsNullWhenNoRow() throws SQLException {
+    assertThat(new DataObjectFinder<>(connection, DataObjectMock::new).findById(12))
+        .isNull();
+  }
+
+  @Test
+  public void testFindByIdsUsesOneArrayParameterOnPostgres() throws SQLException {
+    DataObjectMock first = DataObjectMock.loaded(1);
+    DataObjectMock third = DataObjectMock.loaded(3);
+    results.add(Arrays.asList(first, third));
+
+    List<DataObjectMock> found = new DataObjectFinder<>(connection, DataObjectMock::new).findByIds(Arrays.asList(3, 2, 1, 3));
+
+    assertThat(statements)
+        .hasSize(1);
+    assertThat(statements.get(0))
+        .endsWith(" FROM test WHERE \"id\" = ANY(?)");
+    assertThat((Integer[]) statementParams.get(0).get(0))
+        .as("Expect repeated ids to be sent once.")
+        .containsOnly(3, 2, 1);
+    assertThat(found)
+        .as("Expect results in requested order, skipping ids with no row.")
+        .containsExactly(third, first);
+  }
+
+  @Test
+  public void testFindByIdsPadsInListOnMySQL() throws SQLException {
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.MYSQL);
+
+    new DataObjectFinder<>(connection, DataObjectMock::new).findByIds(Arrays.asList(5, 6, 7));
+
+    assertThat(statements.get(0))
+        .startsWith("SELECT `id`, `date_added`, `title`, `kernels`, ")
+        .endsWith(" FROM test WHERE `id` IN (?, ?, ?, ?)");
+    assertThat(statementParams.get(0))
+        .containsExactly(5, 6, 7, 7);
+  }
+
+  @Test
+  public void testFindByIdsWithNoIdsSkipsQuery() throws SQLException {
+    List<DataObjectMock> found = new DataObjectFinder<>(connection, DataObjectMock::new).findByIds(Collections.emptyList());
+
+    assertThat(found)
+        .isEmpty();
+    verify(connection, never()).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testQueryBuildsConditionsOrderingAndLimit() throws SQLException {
+    new DataObjectFinder<>(connection, DataObjectMock::new)
+        .where("title", DataObjectQuery.Operator.EQUALS, "Cob")
+        .where("kernels", DataObjectQuery.Operator.GREATER_THAN_OR_EQUAL, 4)
+        .whereNull("reverse_other_id")
+        .orderByDescending("date_added")
+        .orderBy("id")
+        .limit(10)
+        .list();
+
+    assertThat(statements.get(0))
+        .endsWith(" FROM test WHERE \"title\" = ? AND \"kernels\" >= ? AND \"reverse_other_id\" IS NULL " +
+            "ORDER BY \"date_added\" DESC, \"id\" LIMIT ?");
+    assertThat(statementParams.get(0))
+        .containsExactly("Cob", 4, 10);
+  }
+
+  @Test
+  public void testQueryBindsDatesAsTimestamps() throws SQLException {
+    new DataObjectFinder<>(connection, DataObjectMock::new)
+        .where("date_added", DataObjectQuery.Operator.LESS_THAN, new Date(1000L))
+        .list();
+
+    assertThat(statementParams.get(0).get(0))
+        .isEqualTo(new java.sql.Timestamp(1000L));
+  }
+
+  @Test
+  public void testFirstFetchesOneRow() throws SQLException {
+    DataObjectMock existing = DataObjectMock.loaded(4);
+    results.add(Collections.singletonList(existing));
+
+    DataObjectMock found = new DataObjectFinder<>(connection, DataObjectMock::new).query().orderBy("title").first();
+
+    assertThat(found)
+        .isSameAs(existing);
+    assertThat(statements.get(0))
+        .endsWith(" FROM test ORDER BY \"title\" LIMIT ?");
+    assertThat(statementParams.get(0))
+        .containsExactly(1);
+  }
+
+  @Test
+  public void testStreamReadsFromCursor() throws SQLException {
+    DataObjectMock existing = DataObjectMock.loaded(4);
+    when(connection.streamRows(anyString(), anyInt(), any(RowMapper.class), anyList())).thenReturn(Stream.of(existing));
+
+    List<DataObjectMock> streamed;
+    try (Stream<DataObjectMock> stream = new DataObjectFinder<>(connection, DataObjectMock::new)
+        .where("kernels", DataObjectQuery.Operator.LESS_THAN, 3)
+        .withFetchSize(250)
+        .stream()) {
+      streamed = stream.collect(Collectors.toList());
+    }
+
+    assertThat(streamed)
+        .containsExactly(existing);
+    verify(connection).streamRows(endsWith(" FROM test WHERE \"kernels\" < ?"), eq(250), any(RowMapper.class), eq(Collections.singletonList(3)));
+    verify(connection, never()).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testSelectLoadsOnlyProjectedFields() throws SQLException {
+    DataObjectMock found = findProjectedMock();
+
+    assertThat(statements.get(0))
+        .isEqualTo("SELECT \"id\", \"title\" FROM test WHERE \"kernels\" = ? LIMIT ?");
+    assertThat(found.id.getValue())
+        .isEqualTo(7);
+    assertThat(found.title.getValue())
+        .isEqualTo("Partial");
+    assertThat(found.kernels.isLoaded())
+        .isFalse();
+    assertThrows(IllegalStateException.class, () -> found.kernels.getValue());
+    assertThrows(IllegalStateException.class, () -> found.kernels.changeValue(4));
+  }
+
+  @Test
+  public void testPartialObjectUpdatesOnlyLoadedChangedFields() throws SQLException {
+    DataObjectMock found = findProjectedMock();
+    found.title.changeValue("Changed");
+
+    found.commit(connection);
+
+    verify(connection).prepareAndExecuteStatementUpdateWithFields(eq("UPDATE test SET \"title\" = ? WHERE ID = ?"), anyList());
+  }
+
+  @Test
+  public void testLoadUnloadedFieldsKeepsChanges() throws SQLException {
+    DataObjectFinder<DataObjectMock> finder = new DataObjectFinder<>(connection, DataObjectMock::new);
+    DataObjectMock found = findProjectedMock();
+    found.title.changeValue("Changed");
+
+    ResultSet fullRow = mock(ResultSet.class);
+    when(fullRow.getInt(1)).thenReturn(7);
+    when(fullRow.getString(3)).thenReturn("Partial");
+    when(fullRow.getInt(4)).thenReturn(5);
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenAnswer(invocation -> {
+      statements.add(invocation.getArgument(0));
+      RowMapper<DataObjectMock> rowMapper = invocation.getArgument(1);
+      return Collections.singletonList(rowMapper.mapRow(fullRow));
+    });
+
+    finder.loadUnloadedFields(Collections.singletonList(found));
+    finder.loadUnloadedFields(Collections.singletonList(found));
+
+    assertThat(statements.get(1))
+        .startsWith("SELECT \"id\", \"date_added\", \"title\", \"kernels\", ")
+        .endsWith(" FROM test WHERE \"id\" = ANY(?)");
+    assertThat(statements)
+        .as("Expect a fully loaded object to need no query.")
+        .hasSize(2);
+    assertThat(found.kernels.getValue())
+        .isEqualTo(5);
+    assertThat(found.title.getValue())
+        .as("Expect fields that were already loaded to keep their unsaved changes.")
+        .isEqualTo("Changed");
+    assertThat(found.getChangedFields())
+        .containsExactly(found.title);
+  }
+
+  @Test
+  public void testBulkUpdateRunsOneStatement() throws SQLException {
+    when(connection.prepareAndExecuteStatementUpdate(anyString(), anyList())).thenReturn(3);
+
+    int updated = new DataObjectFinder<>(connection, DataObjectMock::new)
+        .where("kernels", DataObjectQuery.Operator.LESS_THAN, 5)
+        .set("title", "Stale")
+        .set("reverse_other_id", null)
+        .update();
+
+    assertThat(updated)
+        .isEqualTo(3);
+    verify(connection).prepareAndExecuteStatementUpdate(
+        eq("UPDATE test SET \"title\" = ?, \"reverse_other_id\" = NULL WHERE \"kernels\" < ?"),
+        eq(Arrays.asList("Stale", 5)));
+    verify(connection, never()).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testBulkDelete() throws SQLException {
+    when(connection.prepareAndExecuteStatementUpdate(anyString(), anyList())).thenReturn(2);
+
+    int deleted = new DataObjectFinder<>(connection, DataObjectMock::new)
+        .query()
+        .whereNull("test_second_id")
+        .delete();
+
+    assertThat(deleted)
+        .isEqualTo(2);
+    verify(connection).prepareAndExecuteStatementUpdate(eq("DELETE FROM test WHERE \"test_second_id\" IS NULL"), eq(new ArrayList<>()));
+  }
+
+  @Test
+  public void testBulkRetireSkipsRetiredRows() throws SQLException {
+    when(connection.prepareAndExecuteStatementUpdate(anyString(), anyList())).thenReturn(4);
+
+    new DataObjectFinder<>(connection, SecondDataObjectMock::new)
+        .where("date_added", DataObjectQuery.Operator.LESS_THAN, new Date(1000L))
+        .retire();
+
+    verify(connection).prepareAndExecuteStatementUpdate(
+        eq("UPDATE test_second SET \"retired\" = \"id\", \"retired_date\" = ? WHERE \"date_added\" < ? AND \"retired\" = 0"),
+        anyList());
+    assertThrows(IllegalStateException.class, () -> new DataObjectFinder<>(connection, DataObjectMock::new).query().retire());
+  }
+
+  @Test
+  public void testBulkDeleteInIdChunks() throws SQLException {
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenAnswer(invocation -> {
+      statements.add(invocation.getArgument(0));
+      return Collections.singletonList(new int[]{1, 250});
+    });
+    when(connection.prepareAndExecuteStatementUpdate(anyString(), anyList())).thenReturn(100, 100, 50);
+
+    int deleted = new DataObjectFinder<>(connection, DataObjectMock::new)
+        .where("kernels", DataObjectQuery.Operator.EQUALS, 0)
+        .inIdChunks(100)
+        .delete();
+
+    assertThat(deleted)
+        .isEqualTo(250);
+    assertThat(statements.get(0))
+        .isEqualTo("SELECT MIN(\"id\"), MAX(\"id\") FROM test WHERE \"kernels\" = ?");
+    String chunkSql = "DELETE FROM test WHERE \"kernels\" = ? AND \"id\" >= ? AND \"id\" <= ?";
+    verify(connection).prepareAndExecuteStatementUpdate(eq(chunkSql), eq(Arrays.asList(0, 1, 100)));
+    verify(connection).prepareAndExecuteStatementUpdate(eq(chunkSql), eq(Arrays.asList(0, 101, 200)));
+    verify(connection).prepareAndExecuteStatementUpdate(eq(chunkSql), eq(Arrays.asList(0, 201, 250)));
+  }
+
+  @Test
+  public void testBulkChangeWithLimitRejected() {
+    DataObjectQuery<DataObjectMock> query = new DataObjectFinder<>(connection, DataObjectMock::new).query().limit(5);
+
+    assertThrows(IllegalStateException.class, query::delete);
+    assertThrows(IllegalStateException.class, () -> new DataObjectFinder<>(connection, DataObjectMock::new).query().update());
+    assertThrows(IllegalArgumentException.class, () -> new DataObjectFinder<>(connection, DataObjectMock::new).query().set("id", 3));
+  }
+
+  @Test
+  public void testUnknownFieldRejected() {
+    DataObjectFinder<DataObjectMock> finder = new DataObjectFinder<>(connection, DataObjectMock::new);
+
+    assertThrows(IllegalArgumentException.class, () -> finder.where("title; DROP TABLE test", DataObjectQuery.Operator.EQUALS, "x"));
+    assertThrows(IllegalArgumentException.class, () -> finder.query().orderBy("missing"));
+  }
+
+  @Test
+  public void testNullValueRejected() {
+    DataObjectFinder<DataObjectMock> finder = new DataObjectFinder<>(connection, DataObjectMock::new);
+
+    assertThrows(IllegalArgumentException.class, () -> finder.where("title", DataObjectQuery.Operator.EQUALS, null));
+  }
+
+  /**
+   * Run a query selecting only the title, mapping one row through the query's own row mapper.
+   */
+  private DataObjectMock findProjectedMock() throws SQLException {
+    ResultSet partialRow = mock(ResultSet.class);
+    when(partialRow.getInt(1)).thenReturn(7);
+    when(partialRow.getString(2)).thenReturn("Partial");
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenAnswer(invocation -> {
+      statements.add(invocation.getArgument(0));
+      RowMapper<DataObjectMock> rowMapper = invocation.getArgument(1);
+      return Collections.singletonList(rowMapper.mapRow(partialRow));
+    });
+
+    return new DataObjectFinder<>(connection, DataObjectMock::new)
+        .where("kernels", DataObjectQuery.Operator.EQUALS, 5)
+        .select("title")
+        .first();
+  }
+
+}
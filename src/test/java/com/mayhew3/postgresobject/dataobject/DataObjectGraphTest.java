@@ -0,0 +1,214 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.postgresobject.db.TransactionCallback;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DataObjectGraphTest {
+
+  private SQLConnection connection;
+  private final List<Runnable> rollbackActions = new ArrayList<>();
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    connection = mock(SQLConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+    when(connection.isInTransaction()).thenReturn(true);
+    doAnswer(invocation -> rollbackActions.add(invocation.getArgument(0)))
+        .when(connection).runAfterRollback(any(Runnable.class));
+    doAnswer(invocation -> {
+      try {
+        invocation.<TransactionCallback>getArgument(0).execute();
+      } catch (SQLException | RuntimeException e) {
+        Lists.reverse(rollbackActions).forEach(Runnable::run);
+        throw e;
+      } finally {
+        rollbackActions.clear();
+      }
+      return null;
+    }).when(connection).inTransaction(any(TransactionCallback.class));
+  }
+
+  @Test
+  public void testParentInsertedBeforeChildrenAndIdsWired() throws SQLException {
+    when(connection.prepareAndExecuteStatementInsertReturnIds(anyString(), anyList()))
+        .thenReturn(Lists.newArrayList(7))
+        .thenReturn(Lists.newArrayList(8, 9));
+
+    GraphParentMock parent = newParent("Dune");
+    GraphChildMock first = newChild(parent, 1);
+    GraphChildMock second = newChild(parent, 2);
+
+    DataObject.commitGraph(connection, Lists.newArrayList(first, second));
+
+    InOrder inOrder = inOrder(connection);
+    inOrder.verify(connection).prepareAndExecuteStatementInsertReturnIds(
+        eq("INSERT INTO test_graph_parent (\"date_added\", \"name\") VALUES (?, ?)"),
+        anyList());
+    inOrder.verify(connection).prepareAndExecuteStatementInsertReturnIds(
+        eq("INSERT INTO test_graph_child (\"date_added\", \"test_graph_parent_id\", \"number\") VALUES (?, ?, ?), (?, ?, ?)"),
+        anyList());
+
+    assertThat(parent.id.getValue())
+        .isEqualTo(7);
+    assertThat(first.parent.getValue())
+        .as("Expect the parent's new id in the child's foreign key.")
+        .isEqualTo(7);
+    assertThat(second.parent.getValue())
+        .isEqualTo(7);
+    assertThat(second.id.getValue())
+        .isEqualTo(9);
+  }
+
+  @Test
+  public void testFailedGraphPutsInsertedParentBack() throws SQLException {
+    when(connection.prepareAndExecuteStatementInsertReturnIds(anyString(), anyList()))
+        .thenReturn(Lists.newArrayList(7))
+        .thenThrow(new SQLException("boom"))
+        .thenReturn(Lists.newArrayList(11))
+        .thenReturn(Lists.newArrayList(12));
+
+    GraphParentMock parent = newParent("Dune");
+    GraphChildMock child = newChild(parent, 1);
+
+    assertThrows(SQLException.class, () -> DataObject.commitGraph(connection, Lists.newArrayList(child)));
+
+    assertThat(parent.id.getValue())
+        .as("Expect the id from the rolled back INSERT to be taken back.")
+        .isNull();
+    assertThat(parent.isForInsert())
+        .isTrue();
+    assertThat(parent.name.isChanged())
+        .isTrue();
+    assertThat(child.parent.getPendingParent())
+        .isSameAs(parent);
+    assertThat(child.parent.getValue())
+        .isNull();
+
+    DataObject.commitGraph(connection, Lists.newArrayList(child));
+
+    verify(connection, never()).prepareAndExecuteStatementBatchUpdateWithFields(anyString(), anyList());
+    assertThat(parent.id.getValue())
+        .isEqualTo(11);
+    assertThat(child.parent.getValue())
+        .isEqualTo(11);
+    assertThat(child.id.getValue())
+        .isEqualTo(12);
+  }
+
+  @Test
+  public void testAssignedIdsCommitInOneLevel() throws SQLException {
+    GraphParentMock parent = newParent("Dune");
+    parent.id.changeValue(7);
+    GraphChildMock child = newChild(parent, 1);
+    child.id.changeValue(8);
+
+    DataObject.commitGraph(connection, Lists.newArrayList(child, parent));
+
+    InOrder inOrder = inOrder(connection);
+    inOrder.verify(connection).prepareAndExecuteStatementUpdateWithFields(startsWith("INSERT INTO test_graph_parent "), anyList());
+    inOrder.verify(connection).prepareAndExecuteStatementUpdateWithFields(startsWith("INSERT INTO test_graph_child "), anyList());
+    assertThat(child.parent.getValue())
+        .isEqualTo(7);
+  }
+
+  @Test
+  public void testReferencesParentWithId() {
+    GraphParentMock parent = newParent("Dune");
+    parent.changeToUpdateObject();
+    parent.id.initializeValue(3);
+
+    GraphChildMock child = newChild(parent, 1);
+
+    assertThat(child.parent.getValue())
+        .isEqualTo(3);
+    assertThat(child.parent.getPendingParent())
+        .isNull();
+  }
+
+  @Test
+  public void testChangeValueReplacesPendingParent() {
+    GraphChildMock child = newChild(newParent("Dune"), 1);
+    child.parent.changeValue(5);
+
+    assertThat(child.parent.getPendingParent())
+        .isNull();
+    assertThat(child.parent.getValue())
+        .isEqualTo(5);
+  }
+
+  @Test
+  public void testWrongTableRejected() {
+    GraphChildMock child = new GraphChildMock();
+    child.initializeForInsert();
+
+    assertThrows(IllegalArgumentException.class, () -> child.parent.references(new DataObjectMock()));
+  }
+
+  @Test
+  public void testCommitBeforeParentInsertedRejected() {
+    GraphChildMock child = newChild(newParent("Dune"), 1);
+
+    assertThrows(IllegalStateException.class, () -> child.commit(connection));
+  }
+
+  @Test
+  public void testCycleRejected() {
+    GraphChildMock first = new GraphChildMock();
+    first.initializeForInsert();
+    GraphChildMock second = new GraphChildMock();
+    second.initializeForInsert();
+    first.previous.references(second);
+    second.previous.references(first);
+
+    assertThrows(IllegalStateException.class, () -> DataObject.commitGraph(connection, Lists.newArrayList(first, second)));
+  }
+
+  private static GraphParentMock newParent(String name) {
+    GraphParentMock parent = new GraphParentMock();
+    parent.initializeForInsert();
+    parent.name.changeValue(name);
+    return parent;
+  }
+
+  private static GraphChildMock newChild(GraphParentMock parent, int number) {
+    GraphChildMock child = new GraphChildMock();
+    child.initializeForInsert();
+    child.parent.references(parent);
+    child.number.changeValue(number);
+    return child;
+  }
+
+  public static class GraphParentMock extends DataObject {
+    FieldValueString name = registerStringField("name", Nullability.NOT_NULL);
+
+    @Override
+    public String getTableName() {
+      return "test_graph_parent";
+    }
+  }
+
+  static class GraphChildMock extends DataObject {
+    FieldValueForeignKey parent = registerForeignKey(GraphParentMock.class, Nullability.NOT_NULL);
+    FieldValueInteger number = registerIntegerField("number", Nullability.NOT_NULL);
+    FieldValueForeignKey previous = registerForeignKeyWithName(GraphChildMock.class, Nullability.NULLABLE, "previous_id");
+
+    @Override
+    public String getTableName() {
+      return "test_graph_child";
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.mayhew3.postgresobject.dataobject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -25,6 +26,31 @@ public class DataObjectMethodsTest {
     }
   }
 
+  private static class WideDataObject extends DataObject {
+    List<FieldValueInteger> columns = new ArrayList<>();
+
+    WideDataObject() {
+      for (int i = 0; i < 70; i++) {
+        columns.add(registerIntegerField("column_" + i, Nullability.NULLABLE));
+      }
+    }
+
+    @Override
+    public String getTableName() {
+      return "wide_table";
+    }
+  }
+
+  private static class DuplicateFieldDataObject extends DataObject {
+    FieldValueString nameField = registerStringField("name", Nullability.NOT_NULL);
+    FieldValueString otherNameField = registerStringField("name", Nullability.NULLABLE);
+
+    @Override
+    public String getTableName() {
+      return "duplicate_table";
+    }
+  }
+
   @BeforeEach
   public void setUp() {
     testObject = new TestDataObject();
@@ -109,6 +135,79 @@ public class DataObjectMethodsTest {
     assertTrue(changedFields.contains(testObject.activeField), "Changed fields should contain activeField");
   }
 
+  @Test
+  public void testChangingValueBackClearsChange() {
+    testObject.initializeForInsert();
+    testObject.changeToUpdateObject();
+    testObject.nameField.changeValue("John");
+    testObject.nameField.changeValue(null);
+
+    assertFalse(testObject.hasChanged(), "Field changed back to its original value should not count as changed");
+    assertTrue(testObject.getChangedFields().isEmpty(), "Should have no changed fields");
+  }
+
+  @Test
+  public void testDiscardChangeClearsChange() {
+    testObject.initializeForInsert();
+    testObject.changeToUpdateObject();
+    testObject.ageField.changeValue(30);
+    testObject.ageField.discardChange();
+
+    assertFalse(testObject.hasChanged(), "Discarded change should not count as changed");
+  }
+
+  @Test
+  public void testCommittedFieldsAreNoLongerChanged() {
+    testObject.initializeForInsert();
+    testObject.nameField.changeValue("John");
+    testObject.ageField.changeValue(30);
+    testObject.completeInsert(testObject.getChangedFields(), 5);
+
+    assertFalse(testObject.hasChanged(), "Fields should be unchanged after commit");
+
+    testObject.ageField.changeValue(31);
+    assertEquals(List.of(testObject.ageField), testObject.getChangedFields(), "Only the field changed after commit should be listed");
+  }
+
+  @Test
+  public void testFieldLoadedFromTextIsChanged() {
+    testObject.initializeForInsert();
+    testObject.changeToUpdateObject();
+    testObject.ageField.initializeValueFromString("42");
+
+    assertTrue(testObject.hasChanged(), "Field stored as text should be flagged for upgrade");
+    assertEquals(List.of(testObject.ageField), testObject.getChangedFields(), "Should list the field stored as text");
+  }
+
+  @Test
+  public void testForEachChangedFieldVisitsChangedFieldsInOrder() {
+    testObject.initializeForInsert();
+    testObject.activeField.changeValue(true);
+    testObject.nameField.changeValue("John");
+
+    List<FieldValue> visited = new ArrayList<>();
+    testObject.forEachChangedField(visited::add);
+
+    assertEquals(List.of(testObject.nameField, testObject.activeField), visited, "Should visit changed fields in registration order");
+  }
+
+  @Test
+  public void testChangesTrackedPastSixtyFourFields() {
+    WideDataObject wideObject = new WideDataObject();
+    wideObject.initializeForInsert();
+    wideObject.changeToUpdateObject();
+    wideObject.columns.get(3).changeValue(1);
+    wideObject.columns.get(68).changeValue(2);
+
+    assertTrue(wideObject.hasChanged(), "Should see changes on every field");
+    assertEquals(List.of(wideObject.columns.get(3), wideObject.columns.get(68)), wideObject.getChangedFields(),
+        "Should list changes before and after the 64th field");
+
+    wideObject.columns.get(3).discardChange();
+    wideObject.columns.get(68).discardChange();
+    assertFalse(wideObject.hasChanged(), "Discarded changes past the 64th field should clear");
+  }
+
   // Tests for getAllFieldValues()
   @Test
   public void testGetAllFieldValuesExcludesId() {
@@ -210,6 +309,40 @@ public class DataObjectMethodsTest {
     assertEquals("test_table_id_seq", sequenceNames.get(0), "Sequence name should follow pattern");
   }
 
+  // Tests for getFieldValueWithName()
+  @Test
+  public void testGetFieldValueWithNameReturnsThisObjectsField() {
+    TestDataObject otherObject = new TestDataObject();
+
+    assertSame(testObject.ageField, testObject.getFieldValueWithName("age"), "Should find this object's field");
+    assertSame(otherObject.ageField, otherObject.getFieldValueWithName("age"), "Should find the other object's field");
+    assertSame(testObject.id, testObject.getFieldValueWithName("id"), "Should find the id field");
+  }
+
+  @Test
+  public void testGetFieldValueWithNameReturnsNullForUnknownField() {
+    assertNull(testObject.getFieldValueWithName("height"), "Should not find an unregistered field");
+    assertFalse(testObject.hasFieldWithName("height"), "Should not have an unregistered field");
+    assertTrue(testObject.hasFieldWithName("name"), "Should have a registered field");
+  }
+
+  @Test
+  public void testGetFieldNamesInRegistrationOrder() {
+    List<String> fieldNames = testObject.getFieldNames();
+
+    assertEquals(List.of("date_added", "name", "age", "active"), fieldNames, "Should list fields in registration order, without id");
+  }
+
+  @Test
+  public void testDuplicateFieldNameOnlyRejectedOnLookup() {
+    DuplicateFieldDataObject dataObject = new DuplicateFieldDataObject();
+    dataObject.initializeForInsert();
+
+    assertSame(dataObject.dateAdded, dataObject.getFieldValueWithName("date_added"));
+    assertThrows(IllegalStateException.class, () -> dataObject.getFieldValueWithName("name"));
+    assertNull(TableDescriptor.forClass(DuplicateFieldDataObject.class));
+  }
+
   // Tests for field registration methods that aren't covered
   @Test
   public void testRegisterSerialFieldCreatesSerialField() {
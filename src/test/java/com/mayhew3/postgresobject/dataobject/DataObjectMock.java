@@ -13,6 +13,23 @@ class DataObjectMock extends DataObject {
     addColumnsIndex(title, kernels);
   }
 
+  /**
+   * A DataObjectMock in UPDATE mode with the given id, as if it had been loaded from the database.
+   */
+  static DataObjectMock loaded(int id) {
+    return loaded(new DataObjectMock(), id);
+  }
+
+  /**
+   * Put a new object in UPDATE mode with the given id, as if it had been loaded from the database.
+   */
+  static <T extends DataObject> T loaded(T dataObject, int id) {
+    dataObject.initializeForInsert();
+    dataObject.changeToUpdateObject();
+    dataObject.id.initializeValue(id);
+    return dataObject;
+  }
+
   @Override
   void preInsert() {
     // nothing to do
@@ -0,0 +1,230 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.RowMapper;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.postgresobject.db.TransactionWork;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DataObjectSessionTest {
+
+  private SQLConnection connection;
+  private DataObjectSession session;
+  private final List<Runnable> rollbackActions = new ArrayList<>();
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    connection = mock(SQLConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+    when(connection.isInTransaction()).thenReturn(true);
+    doAnswer(invocation -> rollbackActions.add(invocation.getArgument(0)))
+        .when(connection).runAfterRollback(any(Runnable.class));
+    when(connection.inTransaction(any(TransactionWork.class))).thenAnswer(invocation -> {
+      try {
+        return invocation.<TransactionWork<?>>getArgument(0).execute();
+      } catch (SQLException | RuntimeException e) {
+        Lists.reverse(rollbackActions).forEach(Runnable::run);
+        throw e;
+      } finally {
+        rollbackActions.clear();
+      }
+    });
+    session = new DataObjectSession(connection);
+  }
+
+  @Test
+  public void testFindByIdSkipsQueryForLoadedRow() throws SQLException {
+    DataObjectMock loaded = DataObjectMock.loaded(7);
+    session.add(loaded);
+
+    DataObjectMock found = session.finder(DataObjectMock::new).findById(7);
+
+    assertThat(found)
+        .isSameAs(loaded);
+    verify(connection, never()).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testFindByIdsOnlyQueriesMissingIds() throws SQLException {
+    DataObjectMock loaded = DataObjectMock.loaded(7);
+    session.add(loaded);
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenReturn(new ArrayList<>());
+
+    session.finder(DataObjectMock::new).findByIds(Arrays.asList(7, 8));
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<Object>> paramsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(connection).query(anyString(), any(RowMapper.class), paramsCaptor.capture());
+    assertThat((Integer[]) paramsCaptor.getValue().get(0))
+        .containsOnly(8);
+  }
+
+  @Test
+  public void testQueryReturnsSessionInstanceForLoadedRow() throws SQLException {
+    DataObjectMock loaded = DataObjectMock.loaded(7);
+    loaded.title.changeValue("Unsaved title");
+    session.add(loaded);
+
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getInt(1)).thenReturn(7);
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenAnswer(invocation -> {
+      RowMapper<DataObjectMock> rowMapper = invocation.getArgument(1);
+      return Lists.newArrayList(rowMapper.mapRow(resultSet));
+    });
+
+    List<DataObjectMock> found = session.finder(DataObjectMock::new).query().list();
+
+    assertThat(found)
+        .containsExactly(loaded);
+    assertThat(found.get(0).title.getValue())
+        .as("Expect the session's instance, with its unsaved change.")
+        .isEqualTo("Unsaved title");
+  }
+
+  @Test
+  public void testAddingSecondInstanceOfRowRejected() {
+    session.add(DataObjectMock.loaded(7));
+
+    assertThrows(IllegalStateException.class, () -> session.add(DataObjectMock.loaded(7)));
+  }
+
+  @Test
+  public void testFlushInsertsParentTablesFirst() throws SQLException {
+    when(connection.prepareAndExecuteStatementInsertReturnIds(startsWith("INSERT INTO test_second "), anyList()))
+        .thenReturn(Lists.newArrayList(20));
+    when(connection.prepareAndExecuteStatementInsertReturnIds(startsWith("INSERT INTO test "), anyList()))
+        .thenReturn(Lists.newArrayList(10));
+
+    DataObjectMock child = new DataObjectMock();
+    child.initializeForInsert();
+    child.title.changeValue("Child");
+
+    SecondDataObjectMock parent = new SecondDataObjectMock();
+    parent.initializeForInsert();
+    parent.name.changeValue("Parent");
+
+    session.add(child);
+    session.add(parent);
+
+    int flushed = session.flush();
+
+    assertThat(flushed)
+        .isEqualTo(2);
+
+    InOrder inOrder = inOrder(connection);
+    inOrder.verify(connection).prepareAndExecuteStatementInsertReturnIds(startsWith("INSERT INTO test_second "), anyList());
+    inOrder.verify(connection).prepareAndExecuteStatementInsertReturnIds(startsWith("INSERT INTO test "), anyList());
+
+    assertThat(session.get(DataObjectMock.class, 10))
+        .as("Expect inserted objects to join the identity map with their new ids.")
+        .isSameAs(child);
+    assertThat(session.get(SecondDataObjectMock.class, 20))
+        .isSameAs(parent);
+  }
+
+  @Test
+  public void testFlushRunsInOneTransaction() throws SQLException {
+    DataObjectMock changed = DataObjectMock.loaded(1);
+    changed.kernels.changeValue(5);
+    session.add(changed);
+
+    session.flush();
+
+    verify(connection).inTransaction(any(TransactionWork.class));
+  }
+
+  @Test
+  public void testFailedFlushPutsEveryObjectBack() throws SQLException {
+    when(connection.prepareAndExecuteStatementInsertReturnIds(startsWith("INSERT INTO test_second "), anyList()))
+        .thenReturn(Lists.newArrayList(20))
+        .thenReturn(Lists.newArrayList(21));
+    when(connection.prepareAndExecuteStatementInsertReturnIds(startsWith("INSERT INTO test "), anyList()))
+        .thenThrow(new SQLException("boom"))
+        .thenReturn(Lists.newArrayList(30));
+
+    DataObjectMock child = new DataObjectMock();
+    child.initializeForInsert();
+    child.title.changeValue("Child");
+
+    SecondDataObjectMock parent = new SecondDataObjectMock();
+    parent.initializeForInsert();
+    parent.name.changeValue("Parent");
+
+    session.add(child);
+    session.add(parent);
+
+    assertThrows(SQLException.class, () -> session.flush());
+
+    assertThat(session.get(SecondDataObjectMock.class, 20))
+        .as("Expect the rolled back id to be out of the identity map.")
+        .isNull();
+    assertThat(parent.isForInsert())
+        .isTrue();
+    assertThat(parent.id.getValue())
+        .isNull();
+    assertThat(session.contains(parent))
+        .isTrue();
+    assertThat(session.contains(child))
+        .isTrue();
+    assertThat(child.isForInsert())
+        .isTrue();
+
+    assertThat(session.flush())
+        .as("Expect the next flush to insert both objects again.")
+        .isEqualTo(2);
+    assertThat(session.get(SecondDataObjectMock.class, 21))
+        .isSameAs(parent);
+    assertThat(session.get(DataObjectMock.class, 30))
+        .isSameAs(child);
+  }
+
+  @Test
+  public void testFlushUpdatesOnlyChangedObjects() throws SQLException {
+    DataObjectMock changed = DataObjectMock.loaded(1);
+    changed.kernels.changeValue(5);
+    DataObjectMock unchanged = DataObjectMock.loaded(2);
+    session.add(changed);
+    session.add(unchanged);
+
+    int flushed = session.flush();
+
+    assertThat(flushed)
+        .isEqualTo(1);
+    verify(connection).prepareAndExecuteStatementBatchUpdateWithFields(eq("UPDATE test SET \"kernels\" = ? WHERE ID = ?"), anyList());
+    assertThat(changed.hasChanged())
+        .isFalse();
+    assertThat(session.flush())
+        .as("Expect nothing left to flush.")
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testEvictedObjectIsNotFlushed() throws SQLException {
+    DataObjectMock changed = DataObjectMock.loaded(1);
+    changed.kernels.changeValue(5);
+    session.add(changed);
+    session.evict(changed);
+
+    assertThat(session.flush())
+        .isEqualTo(0);
+    assertThat(session.contains(changed))
+        .isFalse();
+    verify(connection, never()).prepareAndExecuteStatementBatchUpdateWithFields(anyString(), anyList());
+  }
+
+}
@@ -1,5 +1,6 @@
 package com.mayhew3.postgresobject.dataobject;
 
+import com.google.common.collect.Lists;
 import com.mayhew3.postgresobject.db.DatabaseType;
 import com.mayhew3.postgresobject.db.MySQLConnection;
 import com.mayhew3.postgresobject.db.PostgresConnection;
@@ -10,6 +11,7 @@ import org.mockito.Captor;
 import org.mockito.MockitoAnnotations;
 
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
@@ -27,6 +29,9 @@ public class DataObjectTest {
   @Captor
   ArgumentCaptor<List<FieldValue>> fieldValueCaptor;
 
+  @Captor
+  ArgumentCaptor<List<List<FieldValue>>> batchCaptor;
+
   private static final Integer initial_id = 2;
   private static final String initial_title = "Taco Night!";
   private static final Integer initial_kernels = 42;
@@ -111,6 +116,87 @@ public class DataObjectTest {
         .isEqualTo(initial_kernels);
   }
 
+  @Test
+  public void testInitializeFromDBObjectReadsColumnsByPosition() throws SQLException {
+    ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+    when(metaData.getColumnCount()).thenReturn(4);
+    when(metaData.getColumnLabel(1)).thenReturn("id");
+    when(metaData.getColumnLabel(2)).thenReturn("TITLE");
+    when(metaData.getColumnLabel(3)).thenReturn("kernels");
+    when(metaData.getColumnLabel(4)).thenReturn("date_added");
+
+    ResultSet firstRow = mockPositionalRow(metaData, 7, "First");
+    ResultSet secondRow = mockPositionalRow(metaData, 8, "Second");
+
+    // Only objects made after one of their class is initialized share its descriptor, and so its column positions.
+    dataObject.initializeForInsert();
+
+    DataObjectMock first = new DataObjectMock();
+    first.initializeFromDBObject(firstRow);
+    DataObjectMock second = new DataObjectMock();
+    second.initializeFromDBObject(secondRow);
+
+    assertThat(first.id.getValue())
+        .isEqualTo(7);
+    assertThat(second.title.getValue())
+        .isEqualTo("Second");
+    assertThat(second.kernels.getValue())
+        .isEqualTo(initial_kernels);
+
+    verify(secondRow, never()).getInt("id");
+    verify(secondRow, never()).getString("title");
+    verify(secondRow).getInt("test_second_id");
+
+    verify(metaData, times(1)).getColumnLabel(2);
+  }
+
+  @Test
+  public void testColumnPositionsKeptPerQueryShape() throws SQLException {
+    ResultSetMetaData fullMetaData = mock(ResultSetMetaData.class);
+    when(fullMetaData.getColumnCount()).thenReturn(2);
+    when(fullMetaData.getColumnLabel(1)).thenReturn("id");
+    when(fullMetaData.getColumnLabel(2)).thenReturn("title");
+
+    ResultSetMetaData reorderedMetaData = mock(ResultSetMetaData.class);
+    when(reorderedMetaData.getColumnCount()).thenReturn(2);
+    when(reorderedMetaData.getColumnLabel(1)).thenReturn("title");
+    when(reorderedMetaData.getColumnLabel(2)).thenReturn("id");
+
+    dataObject.initializeForInsert();
+    TableDescriptor descriptor = TableDescriptor.forClass(DataObjectMock.class);
+
+    int[] fullIndexes = ColumnIndexCache.getColumnIndexes(descriptor, rowWithMetaData(fullMetaData));
+    int[] reorderedIndexes = ColumnIndexCache.getColumnIndexes(descriptor, rowWithMetaData(reorderedMetaData));
+
+    assertThat(fullIndexes[0])
+        .isEqualTo(1);
+    assertThat(reorderedIndexes[0])
+        .isEqualTo(2);
+    assertThat(ColumnIndexCache.getColumnIndexes(descriptor, rowWithMetaData(fullMetaData)))
+        .as("Expect switching back to an earlier shape to reuse its positions.")
+        .isSameAs(fullIndexes);
+  }
+
+  @Test
+  public void testObjectWithOwnFieldsReadsColumnsByName() throws SQLException {
+    ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+    when(metaData.getColumnCount()).thenReturn(2);
+    when(metaData.getColumnLabel(1)).thenReturn("id");
+    when(metaData.getColumnLabel(2)).thenReturn("title");
+
+    NamedFieldMock titled = new NamedFieldMock("title");
+    titled.initializeForInsert();
+    NamedFieldMock named = new NamedFieldMock("name");
+
+    ResultSet resultSet = rowWithMetaData(metaData);
+    when(resultSet.getInt("id")).thenReturn(3);
+    when(resultSet.getString("name")).thenReturn("Husk");
+    named.initializeFromDBObject(resultSet);
+
+    assertThat(named.value.getValue())
+        .isEqualTo("Husk");
+    verify(resultSet, never()).getString(2);
+  }
 
   @Test
   public void testSimpleInsert() throws SQLException {
@@ -354,6 +440,159 @@ public class DataObjectTest {
         .isEqualTo("CREATE UNIQUE INDEX test_kernels_date_added_key ON test (kernels, date_added) ");
   }
 
+  @Test
+  public void testCommitAllInsertsWithOneMultiRowStatement() throws SQLException {
+    PostgresConnection connection = mock(PostgresConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+    when(connection.prepareAndExecuteStatementInsertReturnIds(anyString(), anyList())).thenReturn(Lists.newArrayList(5, 6));
+
+    DataObjectMock first = new DataObjectMock();
+    first.initializeForInsert();
+    first.title.changeValue("First");
+    first.kernels.changeValue(1);
+
+    DataObjectMock second = new DataObjectMock();
+    second.initializeForInsert();
+    second.title.changeValue("Second");
+    second.kernels.changeValue(2);
+
+    DataObject.commitAll(connection, Lists.newArrayList(first, second));
+
+    String sql = "INSERT INTO test (\"date_added\", \"title\", \"kernels\") VALUES (?, ?, ?), (?, ?, ?)";
+    verify(connection).prepareAndExecuteStatementInsertReturnIds(eq(sql), fieldValueCaptor.capture());
+    verify(connection, never()).prepareAndExecuteStatementInsertReturnId(anyString(), anyList());
+
+    List<FieldValue> fieldValues = fieldValueCaptor.getValue();
+    assertThat(fieldValues)
+        .hasSize(6);
+    assertThat(fieldValues.get(4).getChangedValue())
+        .as("Expect the second row's fields to follow the first row's.")
+        .isEqualTo("Second");
+
+    assertThat(first.id.getValue())
+        .isEqualTo(5);
+    assertThat(second.id.getValue())
+        .isEqualTo(6);
+    assertThat(first.isForUpdate())
+        .isTrue();
+    assertThat(second.isForUpdate())
+        .isTrue();
+  }
+
+  @Test
+  public void testCommitAllBatchesUpdatesBySameChangedColumns() throws SQLException {
+    PostgresConnection connection = mock(PostgresConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+
+    DataObjectMock first = new DataObjectMock();
+    first.initializeFromDBObject(mockDBRow());
+    first.title.changeValue("New First");
+
+    DataObjectMock second = new DataObjectMock();
+    second.initializeFromDBObject(mockDBRow());
+    second.title.changeValue("New Second");
+
+    DataObjectMock third = new DataObjectMock();
+    third.initializeFromDBObject(mockDBRow());
+    third.kernels.changeValue(99);
+
+    DataObjectMock unchanged = new DataObjectMock();
+    unchanged.initializeFromDBObject(mockDBRow());
+
+    DataObject.commitAll(connection, Lists.newArrayList(first, second, third, unchanged));
+
+    verify(connection).prepareAndExecuteStatementBatchUpdateWithFields(eq("UPDATE test SET \"title\" = ? WHERE ID = ?"), batchCaptor.capture());
+    List<List<FieldValue>> titleRows = batchCaptor.getValue();
+    assertThat(titleRows)
+        .hasSize(2);
+    assertThat(titleRows.get(1).get(0).getChangedValue())
+        .isEqualTo("New Second");
+    assertThat(titleRows.get(1).get(1).getFieldName())
+        .isEqualTo("id");
+
+    verify(connection).prepareAndExecuteStatementBatchUpdateWithFields(eq("UPDATE test SET \"kernels\" = ? WHERE ID = ?"), batchCaptor.capture());
+    assertThat(batchCaptor.getValue())
+        .hasSize(1);
+
+    verify(connection, never()).prepareAndExecuteStatementUpdateWithFields(anyString(), anyList());
+
+    assertThat(first.hasChanged())
+        .as("Expect committed changes to become the original values.")
+        .isFalse();
+    assertThat(third.kernels.getValue())
+        .isEqualTo(99);
+  }
+
+  @Test
+  public void testRepeatedUpdatesReuseSqlTemplate() throws SQLException {
+    PostgresConnection connection = mock(PostgresConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+    MySQLConnection mySQLConnection = mock(MySQLConnection.class);
+    when(mySQLConnection.getDatabaseType()).thenReturn(DatabaseType.MYSQL);
+
+    // Only objects made after one of their class is initialized share its descriptor, and so its templates.
+    dataObject.initializeForInsert();
+
+    DataObjectMock first = new DataObjectMock();
+    first.initializeFromDBObject(mockDBRow());
+    first.title.changeValue("New First");
+    first.commit(connection);
+
+    DataObjectMock second = new DataObjectMock();
+    second.initializeFromDBObject(mockDBRow());
+    second.title.changeValue("New Second");
+    second.commit(connection);
+
+    DataObjectMock third = new DataObjectMock();
+    third.initializeFromDBObject(mockDBRow());
+    third.title.changeValue("New Third");
+    third.commit(mySQLConnection);
+
+    ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+    verify(connection, times(2)).prepareAndExecuteStatementUpdateWithFields(sqlCaptor.capture(), anyList());
+    List<String> statements = sqlCaptor.getAllValues();
+    assertThat(statements.get(0))
+        .isEqualTo("UPDATE test SET \"title\" = ? WHERE ID = ?");
+    assertThat(statements.get(1))
+        .as("Expect the same change set to reuse the cached SQL string.")
+        .isSameAs(statements.get(0));
+
+    verify(mySQLConnection).prepareAndExecuteStatementUpdateWithFields(eq("UPDATE test SET `title` = ? WHERE ID = ?"), anyList());
+  }
+
+  @Test
+  public void testObjectsWithOwnFieldsDontShareSqlTemplate() throws SQLException {
+    PostgresConnection connection = mock(PostgresConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+    when(connection.prepareAndExecuteStatementInsertReturnId(anyString(), anyList())).thenReturn(1);
+
+    NamedFieldMock titled = new NamedFieldMock("title");
+    titled.initializeForInsert();
+    NamedFieldMock named = new NamedFieldMock("name");
+    named.initializeForInsert();
+
+    titled.value.changeValue("Cob");
+    titled.commit(connection);
+    named.value.changeValue("Husk");
+    named.commit(connection);
+
+    verify(connection).prepareAndExecuteStatementInsertReturnId(eq("INSERT INTO test_named (\"date_added\", \"title\") VALUES (?, ?)"), anyList());
+    verify(connection).prepareAndExecuteStatementInsertReturnId(eq("INSERT INTO test_named (\"date_added\", \"name\") VALUES (?, ?)"), anyList());
+  }
+
+  static class NamedFieldMock extends DataObject {
+    FieldValueString value;
+
+    NamedFieldMock(String fieldName) {
+      value = registerStringField(fieldName, Nullability.NULLABLE);
+    }
+
+    @Override
+    public String getTableName() {
+      return "test_named";
+    }
+  }
+
   // utility methods
 
   private ResultSet mockDBRow() throws SQLException {
@@ -366,4 +605,21 @@ public class DataObjectTest {
     return resultSet;
   }
 
+  private ResultSet rowWithMetaData(ResultSetMetaData metaData) throws SQLException {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getMetaData()).thenReturn(metaData);
+    return resultSet;
+  }
+
+  private ResultSet mockPositionalRow(ResultSetMetaData metaData, Integer id, String title) throws SQLException {
+    ResultSet resultSet = mock(ResultSet.class);
+
+    when(resultSet.getMetaData()).thenReturn(metaData);
+    when(resultSet.wasNull()).thenReturn(false);
+    when(resultSet.getInt(1)).thenReturn(id);
+    when(resultSet.getString(2)).thenReturn(title);
+    when(resultSet.getInt(3)).thenReturn(initial_kernels);
+    return resultSet;
+  }
+
 }
\ No newline at end of file
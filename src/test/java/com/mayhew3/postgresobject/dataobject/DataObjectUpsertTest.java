@@ -0,0 +1,125 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("rawtypes")
+public class DataObjectUpsertTest {
+
+  private SQLConnection connection;
+
+  @BeforeEach
+  public void setUp() {
+    connection = mock(SQLConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+  }
+
+  @Test
+  public void testUpsertOnConflictOnPostgres() throws SQLException {
+    when(connection.prepareAndExecuteStatementInsertReturnIds(anyString(), anyList())).thenReturn(Lists.newArrayList(12));
+
+    DataObjectMock dataObject = newMock("Cob", 4);
+    dataObject.upsert(connection, dataObject.title);
+
+    verify(connection).prepareAndExecuteStatementInsertReturnIds(
+        eq("INSERT INTO test (\"date_added\", \"title\", \"kernels\") VALUES (?, ?, ?) " +
+            "ON CONFLICT (\"title\") DO UPDATE SET \"kernels\" = EXCLUDED.\"kernels\""),
+        anyList());
+    assertThat(dataObject.id.getValue())
+        .isEqualTo(12);
+    assertThat(dataObject.isForUpdate())
+        .isTrue();
+    assertThat(dataObject.dateAdded.isLoaded())
+        .as("Expect date_added to be unknown, since an existing row keeps its own.")
+        .isFalse();
+  }
+
+  @Test
+  public void testUpsertAllBatchesRowsAndSplitsRepeatedKeys() throws SQLException {
+    when(connection.prepareAndExecuteStatementInsertReturnIds(anyString(), anyList()))
+        .thenReturn(Lists.newArrayList(1, 2))
+        .thenReturn(Lists.newArrayList(1));
+
+    DataObjectMock first = newMock("Cob", 1);
+    DataObjectMock second = newMock("Husk", 2);
+    DataObjectMock repeat = newMock("Cob", 3);
+
+    DataObject.upsertAll(connection, Lists.newArrayList(first, second, repeat), "title");
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<FieldValue>> fieldsCaptor = ArgumentCaptor.forClass(List.class);
+    ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+    verify(connection, times(2)).prepareAndExecuteStatementInsertReturnIds(sqlCaptor.capture(), fieldsCaptor.capture());
+
+    assertThat(sqlCaptor.getAllValues().get(0))
+        .contains(" VALUES (?, ?, ?), (?, ?, ?) ON CONFLICT");
+    assertThat(fieldsCaptor.getAllValues().get(1))
+        .as("Expect the repeated key in a second statement, so the last value wins.")
+        .hasSize(3);
+    assertThat(repeat.id.getValue())
+        .isEqualTo(first.id.getValue());
+  }
+
+  @Test
+  public void testUpsertOnDuplicateKeyOnMySQL() throws SQLException {
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.MYSQL);
+    when(connection.prepareAndExecuteStatementInsertReturnId(anyString(), anyList())).thenReturn(12, 13);
+
+    DataObjectMock first = newMock("Cob", 1);
+    DataObjectMock second = newMock("Husk", 2);
+
+    DataObject.upsertAll(connection, Lists.newArrayList(first, second), "title");
+
+    verify(connection, times(2)).prepareAndExecuteStatementInsertReturnId(
+        eq("INSERT INTO test (`date_added`, `title`, `kernels`) VALUES (?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE `id` = LAST_INSERT_ID(`id`), `kernels` = VALUES(`kernels`)"),
+        anyList());
+    assertThat(second.id.getValue())
+        .isEqualTo(13);
+  }
+
+  @Test
+  public void testUndeclaredConstraintRejected() {
+    DataObjectMock dataObject = newMock("Cob", 1);
+
+    assertThrows(IllegalArgumentException.class, () -> dataObject.upsert(connection, dataObject.kernels));
+  }
+
+  @Test
+  public void testMissingKeyValueRejected() {
+    DataObjectMock dataObject = new DataObjectMock();
+    dataObject.initializeForInsert();
+    dataObject.kernels.changeValue(1);
+
+    assertThrows(IllegalArgumentException.class, () -> dataObject.upsert(connection, dataObject.title));
+  }
+
+  @Test
+  public void testLoadedObjectRejected() {
+    DataObjectMock dataObject = newMock("Cob", 1);
+    dataObject.changeToUpdateObject();
+    dataObject.id.initializeValue(3);
+
+    assertThrows(IllegalStateException.class, () -> dataObject.upsert(connection, dataObject.title));
+  }
+
+  private static DataObjectMock newMock(String title, int kernels) {
+    DataObjectMock dataObject = new DataObjectMock();
+    dataObject.initializeForInsert();
+    dataObject.title.changeValue(title);
+    dataObject.kernels.changeValue(kernels);
+    return dataObject;
+  }
+}
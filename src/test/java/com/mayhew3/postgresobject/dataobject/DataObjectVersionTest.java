@@ -0,0 +1,177 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.postgresobject.exception.OptimisticLockException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("rawtypes")
+public class DataObjectVersionTest {
+
+  private SQLConnection connection;
+
+  @BeforeEach
+  public void setUp() {
+    connection = mock(SQLConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+  }
+
+  @Test
+  public void testInsertStartsAtVersionZero() throws SQLException {
+    when(connection.prepareAndExecuteStatementInsertReturnId(anyString(), anyList())).thenReturn(1);
+
+    VersionedMock versioned = new VersionedMock();
+    versioned.initializeForInsert();
+    versioned.name.changeValue("First");
+    versioned.commit(connection);
+
+    verify(connection).prepareAndExecuteStatementInsertReturnId(eq("INSERT INTO test_versioned (\"date_added\", \"version\", \"name\") VALUES (?, ?, ?)"), anyList());
+    assertThat(versioned.version.getInt())
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testUpdateChecksAndIncrementsVersion() throws SQLException {
+    when(connection.prepareAndExecuteStatementUpdateWithFields(anyString(), anyList())).thenReturn(1);
+
+    VersionedMock versioned = newLoadedMock(5, 3);
+    versioned.name.changeValue("Changed");
+    versioned.commit(connection);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<FieldValue>> fieldsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(connection).prepareAndExecuteStatementUpdateWithFields(
+        eq("UPDATE test_versioned SET \"name\" = ?, \"version\" = \"version\" + 1 WHERE ID = ? AND \"version\" = ?"),
+        fieldsCaptor.capture());
+    assertThat(fieldsCaptor.getValue().get(2).getOriginalValue())
+        .as("Expect the version the object was loaded with in the WHERE clause.")
+        .isEqualTo(3);
+
+    assertThat(versioned.version.getInt())
+        .isEqualTo(4);
+    assertThat(versioned.hasChanged())
+        .isFalse();
+  }
+
+  @Test
+  public void testConflictThrowsAndKeepsChanges() throws SQLException {
+    when(connection.prepareAndExecuteStatementUpdateWithFields(anyString(), anyList())).thenReturn(0);
+
+    VersionedMock versioned = newLoadedMock(5, 3);
+    versioned.name.changeValue("Changed");
+
+    OptimisticLockException exception = assertThrows(OptimisticLockException.class, () -> versioned.commit(connection));
+
+    assertThat(exception.getTableName())
+        .isEqualTo("test_versioned");
+    assertThat(exception.getIds())
+        .containsExactly(5);
+    assertThat(versioned.version.getInt())
+        .isEqualTo(3);
+    assertThat(versioned.hasChanged())
+        .as("Expect the unsaved change to survive, so it can be reapplied after a reload.")
+        .isTrue();
+  }
+
+  @Test
+  public void testCommitAllWritesEveryRowBeforeReportingConflicts() throws SQLException {
+    when(connection.prepareAndExecuteStatementBatchUpdateWithFields(anyString(), anyList())).thenReturn(new int[]{1, 0});
+
+    VersionedMock first = newLoadedMock(5, 3);
+    first.name.changeValue("First");
+    VersionedMock second = newLoadedMock(6, 8);
+    second.name.changeValue("Second");
+
+    OptimisticLockException exception = assertThrows(OptimisticLockException.class,
+        () -> DataObject.commitAll(connection, Lists.newArrayList(first, second)));
+
+    assertThat(exception.getIds())
+        .containsExactly(6);
+    assertThat(first.version.getInt())
+        .isEqualTo(4);
+    assertThat(first.hasChanged())
+        .isFalse();
+    assertThat(second.version.getInt())
+        .isEqualTo(8);
+    assertThat(second.hasChanged())
+        .isTrue();
+  }
+
+  @Test
+  public void testCommitAllReportsConflictsInEveryTable() throws SQLException {
+    when(connection.prepareAndExecuteStatementBatchUpdateWithFields(anyString(), anyList())).thenReturn(new int[]{0});
+
+    VersionedMock first = newLoadedMock(5, 3);
+    first.name.changeValue("First");
+    OtherVersionedMock other = DataObjectMock.loaded(new OtherVersionedMock(), 9);
+    other.version.initializeValue(2);
+    other.name.changeValue("Other");
+
+    OptimisticLockException exception = assertThrows(OptimisticLockException.class,
+        () -> DataObject.commitAll(connection, Lists.newArrayList(first, other)));
+
+    assertThat(exception.getIdsByTable())
+        .isEqualTo(ImmutableMap.of("test_versioned", Lists.newArrayList(5), "test_versioned_other", Lists.newArrayList(9)));
+    assertThat(other.version.getInt())
+        .isEqualTo(2);
+    assertThat(other.hasChanged())
+        .isTrue();
+  }
+
+  @Test
+  public void testChangingVersionDirectlyRejected() {
+    VersionedMock versioned = newLoadedMock(5, 3);
+    versioned.version.changeValue(10);
+
+    assertThrows(IllegalStateException.class, () -> versioned.commit(connection));
+  }
+
+  @Test
+  public void testUnversionedUpdateUnchanged() throws SQLException {
+    DataObjectMock dataObject = DataObjectMock.loaded(5);
+    dataObject.title.changeValue("Changed");
+
+    dataObject.commit(connection);
+
+    verify(connection).prepareAndExecuteStatementUpdateWithFields(eq("UPDATE test SET \"title\" = ? WHERE ID = ?"), anyList());
+  }
+
+  private static VersionedMock newLoadedMock(int id, int version) {
+    VersionedMock versioned = DataObjectMock.loaded(new VersionedMock(), id);
+    versioned.version.initializeValue(version);
+    versioned.name.initializeValue("Original");
+    return versioned;
+  }
+
+  static class OtherVersionedMock extends DataObject {
+    FieldValueInt version = registerVersionField();
+    FieldValueString name = registerStringField("name", Nullability.NOT_NULL);
+
+    @Override
+    public String getTableName() {
+      return "test_versioned_other";
+    }
+  }
+
+  static class VersionedMock extends DataObject {
+    FieldValueInt version = registerVersionField();
+    FieldValueString name = registerStringField("name", Nullability.NOT_NULL);
+
+    @Override
+    public String getTableName() {
+      return "test_versioned";
+    }
+  }
+}
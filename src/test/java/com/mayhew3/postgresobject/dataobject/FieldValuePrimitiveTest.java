@@ -0,0 +1,191 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.mayhew3.postgresobject.db.DatabaseType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the unboxed field types: FieldValueInt, FieldValueLong, FieldValueDouble and FieldValueBool.
+ */
+public class FieldValuePrimitiveTest {
+
+  private TestDataObject testObject;
+
+  private static class TestDataObject extends DataObject {
+    FieldValueInt intField = registerIntField("int_field", Nullability.NULLABLE);
+    FieldValueLong longField = registerLongField("long_field", Nullability.NULLABLE);
+    FieldValueDouble doubleField = registerDoubleField("double_field", Nullability.NULLABLE);
+    FieldValueBool boolField = registerBoolField("bool_field", Nullability.NOT_NULL);
+    FieldValueBool nullableBoolField = registerBoolField("nullable_bool_field", Nullability.NULLABLE);
+
+    @Override
+    public String getTableName() {
+      return "test_table";
+    }
+  }
+
+  @BeforeEach
+  public void setUp() {
+    testObject = new TestDataObject();
+  }
+
+  @Test
+  public void testIntFieldTracksChanges() {
+    testObject.intField.initializeValue(5);
+    assertFalse(testObject.intField.isChanged());
+    assertEquals(5, testObject.intField.getInt());
+
+    testObject.intField.changeValue(6);
+    assertTrue(testObject.intField.isChanged());
+    assertEquals(Integer.valueOf(5), testObject.intField.getOriginalValue());
+    assertEquals(Integer.valueOf(6), testObject.intField.getValue());
+
+    testObject.intField.changeValue(5);
+    assertFalse(testObject.intField.isChanged(), "Changing back to the original value should not count as a change");
+  }
+
+  @Test
+  public void testIntFieldDistinguishesNullFromZero() {
+    testObject.intField.initializeValue((Integer) null);
+    assertTrue(testObject.intField.isNull());
+    assertNull(testObject.intField.getValue());
+
+    testObject.intField.changeValue(0);
+    assertFalse(testObject.intField.isNull());
+    assertTrue(testObject.intField.isChanged(), "Zero should be a change from null");
+
+    testObject.intField.changeValue((Integer) null);
+    assertTrue(testObject.intField.isNull());
+    assertFalse(testObject.intField.isChanged());
+    assertTrue(testObject.intField.getExplicitNull(), "Changing to null should be remembered for inserts");
+  }
+
+  @Test
+  public void testIntFieldUpdateInternalAndDiscard() {
+    testObject.intField.initializeValue(1);
+    testObject.intField.changeValue(2);
+    testObject.intField.discardChange();
+    assertEquals(1, testObject.intField.getInt());
+    assertFalse(testObject.intField.isChanged());
+
+    testObject.intField.changeValue(3);
+    testObject.intField.updateInternal();
+    assertFalse(testObject.intField.isChanged());
+    assertEquals(Integer.valueOf(3), testObject.intField.getOriginalValue());
+  }
+
+  @Test
+  public void testIntFieldHydratesAndBindsWithPrimitives() throws SQLException {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getInt(2)).thenReturn(0);
+    when(resultSet.wasNull()).thenReturn(true);
+
+    testObject.intField.initializeValue(resultSet, 2);
+    assertTrue(testObject.intField.isNull());
+
+    testObject.intField.changeValue(42);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    testObject.intField.updatePreparedStatement(preparedStatement, 1);
+    verify(preparedStatement).setInt(1, 42);
+
+    testObject.intField.nullValue();
+    testObject.intField.updatePreparedStatement(preparedStatement, 1);
+    verify(preparedStatement).setNull(1, Types.INTEGER);
+  }
+
+  @Test
+  public void testIdAndForeignKeysStayIntegerFields() {
+    DataObjectMock dataObject = new DataObjectMock();
+
+    assertTrue(dataObject.id instanceof FieldValueInteger, "Unboxed fields are opt-in, so ids keep their type");
+    assertTrue(dataObject.first_other instanceof FieldValueInteger, "Unboxed fields are opt-in, so foreign keys keep their type");
+  }
+
+  @Test
+  public void testIntFieldKeepsIntegerFieldMethods() {
+    testObject.initializeForInsert();
+
+    testObject.intField.increment(3);
+    assertEquals(3, testObject.intField.getInt());
+
+    testObject.intField.changeValue(40L);
+    assertEquals(40, testObject.intField.getInt());
+    assertThrows(IllegalStateException.class, () -> testObject.intField.changeValue(Integer.MAX_VALUE + 1L));
+
+    assertEquals("INTEGER", testObject.intField.getDDLType(DatabaseType.POSTGRES));
+  }
+
+  @Test
+  public void testLongFieldHoldsValuesBeyondInt() throws SQLException {
+    long bigValue = Integer.MAX_VALUE + 10L;
+    testObject.longField.changeValue(bigValue);
+    assertEquals(bigValue, testObject.longField.getLong());
+    assertTrue(testObject.longField.isChanged());
+
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    testObject.longField.updatePreparedStatement(preparedStatement, 3);
+    verify(preparedStatement).setLong(3, bigValue);
+
+    assertEquals("BIGINT", testObject.longField.getDDLType(DatabaseType.POSTGRES));
+  }
+
+  @Test
+  public void testDoubleFieldComparesLikeDoubleEquals() {
+    testObject.doubleField.initializeValue(Double.NaN);
+    testObject.doubleField.changeValue(Double.NaN);
+    assertFalse(testObject.doubleField.isChanged(), "NaN should equal NaN, as with Double.equals()");
+
+    testObject.doubleField.initializeValue(0.0);
+    testObject.doubleField.changeValue(-0.0);
+    assertTrue(testObject.doubleField.isChanged(), "-0.0 should differ from 0.0, as with Double.equals()");
+
+    assertEquals("DOUBLE PRECISION", testObject.doubleField.getDDLType(DatabaseType.POSTGRES));
+    assertEquals("double precision", testObject.doubleField.getInformationSchemaType(DatabaseType.POSTGRES));
+  }
+
+  @Test
+  public void testBoolFieldDDLMatchesBooleanField() {
+    assertEquals("BOOLEAN", testObject.boolField.getDDLType(DatabaseType.POSTGRES));
+    assertEquals("tinyint", testObject.boolField.getDDLType(DatabaseType.MYSQL));
+  }
+
+  @Test
+  public void testUnboxedTypesHaveNoBoxedValues() {
+    assertFalse(FieldValueBoxed.class.isAssignableFrom(FieldValueInt.class));
+    assertFalse(FieldValueBoxed.class.isAssignableFrom(FieldValueLong.class));
+    assertFalse(FieldValueBoxed.class.isAssignableFrom(FieldValueDouble.class));
+    assertFalse(FieldValueBoxed.class.isAssignableFrom(FieldValueBool.class));
+  }
+
+  @Test
+  public void testBoolFieldReadsNullAsFalseWhenNotNullable() throws SQLException {
+    ResultSet resultSet = mock(ResultSet.class);
+    when(resultSet.getBoolean(anyString())).thenReturn(false);
+    when(resultSet.wasNull()).thenReturn(true);
+
+    testObject.boolField.initializeValue(resultSet);
+    testObject.nullableBoolField.initializeValue(resultSet);
+
+    assertFalse(testObject.boolField.isNull());
+    assertEquals(Boolean.FALSE, testObject.boolField.getValue());
+    assertTrue(testObject.nullableBoolField.isNull());
+    assertNull(testObject.nullableBoolField.getValue());
+  }
+
+  @Test
+  public void testInsertCollectsChangedPrimitiveFields() {
+    testObject.initializeForInsert();
+    testObject.intField.changeValue(7);
+    testObject.boolField.changeValue(true);
+
+    assertEquals(3, testObject.prepareInsert().size(), "Should insert date_added plus the two changed fields");
+  }
+}
@@ -0,0 +1,142 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.RowMapper;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ForeignKeyLoaderTest {
+
+  private SQLConnection connection;
+  private DataObjectFinder<SecondDataObjectMock> parentFinder;
+  private List<SecondDataObjectMock> rows;
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    connection = mock(SQLConnection.class);
+    rows = new ArrayList<>();
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenAnswer(invocation -> new ArrayList<>(rows));
+
+    parentFinder = new DataObjectFinder<>(connection, SecondDataObjectMock::new);
+  }
+
+  @Test
+  public void testFirstParentLoadsAllParentsInOneQuery() throws SQLException {
+    SecondDataObjectMock parentOne = DataObjectMock.loaded(new SecondDataObjectMock(), 1);
+    SecondDataObjectMock parentTwo = DataObjectMock.loaded(new SecondDataObjectMock(), 2);
+    rows.addAll(Lists.newArrayList(parentOne, parentTwo));
+
+    DataObjectMock firstChild = newChild(10, 1);
+    DataObjectMock secondChild = newChild(11, 2);
+    DataObjectMock thirdChild = newChild(12, 1);
+    List<DataObjectMock> children = Lists.newArrayList(firstChild, secondChild, thirdChild);
+
+    ForeignKeyLoader<DataObjectMock, SecondDataObjectMock> loader = parentFinder.parentsOf(children, child -> child.first_other);
+
+    assertThat(loader.getParent(firstChild))
+        .isSameAs(parentOne);
+    assertThat(loader.getParent(secondChild))
+        .isSameAs(parentTwo);
+    assertThat(loader.getParent(thirdChild))
+        .isSameAs(parentOne);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<Object>> paramsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(connection, times(1)).query(endsWith("= ANY(?)"), any(RowMapper.class), paramsCaptor.capture());
+    assertThat((Integer[]) paramsCaptor.getValue().get(0))
+        .as("Expect each distinct parent id once.")
+        .containsOnly(1, 2);
+  }
+
+  @Test
+  public void testNullForeignKeyNeedsNoQuery() throws SQLException {
+    DataObjectMock child = newChild(10, null);
+
+    ForeignKeyLoader<DataObjectMock, SecondDataObjectMock> loader = parentFinder.parentsOf(Lists.newArrayList(child), c -> c.first_other);
+
+    assertThat(loader.getParent(child))
+        .isNull();
+    verify(connection, never()).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testMissingParentNotQueriedAgain() throws SQLException {
+    DataObjectMock child = newChild(10, 5);
+
+    ForeignKeyLoader<DataObjectMock, SecondDataObjectMock> loader = parentFinder.parentsOf(Lists.newArrayList(child), c -> c.first_other);
+
+    assertThat(loader.getParent(child))
+        .isNull();
+    assertThat(loader.getParent(child))
+        .isNull();
+    verify(connection, times(1)).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testChangedForeignKeyLoadsNewParent() throws SQLException {
+    SecondDataObjectMock parentOne = DataObjectMock.loaded(new SecondDataObjectMock(), 1);
+    rows.add(parentOne);
+    DataObjectMock child = newChild(10, 1);
+
+    ForeignKeyLoader<DataObjectMock, SecondDataObjectMock> loader = parentFinder.parentsOf(Lists.newArrayList(child), c -> c.first_other);
+    loader.getParent(child);
+
+    SecondDataObjectMock parentTwo = DataObjectMock.loaded(new SecondDataObjectMock(), 2);
+    rows.clear();
+    rows.add(parentTwo);
+    child.first_other.changeValue(2);
+
+    assertThat(loader.getParent(child))
+        .isSameAs(parentTwo);
+    assertThat(loader.getParents())
+        .as("Expect parents loaded earlier to be kept.")
+        .hasSize(2);
+    verify(connection, times(2)).query(anyString(), any(RowMapper.class), anyList());
+  }
+
+  @Test
+  public void testGetParentsLoadsEveryParent() throws SQLException {
+    SecondDataObjectMock parentOne = DataObjectMock.loaded(new SecondDataObjectMock(), 1);
+    rows.add(parentOne);
+
+    List<DataObjectMock> children = Lists.newArrayList(newChild(10, 1), newChild(11, 3));
+
+    Map<Integer, SecondDataObjectMock> parents = parentFinder.parentsOf(children, c -> c.first_other).getParents();
+
+    assertThat(parents)
+        .hasSize(1);
+    assertThat(parents.get(1))
+        .isSameAs(parentOne);
+  }
+
+  @Test
+  public void testForeignKeyToOtherTableRejected() {
+    DataObjectFinder<DataObjectMock> wrongFinder = new DataObjectFinder<>(connection, DataObjectMock::new);
+    DataObjectMock child = newChild(10, 1);
+
+    ForeignKeyLoader<DataObjectMock, DataObjectMock> loader = wrongFinder.parentsOf(Lists.newArrayList(child), c -> c.first_other);
+
+    assertThrows(IllegalArgumentException.class, () -> loader.getParent(child));
+  }
+
+  private static DataObjectMock newChild(int id, Integer parentId) {
+    DataObjectMock dataObject = DataObjectMock.loaded(id);
+    dataObject.first_other.initializeValue(parentId);
+    return dataObject;
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import com.google.common.collect.Lists;
+import com.mayhew3.postgresobject.db.DatabaseType;
+import com.mayhew3.postgresobject.db.RowMapper;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("rawtypes")
+public class SequenceIdAllocatorTest {
+
+  private SQLConnection connection;
+
+  @BeforeEach
+  public void setUp() {
+    connection = mock(SQLConnection.class);
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.POSTGRES);
+  }
+
+  @Test
+  public void testAssignIdsReservesOneBlock() throws SQLException {
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenReturn(Lists.newArrayList(40, 41, 42, 43));
+
+    SequenceIdAllocator allocator = new SequenceIdAllocator(connection, 4);
+    DataObjectMock first = newMock("Cob");
+    DataObjectMock second = newMock("Husk");
+    DataObjectMock third = newMock("Silk");
+
+    allocator.assignIds(Lists.newArrayList(first, second));
+    allocator.assignId(third);
+
+    verify(connection, times(1)).query(
+        eq("SELECT nextval(CAST(? AS regclass)) AS id FROM generate_series(1, ?)"),
+        any(RowMapper.class),
+        eq(Lists.newArrayList((Object) "test_id_seq", 4)));
+    assertThat(first.id.getValue())
+        .isEqualTo(40);
+    assertThat(second.id.getValue())
+        .isEqualTo(41);
+    assertThat(third.id.getValue())
+        .as("Expect the second call to use the block reserved by the first.")
+        .isEqualTo(42);
+    assertThat(allocator.getReservedCount("test_id_seq"))
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testLargeRequestReservesEnoughIds() throws SQLException {
+    when(connection.query(anyString(), any(RowMapper.class), anyList())).thenReturn(Lists.newArrayList(1, 2, 3));
+
+    SequenceIdAllocator allocator = new SequenceIdAllocator(connection, 2);
+    allocator.assignIds(Lists.newArrayList(newMock("Cob"), newMock("Husk"), newMock("Silk")));
+
+    verify(connection).query(anyString(), any(RowMapper.class), eq(Lists.newArrayList((Object) "test_id_seq", 3)));
+  }
+
+  @Test
+  public void testExistingIdKept() throws SQLException {
+    SequenceIdAllocator allocator = new SequenceIdAllocator(connection, 4);
+    DataObjectMock dataObject = newMock("Cob");
+    dataObject.id.changeValue(7);
+
+    allocator.assignId(dataObject);
+
+    verify(connection, never()).query(anyString(), any(RowMapper.class), anyList());
+    assertThat(dataObject.id.getValue())
+        .isEqualTo(7);
+  }
+
+  @Test
+  public void testCommitWithAssignedIdInsertsIt() throws SQLException {
+    DataObjectMock dataObject = newMock("Cob");
+    dataObject.id.changeValue(40);
+
+    dataObject.commit(connection);
+
+    verify(connection).prepareAndExecuteStatementUpdateWithFields(
+        eq("INSERT INTO test (\"id\", \"date_added\", \"title\") VALUES (?, ?, ?)"),
+        anyList());
+    verify(connection, never()).prepareAndExecuteStatementInsertReturnId(anyString(), anyList());
+    assertThat(dataObject.id.getValue())
+        .isEqualTo(40);
+    assertThat(dataObject.isForUpdate())
+        .isTrue();
+  }
+
+  @Test
+  public void testCommitAllWithAssignedIdsSkipsGeneratedKeys() throws SQLException {
+    DataObjectMock first = newMock("Cob");
+    first.id.changeValue(40);
+    DataObjectMock second = newMock("Husk");
+    second.id.changeValue(41);
+
+    DataObject.commitAll(connection, Lists.newArrayList(first, second));
+
+    verify(connection).prepareAndExecuteStatementUpdateWithFields(
+        eq("INSERT INTO test (\"id\", \"date_added\", \"title\") VALUES (?, ?, ?), (?, ?, ?)"),
+        anyList());
+    verify(connection, never()).prepareAndExecuteStatementInsertReturnIds(anyString(), anyList());
+    assertThat(second.id.getValue())
+        .isEqualTo(41);
+  }
+
+  @Test
+  public void testLoadedObjectRejected() {
+    SequenceIdAllocator allocator = new SequenceIdAllocator(connection, 4);
+    DataObjectMock dataObject = newMock("Cob");
+    dataObject.changeToUpdateObject();
+
+    assertThrows(IllegalStateException.class, () -> allocator.assignId(dataObject));
+  }
+
+  @Test
+  public void testMySQLRejected() {
+    when(connection.getDatabaseType()).thenReturn(DatabaseType.MYSQL);
+
+    assertThrows(IllegalArgumentException.class, () -> new SequenceIdAllocator(connection, 4));
+  }
+
+  private static DataObjectMock newMock(String title) {
+    DataObjectMock dataObject = new DataObjectMock();
+    dataObject.initializeForInsert();
+    dataObject.title.changeValue(title);
+    return dataObject;
+  }
+}
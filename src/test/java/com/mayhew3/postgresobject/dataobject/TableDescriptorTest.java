@@ -0,0 +1,190 @@
+package com.mayhew3.postgresobject.dataobject;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TableDescriptorTest {
+
+  public static class ParentDataObject extends DataObject {
+    @Override
+    public String getTableName() {
+      return "parent";
+    }
+  }
+
+  private static class ChildDataObject extends DataObject {
+    FieldValueForeignKey parent = registerForeignKey(ParentDataObject.class, Nullability.NOT_NULL);
+    FieldValueForeignKey self = registerForeignKeyWithName(ChildDataObject.class, Nullability.NULLABLE, "sibling_id");
+
+    @Override
+    public String getTableName() {
+      return "child";
+    }
+  }
+
+  private static class NoPrototypeDataObject extends DataObject {
+    NoPrototypeDataObject(String unused) {
+      super();
+    }
+
+    @Override
+    public String getTableName() {
+      return "no_prototype";
+    }
+  }
+
+  private static class BadChildDataObject extends DataObject {
+    FieldValueForeignKey parent = registerForeignKey(NoPrototypeDataObject.class, Nullability.NOT_NULL);
+
+    @Override
+    public String getTableName() {
+      return "bad_child";
+    }
+  }
+
+  static class CountingParentDataObject extends DataObject {
+    static int constructed = 0;
+
+    CountingParentDataObject() {
+      constructed++;
+    }
+
+    @Override
+    public String getTableName() {
+      return "counting_parent";
+    }
+  }
+
+  private static class CountingChildDataObject extends DataObject {
+    FieldValueForeignKey parent = registerForeignKey(CountingParentDataObject.class, Nullability.NOT_NULL);
+
+    @Override
+    public String getTableName() {
+      return "counting_child";
+    }
+  }
+
+  static class LateDataObject extends DataObject {
+    FieldValueString name = registerStringField("name", Nullability.NULLABLE);
+
+    @Override
+    public String getTableName() {
+      return "late";
+    }
+  }
+
+  @Test
+  public void testInstancesShareMetadata() {
+    DataObjectMock first = new DataObjectMock();
+    first.initializeForInsert();
+    DataObjectMock second = new DataObjectMock();
+
+    List<UniqueConstraint> firstConstraints = first.getUniqueIndices();
+    List<UniqueConstraint> secondConstraints = second.getUniqueIndices();
+    assertThat(firstConstraints)
+        .hasSize(3);
+    for (int i = 0; i < firstConstraints.size(); i++) {
+      assertThat(secondConstraints.get(i))
+          .as("Expect each instance to reuse the class's constraint objects.")
+          .isSameAs(firstConstraints.get(i));
+    }
+
+    assertThat(second.getIndices().get(0))
+        .isSameAs(first.getIndices().get(0));
+    assertThat(TableDescriptor.forClass(DataObjectMock.class))
+        .isSameAs(TableDescriptor.forClass(DataObjectMock.class));
+  }
+
+  @Test
+  public void testMetadataMatchesDeclarations() {
+    DataObjectMock dataObject = new DataObjectMock();
+
+    assertThat(indexNames(dataObject.getUniqueIndices()))
+        .containsExactly("test_pkey", "test_title_key", "test_kernels_date_added_key");
+    assertThat(dataObject.getIndices().get(0).getIndexName())
+        .isEqualTo("test_title_kernels_ix");
+    assertThat(dataObject.getSequenceNames())
+        .containsExactly("test_id_seq");
+
+    List<FieldValueForeignKey> foreignKeys = dataObject.getForeignKeys();
+    assertThat(foreignKeys)
+        .containsExactly(dataObject.first_other, dataObject.second_other);
+    assertThat(foreignKeys.get(0).getTableName())
+        .isEqualTo("test_second");
+  }
+
+  @Test
+  public void testExtraDeclarationOnlyAffectsOneInstance() {
+    DataObjectMock changed = new DataObjectMock();
+    changed.addColumnsIndex(changed.kernels);
+
+    DataObjectMock unchanged = new DataObjectMock();
+
+    assertThat(changed.getIndices())
+        .hasSize(2);
+    assertThat(unchanged.getIndices())
+        .hasSize(1);
+  }
+
+  @Test
+  public void testForeignKeyRegisteredByClass() {
+    ChildDataObject dataObject = new ChildDataObject();
+
+    assertThat(dataObject.parent.getFieldName())
+        .isEqualTo("parent_id");
+    assertThat(dataObject.parent.getTableName())
+        .isEqualTo("parent");
+    assertThat(dataObject.self.getTableName())
+        .as("Expect a class to be able to point at its own table.")
+        .isEqualTo("child");
+  }
+
+  @Test
+  public void testClassWithoutNoArgConstructorHasNoDescriptor() {
+    NoPrototypeDataObject dataObject = new NoPrototypeDataObject("x");
+
+    assertThat(TableDescriptor.forClass(NoPrototypeDataObject.class))
+        .isNull();
+    assertThat(indexNames(dataObject.getUniqueIndices()))
+        .containsExactly("no_prototype_pkey");
+    assertThrows(IllegalArgumentException.class, BadChildDataObject::new);
+  }
+
+  @Test
+  public void testDescriptorBuiltFromFirstInitializedInstance() {
+    LateDataObject first = new LateDataObject();
+
+    assertThat(TableDescriptor.forClass(LateDataObject.class))
+        .as("Expect no descriptor for a class without a public constructor until an instance is initialized.")
+        .isNull();
+
+    first.initializeForInsert();
+
+    TableDescriptor descriptor = TableDescriptor.forClass(LateDataObject.class);
+    assertThat(descriptor)
+        .isNotNull();
+    assertThat(descriptor.getFieldNames())
+        .containsExactly("date_added", "name");
+
+    LateDataObject second = new LateDataObject();
+    assertThat(second.getFieldNames())
+        .isSameAs(descriptor.getFieldNames());
+  }
+
+  @Test
+  public void testNonPublicConstructorNeverCalledReflectively() {
+    assertThrows(IllegalArgumentException.class, CountingChildDataObject::new);
+
+    assertThat(CountingParentDataObject.constructed)
+        .isEqualTo(0);
+  }
+
+  private List<String> indexNames(List<UniqueConstraint> uniqueConstraints) {
+    return uniqueConstraints.stream().map(UniqueConstraint::getIndexName).collect(Collectors.toList());
+  }
+}
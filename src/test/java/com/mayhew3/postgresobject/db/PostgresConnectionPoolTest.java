@@ -0,0 +1,190 @@
+package com.mayhew3.postgresobject.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+public class PostgresConnectionPoolTest {
+
+  private List<PostgresConnection> openedConnections;
+  private PostgresConnectionSupplier supplier;
+
+  @BeforeEach
+  public void setUp() {
+    openedConnections = new ArrayList<>();
+    supplier = () -> {
+      PostgresConnection connection = mock(PostgresConnection.class);
+      openedConnections.add(connection);
+      return connection;
+    };
+  }
+
+  @Test
+  public void testMinSizeOpenedUpFront() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(2).withMaxSize(4));
+
+    assertThat(pool.getTotalConnectionCount())
+        .isEqualTo(2);
+    assertThat(pool.getIdleConnectionCount())
+        .isEqualTo(2);
+  }
+
+  @Test
+  public void testReleasedConnectionIsReused() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(0).withMaxSize(2));
+
+    PostgresConnection first;
+    try (ConnectionLease lease = pool.lease()) {
+      first = lease.getConnection();
+    }
+
+    try (ConnectionLease lease = pool.lease()) {
+      assertThat(lease.getConnection())
+          .as("Expect the idle connection to be handed out again rather than a new one opened.")
+          .isSameAs(first);
+    }
+
+    assertThat(openedConnections)
+        .hasSize(1);
+  }
+
+  @Test
+  public void testLeaseTimesOutWhenPoolExhausted() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(0).withMaxSize(1).withMaxWaitMillis(20));
+
+    try (ConnectionLease ignored = pool.lease()) {
+      assertThrows(SQLTimeoutException.class, pool::lease);
+    }
+
+    assertThat(pool.getLeasedConnectionCount())
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testInvalidConnectionDiscardedOnBorrow() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(1).withMaxSize(1).withValidationIntervalMillis(0));
+    PostgresConnection stale = openedConnections.get(0);
+    when(stale.isValid(anyInt())).thenReturn(false);
+
+    try (ConnectionLease lease = pool.lease()) {
+      assertThat(lease.getConnection())
+          .isNotSameAs(stale);
+    }
+
+    verify(stale).closeConnection();
+    assertThat(pool.getTotalConnectionCount())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testClosedConnectionDiscardedWithinValidationInterval() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(1).withMaxSize(1).withValidationIntervalMillis(60000));
+    PostgresConnection closed = openedConnections.get(0);
+    when(closed.isClosed()).thenReturn(true);
+
+    try (ConnectionLease lease = pool.lease()) {
+      assertThat(lease.getConnection())
+          .as("Expect a closed connection never to be handed out, even if it was validated recently.")
+          .isNotSameAs(closed);
+    }
+
+    verify(closed, never()).isValid(anyInt());
+  }
+
+  @Test
+  public void testIdleConnectionsEvictedDownToMinSize() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(1).withMaxSize(3).withIdleTimeoutMillis(0));
+
+    ConnectionLease first = pool.lease();
+    ConnectionLease second = pool.lease();
+    ConnectionLease third = pool.lease();
+    first.close();
+    second.close();
+    third.close();
+
+    assertThat(pool.getTotalConnectionCount())
+        .isEqualTo(3);
+
+    pool.evictIdleConnections();
+
+    assertThat(pool.getTotalConnectionCount())
+        .isEqualTo(1);
+    assertThat(pool.getIdleConnectionCount())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testPerCallMethodReleasesLease() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(1).withMaxSize(1));
+    PostgresConnection connection = openedConnections.get(0);
+
+    ResultSet resultSet = mock(ResultSet.class);
+    when(connection.prepareAndExecuteStatementFetch("SELECT 1", new ArrayList<>())).thenReturn(resultSet);
+
+    ResultSet actual = pool.prepareAndExecuteStatementFetch("SELECT 1", new ArrayList<>());
+
+    assertThat(actual)
+        .isEqualTo(resultSet);
+    assertThat(pool.getLeasedConnectionCount())
+        .isEqualTo(0);
+    assertThat(pool.getIdleConnectionCount())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testStatementMethodsOnlyAllowedInTransaction() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(1).withMaxSize(2));
+    PostgresConnection connection = openedConnections.get(0);
+    when(connection.inTransaction(any(TransactionOptions.class), any(TransactionWork.class)))
+        .thenAnswer(invocation -> invocation.<TransactionWork<?>>getArgument(1).execute());
+
+    assertThrows(IllegalStateException.class, () -> pool.executeUpdate("UPDATE test"));
+    assertThrows(IllegalStateException.class, () -> pool.prepareStatementNoParams("SELECT 1"));
+    assertThrows(IllegalStateException.class, () -> pool.prepareStatementWithParams("SELECT 1", new ArrayList<>()));
+    assertThrows(IllegalStateException.class, () -> pool.prepareStatementWithFields("SELECT 1", new ArrayList<>()));
+    assertThat(pool.getLeasedConnectionCount())
+        .isEqualTo(0);
+
+    pool.inTransaction(() -> {
+      pool.prepareStatementNoParams("SELECT 1");
+      pool.executeUpdate("UPDATE test");
+    });
+
+    verify(connection).prepareStatementNoParams("SELECT 1");
+    verify(connection).executeUpdate("UPDATE test");
+    assertThat(openedConnections)
+        .hasSize(1);
+  }
+
+  @Test
+  public void testCloseConnectionClosesIdleAndRejectsLeases() throws SQLException {
+    PostgresConnectionPool pool = createPool(settings().withMinSize(2).withMaxSize(2));
+
+    pool.closeConnection();
+
+    for (PostgresConnection connection : openedConnections) {
+      verify(connection).closeConnection();
+    }
+    assertThrows(SQLException.class, pool::lease);
+  }
+
+  // utility methods
+
+  private ConnectionPoolSettings settings() {
+    return new ConnectionPoolSettings()
+        .withEvictionIntervalMillis(0);
+  }
+
+  private PostgresConnectionPool createPool(ConnectionPoolSettings settings) throws SQLException {
+    return new PostgresConnectionPool(supplier, "test", settings);
+  }
+}
@@ -2,14 +2,18 @@ package com.mayhew3.postgresobject.db;
 
 import com.google.common.collect.Lists;
 import com.mayhew3.postgresobject.dataobject.FieldValue;
+import com.mayhew3.postgresobject.exception.UncheckedSQLException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 public class PostgresConnectionTest {
@@ -176,9 +180,580 @@ public class PostgresConnectionTest {
     verify(secondField).updatePreparedStatement(preparedStatement, 2);
 
     verify(preparedStatement).executeUpdate();
+    verify(preparedStatement, never()).close();
+  }
+
+  @Test
+  public void testRepeatedUpdateReusesCachedStatement() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+
+    String sql = "UPDATE test SET title = ? WHERE ID = ?";
+    when(connection.prepareStatement(sql)).thenReturn(preparedStatement);
+
+    postgresConnection.prepareAndExecuteStatementUpdate(sql, "first", 1);
+    postgresConnection.prepareAndExecuteStatementUpdate(sql, "second", 2);
+
+    verify(connection, times(1)).prepareStatement(sql);
+    verify(preparedStatement, times(2)).executeUpdate();
+    verify(preparedStatement).setString(1, "second");
+    verify(preparedStatement).setInt(2, 2);
+
+    PreparedStatementCache statementCache = postgresConnection.getStatementCache();
+    assertThat(statementCache.getMissCount())
+        .isEqualTo(1L);
+    assertThat(statementCache.getHitCount())
+        .isEqualTo(1L);
+  }
+
+  @Test
+  public void testInsertAndUpdateWithSameSqlCachedSeparately() throws SQLException {
+    PreparedStatement updateStatement = mock(PreparedStatement.class);
+    PreparedStatement insertStatement = mock(PreparedStatement.class);
+    ResultSet generatedKeys = mock(ResultSet.class);
+
+    String sql = "INSERT INTO test (title) VALUES (?)";
+    when(connection.prepareStatement(sql)).thenReturn(updateStatement);
+    when(connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)).thenReturn(insertStatement);
+    when(insertStatement.getGeneratedKeys()).thenReturn(generatedKeys);
+    when(generatedKeys.next()).thenReturn(true);
+    when(generatedKeys.getInt("ID")).thenReturn(7);
+
+    postgresConnection.prepareAndExecuteStatementUpdate(sql, "first");
+    Integer id = postgresConnection.prepareAndExecuteStatementInsertReturnId(sql, Lists.newArrayList());
+
+    assertThat(id)
+        .isEqualTo(7);
+    assertThat(postgresConnection.getStatementCache().size())
+        .isEqualTo(2);
+    verify(generatedKeys).close();
+  }
+
+  @Test
+  public void testCloseConnectionClosesCachedStatements() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+
+    String sql = "UPDATE test SET title = ?";
+    when(connection.prepareStatement(sql)).thenReturn(preparedStatement);
+
+    postgresConnection.prepareAndExecuteStatementUpdate(sql, "first");
+    postgresConnection.closeConnection();
+
+    verify(preparedStatement).close();
+    assertThat(postgresConnection.getStatementCache().size())
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testFailedUpdateDiscardsStatement() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+
+    String sql = "UPDATE test SET title = ?";
+    when(connection.prepareStatement(sql)).thenReturn(preparedStatement);
+    when(preparedStatement.executeUpdate()).thenThrow(new SQLException("boom"));
+
+    assertThrows(SQLException.class, () -> postgresConnection.prepareAndExecuteStatementUpdate(sql, "first"));
+
+    verify(preparedStatement).close();
+    assertThat(postgresConnection.getStatementCache().size())
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testQueryMapsRowsAndClosesResultSet() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT title FROM test WHERE kernels > ?";
+    when(connection.prepareStatement(sql)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, true, false);
+    when(resultSet.getString("title")).thenReturn("first", "second");
+
+    List<String> titles = postgresConnection.query(sql, rs -> rs.getString("title"), 3);
+
+    assertThat(titles)
+        .containsExactly("first", "second");
+    verify(preparedStatement).setInt(1, 3);
+    verify(resultSet).close();
+    verify(preparedStatement, never()).close();
+    assertThat(postgresConnection.getStatementCache().size())
+        .as("Expect the statement to be checked back in for reuse once the rows are read.")
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testQueryForObjectReturnsNullWhenNoRows() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT title FROM test WHERE id = ?";
+    when(connection.prepareStatement(sql)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(false);
+
+    String title = postgresConnection.queryForObject(sql, rs -> rs.getString("title"), 5);
+
+    assertThat(title)
+        .isNull();
+    verify(resultSet).close();
+  }
+
+  @Test
+  public void testQueryForObjectFetchesOneRow() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT title FROM test WHERE id = ?";
+    when(connection.prepareStatement(sql)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, false);
+    when(resultSet.getString("title")).thenReturn("Cob");
+
+    String title = postgresConnection.queryForObject(sql, rs -> rs.getString("title"), 5);
+
+    assertThat(title)
+        .isEqualTo("Cob");
+
+    InOrder inOrder = inOrder(preparedStatement);
+    inOrder.verify(preparedStatement).setMaxRows(1);
+    inOrder.verify(preparedStatement).executeQuery();
+    inOrder.verify(preparedStatement).setMaxRows(0);
+    assertThat(postgresConnection.getStatementCache().size())
+        .as("Expect the statement to be checked back in with the row limit cleared.")
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testFailedRowCallbackDiscardsStatement() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT title FROM test";
+    when(connection.prepareStatement(sql)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+
+    assertThrows(SQLException.class, () -> postgresConnection.forEachRow(sql, rs -> {
+      throw new SQLException("boom");
+    }));
+
+    verify(resultSet).close();
+    verify(preparedStatement).close();
+    assertThat(postgresConnection.getStatementCache().size())
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testStreamingQueryRunsInOwnTransaction() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT * FROM test WHERE kernels > ?";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, true, false);
+
+    List<Integer> rowsSeen = Lists.newArrayList();
+    postgresConnection.forEachRowStreaming(sql, 500, rs -> rowsSeen.add(rowsSeen.size()), 3);
+
+    assertThat(rowsSeen)
+        .hasSize(2);
+
+    InOrder inOrder = inOrder(connection, preparedStatement, resultSet);
+    inOrder.verify(connection).setAutoCommit(false);
+    inOrder.verify(preparedStatement).setFetchSize(500);
+    inOrder.verify(preparedStatement).executeQuery();
+    inOrder.verify(resultSet).close();
+    inOrder.verify(preparedStatement).close();
+    inOrder.verify(connection).commit();
+    inOrder.verify(connection).setAutoCommit(true);
+  }
+
+  @Test
+  public void testStreamingQueryJoinsOpenTransaction() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT * FROM test";
+    when(connection.getAutoCommit()).thenReturn(false);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(false);
+
+    postgresConnection.forEachRowStreaming(sql, 500, rs -> {});
+
+    verify(connection, never()).setAutoCommit(anyBoolean());
+    verify(connection, never()).commit();
     verify(preparedStatement).close();
   }
 
+  @Test
+  public void testFailedStreamingQueryRollsBack() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT * FROM test";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+
+    assertThrows(SQLException.class, () -> postgresConnection.forEachRowStreaming(sql, 500, rs -> {
+      throw new SQLException("boom");
+    }));
+
+    verify(connection).rollback();
+    verify(connection, never()).commit();
+    verify(connection).setAutoCommit(true);
+    verify(resultSet).close();
+  }
+
+  @Test
+  public void testTransactionInsideStreamJoinsIt() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    PreparedStatement updateStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+    Runnable afterTransaction = mock(Runnable.class);
+
+    String sql = "SELECT * FROM test";
+    String updateSql = "UPDATE test SET title = ? WHERE id = ?";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(connection.prepareStatement(updateSql)).thenReturn(updateStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, true, false);
+
+    postgresConnection.forEachRowStreaming(sql, 500, rs -> {
+      assertThat(postgresConnection.isInTransaction())
+          .isTrue();
+      postgresConnection.inTransaction(() -> {
+        postgresConnection.prepareAndExecuteStatementUpdate(updateSql, "title", 1);
+        postgresConnection.runAfterTransaction(afterTransaction);
+      });
+      verify(afterTransaction, never()).run();
+    });
+
+    assertThat(postgresConnection.isInTransaction())
+        .isFalse();
+
+    InOrder inOrder = inOrder(connection, updateStatement, afterTransaction);
+    inOrder.verify(connection).setAutoCommit(false);
+    inOrder.verify(updateStatement, times(2)).executeUpdate();
+    inOrder.verify(connection).commit();
+    inOrder.verify(connection).setAutoCommit(true);
+    inOrder.verify(afterTransaction, times(2)).run();
+    verify(connection, times(1)).setAutoCommit(false);
+    verify(connection, times(1)).commit();
+  }
+
+  @Test
+  public void testRunAfterTransactionWaitsForStreamToClose() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+    Runnable afterTransaction = mock(Runnable.class);
+
+    String sql = "SELECT * FROM test";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, true, false);
+
+    try (Stream<String> rows = postgresConnection.streamRows(sql, 500, rs -> "row", Lists.newArrayList())) {
+      rows.limit(1).forEach(row -> postgresConnection.runAfterTransaction(afterTransaction));
+      verify(afterTransaction, never()).run();
+    }
+
+    InOrder inOrder = inOrder(connection, afterTransaction);
+    inOrder.verify(connection).commit();
+    inOrder.verify(afterTransaction).run();
+  }
+
+  @Test
+  public void testStreamRowsMapsOnlyConsumedRowsAndCommitsOnClose() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT * FROM test WHERE kernels > ?";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, true, true, false);
+
+    List<Integer> rowsMapped = Lists.newArrayList();
+    try (Stream<Integer> rows = postgresConnection.streamRows(sql, 500, rs -> {
+      rowsMapped.add(rowsMapped.size());
+      return rowsMapped.size();
+    }, Lists.newArrayList(3))) {
+      assertThat(rows.findFirst().orElse(null))
+          .isEqualTo(1);
+      verify(connection, never()).commit();
+    }
+
+    assertThat(rowsMapped)
+        .as("Expect rows after the first to be left unread.")
+        .hasSize(1);
+
+    InOrder inOrder = inOrder(connection, preparedStatement, resultSet);
+    inOrder.verify(connection).setAutoCommit(false);
+    inOrder.verify(preparedStatement).setFetchSize(500);
+    inOrder.verify(preparedStatement).executeQuery();
+    inOrder.verify(resultSet).close();
+    inOrder.verify(preparedStatement).close();
+    inOrder.verify(connection).commit();
+    inOrder.verify(connection).setAutoCommit(true);
+  }
+
+  @Test
+  public void testStreamRowsReleasesCursorAfterLastRow() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT * FROM test";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true, false);
+
+    long count = postgresConnection.streamRows(sql, 500, rs -> "row", Lists.newArrayList()).count();
+
+    assertThat(count)
+        .isEqualTo(1L);
+    verify(resultSet).close();
+    verify(preparedStatement).close();
+    verify(connection).commit();
+    verify(connection).setAutoCommit(true);
+  }
+
+  @Test
+  public void testLostConnectionUnderStreamNotReplaced() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT * FROM test";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+
+    assertThrows(SQLException.class, () -> postgresConnection.forEachRowStreaming(sql, 500, rs -> {
+      when(connection.isClosed()).thenReturn(true);
+      postgresConnection.prepareAndExecuteStatementUpdate("UPDATE test SET title = ?", "lost");
+    }));
+
+    verify(connection, never()).close();
+    verify(connection, never()).prepareStatement("UPDATE test SET title = ?");
+  }
+
+  @Test
+  public void testStreamRowsFailedRowRollsBack() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT * FROM test";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+
+    Stream<Object> rows = postgresConnection.streamRows(sql, 500, rs -> {
+      throw new SQLException("boom");
+    }, Lists.newArrayList());
+
+    assertThrows(UncheckedSQLException.class, () -> rows.forEach(row -> {}));
+
+    verify(connection).rollback();
+    verify(connection, never()).commit();
+    verify(connection).setAutoCommit(true);
+    verify(resultSet).close();
+  }
+
+  @Test
+  public void testStreamRowsUncheckedFailureRollsBack() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    ResultSet resultSet = mock(ResultSet.class);
+
+    String sql = "SELECT * FROM test";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)).thenReturn(preparedStatement);
+    when(preparedStatement.executeQuery()).thenReturn(resultSet);
+    when(resultSet.next()).thenReturn(true);
+
+    assertThrows(IllegalStateException.class, () -> {
+      try (Stream<Object> rows = postgresConnection.streamRows(sql, 500, rs -> {
+        throw new IllegalStateException("Row found with no valid id field");
+      }, Lists.newArrayList())) {
+        rows.forEach(row -> {});
+      }
+    });
+
+    verify(connection).rollback();
+    verify(connection, never()).commit();
+    verify(connection).setAutoCommit(true);
+    verify(resultSet).close();
+  }
+
+  @Test
+  public void testInTransactionCommitsOnce() throws SQLException {
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+
+    String sql = "UPDATE test SET title = ? WHERE ID = ?";
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(sql)).thenReturn(preparedStatement);
+
+    Integer result = postgresConnection.inTransaction(() -> {
+      assertThat(postgresConnection.isInTransaction())
+          .isTrue();
+      postgresConnection.prepareAndExecuteStatementUpdate(sql, "first", 1);
+      postgresConnection.prepareAndExecuteStatementUpdate(sql, "second", 2);
+      return 2;
+    });
+
+    assertThat(result)
+        .isEqualTo(2);
+    assertThat(postgresConnection.isInTransaction())
+        .isFalse();
+
+    InOrder inOrder = inOrder(connection, preparedStatement);
+    inOrder.verify(connection).setAutoCommit(false);
+    inOrder.verify(preparedStatement, times(2)).executeUpdate();
+    inOrder.verify(connection).commit();
+    inOrder.verify(connection).setAutoCommit(true);
+    verify(connection, never()).rollback();
+  }
+
+  @Test
+  public void testInTransactionRollsBackOnFailure() throws SQLException {
+    when(connection.getAutoCommit()).thenReturn(true);
+
+    SQLException thrown = assertThrows(SQLException.class, () -> postgresConnection.inTransaction(() -> {
+      throw new SQLException("boom");
+    }));
+
+    assertThat(thrown.getMessage())
+        .isEqualTo("boom");
+    assertThat(postgresConnection.isInTransaction())
+        .isFalse();
+
+    verify(connection).rollback();
+    verify(connection, never()).commit();
+    verify(connection).setAutoCommit(true);
+  }
+
+  @Test
+  public void testInTransactionAppliesAndRestoresOptions() throws SQLException {
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+
+    TransactionOptions options = new TransactionOptions()
+        .withIsolation(TransactionOptions.Isolation.SERIALIZABLE)
+        .withReadOnly(true);
+    postgresConnection.inTransaction(options, () -> {});
+
+    InOrder inOrder = inOrder(connection);
+    inOrder.verify(connection).setAutoCommit(false);
+    inOrder.verify(connection).setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+    inOrder.verify(connection).setReadOnly(true);
+    inOrder.verify(connection).commit();
+    inOrder.verify(connection).setAutoCommit(true);
+    inOrder.verify(connection).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    inOrder.verify(connection).setReadOnly(false);
+  }
+
+  @Test
+  public void testRunAfterTransactionWaitsForCommit() throws SQLException {
+    when(connection.getAutoCommit()).thenReturn(true);
+    Runnable action = mock(Runnable.class);
+
+    postgresConnection.inTransaction(() -> postgresConnection.inTransaction(() -> {
+      postgresConnection.runAfterTransaction(action);
+      verify(action, never()).run();
+    }));
+
+    InOrder inOrder = inOrder(connection, action);
+    inOrder.verify(connection).commit();
+    inOrder.verify(action).run();
+  }
+
+  @Test
+  public void testRunAfterTransactionRunsRightAwayOutsideTransaction() {
+    Runnable action = mock(Runnable.class);
+
+    postgresConnection.runAfterTransaction(action);
+
+    verify(action).run();
+  }
+
+  @Test
+  public void testRunAfterRollbackRunsOnlyOnRollback() throws SQLException {
+    when(connection.getAutoCommit()).thenReturn(true);
+    Runnable committedAction = mock(Runnable.class);
+    Runnable first = mock(Runnable.class);
+    Runnable second = mock(Runnable.class);
+    Runnable afterTransaction = mock(Runnable.class);
+
+    postgresConnection.inTransaction(() -> postgresConnection.runAfterRollback(committedAction));
+    assertThrows(SQLException.class, () -> postgresConnection.inTransaction(() -> {
+      postgresConnection.runAfterRollback(first);
+      postgresConnection.runAfterRollback(second);
+      postgresConnection.runAfterTransaction(afterTransaction);
+      throw new SQLException("boom");
+    }));
+
+    verify(committedAction, never()).run();
+    InOrder inOrder = inOrder(connection, first, second, afterTransaction);
+    inOrder.verify(connection).rollback();
+    inOrder.verify(second).run();
+    inOrder.verify(first).run();
+    inOrder.verify(afterTransaction).run();
+  }
+
+  @Test
+  public void testRunAfterRollbackIgnoredOutsideTransaction() {
+    Runnable action = mock(Runnable.class);
+
+    postgresConnection.runAfterRollback(action);
+
+    verify(action, never()).run();
+  }
+
+  @Test
+  public void testNestedTransactionJoinsOuter() throws SQLException {
+    when(connection.getAutoCommit()).thenReturn(true);
+
+    postgresConnection.inTransaction(() -> postgresConnection.inTransaction(() -> {}));
+
+    verify(connection, times(1)).setAutoCommit(false);
+    verify(connection, times(1)).commit();
+  }
+
+  @Test
+  public void testNestedTransactionWithDifferentIsolationRejected() throws SQLException {
+    when(connection.getAutoCommit()).thenReturn(true);
+
+    TransactionOptions serializable = new TransactionOptions().withIsolation(TransactionOptions.Isolation.SERIALIZABLE);
+
+    assertThrows(IllegalStateException.class, () -> postgresConnection.inTransaction(() ->
+        postgresConnection.inTransaction(serializable, () -> {})));
+
+    verify(connection).rollback();
+    verify(connection, never()).commit();
+  }
+
+  @Test
+  public void testLostConnectionInTransactionNotReplaced() throws SQLException {
+    when(connection.getAutoCommit()).thenReturn(true);
+
+    assertThrows(SQLException.class, () -> postgresConnection.inTransaction(() -> {
+      when(connection.isClosed()).thenReturn(true);
+      postgresConnection.prepareAndExecuteStatementUpdate("UPDATE test SET title = ?", "lost");
+    }));
+
+    verify(connection, never()).close();
+    verify(connection, never()).prepareStatement(anyString());
+    verify(connection, never()).commit();
+  }
+
   @Test
   public void testExecutePreparedUpdateWithParams() {
 